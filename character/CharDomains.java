@@ -5,7 +5,6 @@ package webcrypt.character;
  * allow its objects to have a predefined domain and to allow for
  * char manipulations methods.
  */
-import java.util.Hashtable;
 import java.math.BigInteger;
 import webcrypt.crypto.KeyCreationException;
 
@@ -34,6 +33,29 @@ public class CharDomains{
      */
     public void setDomain(int[][] dom){
 	domain = dom;
+	domainBits = (dom == null) ? null : makeDomainBits(dom);
+	indexTable = null;
+    }
+
+    /**
+     * The domain as a bitset over the char values: bit c is set when c
+     * is in the domain.  Lets inDomain() answer in O(1) however many
+     * ranges the domain has.
+     */
+    private long[] domainBits = null;
+
+    /**
+     * Build the bitset for a domain (helper for setDomain).
+     */
+    private static long[] makeDomainBits(int[][] dom){
+	int max = -1;
+	for(int i = 0; i < dom.length; i++)
+	    if (dom[i][1] > max) max = dom[i][1];
+	long[] bits = new long[(max>>>6)+1];
+	for(int i = 0; i < dom.length; i++)
+	    for(int c = dom[i][0]; c <= dom[i][1]; c++)
+		bits[c>>>6] |= 1L<<c;
+	return bits;
     }
 
     /**
@@ -166,43 +188,53 @@ public class CharDomains{
 
     /**
      * Built-in method for testing whether a character is in the preset range.
-     * May want to over-ride the method with faster algorithm, if available.
+     * O(1): a single bit test in the domain's bitset.
      */
     public boolean inDomain(char c){
 	int cint = (int)c;
 	if (domain == null) return true;
-	for (int i = 0; i < domain.length; i++) {
-	    if (cint < domain[i][0]) return false;
-	    if (cint <= domain[i][1]) return true;
-	}
-	return false;	    
+	long[] bits = domainBits;
+	if (bits == null) // domain field was assigned without setDomain()
+	    domainBits = bits = makeDomainBits(domain);
+	return (cint>>>6) < bits.length && (bits[cint>>>6] & (1L<<cint)) != 0;
     }
 
-    //For use with the following method
-    private Hashtable table = null;
+    /**
+     * For use with the following method: indexTable[c] is the index of c
+     * in the domain, or -1.  Covers the chars up to the largest in the
+     * domain.
+     */
+    private int[] indexTable = null;
 
     /**
      * Built-in method for finding the index of the searched character in O(1) time
-     * using a hashtable.  The hashtable is constructed only if it was never used before.
+     * using a lookup table.  The table is constructed only if it was never used before.
      *
      * Returns -1 if character is outside the domain.
      */
     public int getIndex(char c){
+	if (domain == null) return c;
 	// initialize the table if this is the first use:
-	if (table == null) makeIndexTable();
-	Integer idx = (Integer)table.get(new Character(c));
-	return idx==null?-1:idx.intValue();
+	int[] t = indexTable;
+	if (t == null) t = makeIndexTable();
+	return (c < t.length) ? t[c] : -1;
     }
 
     /**
-     * Make the index table (helper for getIndex
+     * Make the index table (helper for getIndex)
      */
-    public void makeIndexTable(){
-	table = new Hashtable();
+    public int[] makeIndexTable(){
+	int max = -1;
+	for(int i = 0; i < domain.length; i++)
+	    if (domain[i][1] > max) max = domain[i][1];
+	int[] t = new int[max+1];
+	java.util.Arrays.fill(t,-1);
 	int j = 0;
 	for(int i = 0; i < domain.length; i++)
-	    for(char ch = (char)domain[i][0]; ch <= (char)domain[i][1]; ch++)
-		table.put(new Character(ch), new Integer(j++));
+	    for(int ch = domain[i][0]; ch <= domain[i][1]; ch++)
+		t[ch] = j++;
+	indexTable = t;
+	return t;
     }
 
     /**
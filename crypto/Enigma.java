@@ -9,20 +9,25 @@ import webcrypt.math.*;
  *
  * A keyword takes the form:
  *
- * threeletterstring[_twoletterstring]*
+ * threeletterstring[-threeletterstring][_twoletterstring]*
  *
- * Where the threeletterstring defins the rotor settings
- * and the sequence of twoletterstrings define the plugboard settings.
+ * Where the threeletterstring defins the rotor settings, the optional
+ * second one the ring settings, and the sequence of twoletterstrings
+ * define the plugboard settings.
  *
  * The default operation on non-letters is to ignore the character
  * by not transforming it, and by not advancing the enigma machine.
  *
+ * A four rotor M4 is made with Enigma(wheelOrder,greek,thin).  Its keys
+ * have four rotor letters (and four ring letters, if any), the fourth one
+ * for the thin rotor, e.g. GANQ_BF_AQ.
+ *
  *
  */
 public class Enigma extends Kernel implements EnigmaDefinitions{
     
     public String toString(){
-	return "Enigma(threeletters[_twoletters]*)"; 
+	return "Enigma(threeletters[-threeletters][_twoletters]*)"; 
     }
 
     /**
@@ -31,7 +36,17 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
     public String rotors(){
 	return (  (""+(char)(a.getOrientation()+'A'))
 		  + (char)(b.getOrientation()+'A') )
-	    + (char)(c.getOrientation()+'A') ;
+	    + (char)(c.getOrientation()+'A')
+	    + (d == null ? "" : ""+(char)(d.getOrientation()+'A'));
+    }
+
+    /**
+     * Get the rotor positions as a ScramblerTable orientation number.
+     * With ring settings this is the number of the wiring offsets, which
+     * is what the scrambler depends on.
+     */
+    public int state(){
+	return ScramblerTable.state(a.getOffset(),b.getOffset(),c.getOffset());
     }
 
     /** 
@@ -43,6 +58,11 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
 	out += "\na = "+(char)(a.getOrientation()+'A');
 	out += "\nb = "+(char)(b.getOrientation()+'A');
 	out += "\nc = "+(char)(c.getOrientation()+'A');
+	if (d != null)
+	    out += "\nd = "+(char)(d.getOrientation()+'A')+" ("+GREEKNAMES[greek]
+		+", thin reflector "+THINNAMES[thin]+")";
+	if (a.getRing() != 0 || b.getRing() != 0 || c.getRing() != 0)
+	    out += "\nRings: "+(char)(a.getRing()+'A')+(char)(b.getRing()+'A')+(char)(c.getRing()+'A');
 	out += "\n\n Plugboard Permutaion:"+p;
 	return out;
     }
@@ -58,6 +78,62 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
     protected EnigmaPerm b; //second rotor
     protected EnigmaPerm c; //third rotor
     protected EnigmaPerm r; //reflector
+    protected EnigmaPerm d = null; //thin fourth rotor of an M4, which never turns
+
+    /**
+     * For an M4, the indices of the thin rotor in GREEKROTORS and of the
+     * thin reflector in THINREFLECTORS.  r is then the reflector made up
+     * of the two at the thin rotor's current position (see
+     * ScramblerTable.m4Reflector()), so that encryption goes through three
+     * rotors and a reflector just as for three rotor machines.
+     */
+    protected int greek = -1, thin = -1;
+
+    /**
+     * The wiring of r.
+     */
+    protected String reflector = REFLECTOR;
+
+    public String getReflector(){ return reflector; }
+
+    /**
+     * Optional precomputed scrambler for this machine's rotors.  When set,
+     * encryptChar() only steps the rotors and then looks the letter up,
+     * instead of walking the nine permutations of the rotor chain.
+     */
+    protected ScramblerTable scrambler = null;
+
+    /**
+     * The default rotors, in order a,b,c, as indices into ROTORS.
+     */
+    public final static int[] DEFAULTWHEELORDER = new int[]{0,1,2};
+
+    /**
+     * The rotors used by this machine, in order a,b,c, as indices into ROTORS.
+     */
+    protected int[] wheelOrder;
+
+    public int[] getWheelOrder(){ return wheelOrder.clone(); }
+
+    /**
+     * Use the given table (null to go back to the rotor chain).  The table
+     * must have been built for this machine's wheel order.
+     */
+    public void setScramblerTable(ScramblerTable t) throws IllegalArgumentException{
+	if (t != null && !java.util.Arrays.equals(t.getWheelOrder(),wheelOrder))
+	    throw new IllegalArgumentException("Scrambler table built for a different wheel order.");
+	if (t != null && !t.getReflector().equals(reflector))
+	    throw new IllegalArgumentException("Scrambler table built for a different reflector.");
+	scrambler = t;
+    }
+
+    /**
+     * Switch to the table shared by all machines with this wheel order,
+     * building it if this is the first machine in the JVM to ask for it.
+     */
+    public void useScramblerTable(){
+	setScramblerTable(ScramblerTable.forWheelOrder(wheelOrder,reflector));
+    }
 
     /**
      * Enigma works as follows.
@@ -75,19 +151,64 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
      * 9) Finally apply plugboard (self-inverse):p(a_inv(b_inv(c_inv(r(c(b(a(p(X)))))))))
      */
     public Enigma(){
+	this(DEFAULTWHEELORDER);
+    }
+
+    /**
+     * Create a machine with a chosen wheel order: wheelOrder[0], [1] and [2]
+     * are the indices in ROTORS of rotors a, b and c.  There are
+     * 5*4*3 = 60 possible wheel orders.
+     */
+    public Enigma(int[] wheelOrder) throws IllegalArgumentException{
+	ScramblerTable.checkWheelOrder(wheelOrder);
+	this.wheelOrder = wheelOrder.clone();
 	setDomain(LETTERS);
 	setAssociatedKeyClass("webcrypt.crypto.EnigmaKey");
 	//plugboard can only be set up when we know the key
 	try{
-	    a = new EnigmaPerm(ROTORS[0],NOTCHES[0],ROTORTYPE); //first rotor
-	    b = new EnigmaPerm(ROTORS[1],NOTCHES[1],ROTORTYPE); //second rotor
-	    c = new EnigmaPerm(ROTORS[2],NOTCHES[2],ROTORTYPE); //third rotor
+	    a = new EnigmaPerm(ROTORS[wheelOrder[0]],NOTCHES[wheelOrder[0]],ROTORTYPE); //first rotor
+	    b = new EnigmaPerm(ROTORS[wheelOrder[1]],NOTCHES[wheelOrder[1]],ROTORTYPE); //second rotor
+	    c = new EnigmaPerm(ROTORS[wheelOrder[2]],NOTCHES[wheelOrder[2]],ROTORTYPE); //third rotor
 	    r = new EnigmaPerm(REFLECTOR); //reflector
 	}catch(IllegalPermutationException e){
 	    System.out.println("THIS SHOULD NEVER HAPPEN SINCE WIRING DONE WITH CONSTANTS!!!!");
 	}
     }
 
+    /**
+     * Create a four rotor M4 with the given wheel order for the three
+     * turning rotors, the thin rotor GREEKROTORS[greek] and the thin
+     * reflector THINREFLECTORS[thin].
+     */
+    public Enigma(int[] wheelOrder, int greek, int thin) throws IllegalArgumentException{
+	this(wheelOrder);
+	String wiring = ScramblerTable.m4Reflector(greek,0,thin);  // checks greek and thin
+	this.greek = greek;
+	this.thin = thin;
+	try{
+	    d = new EnigmaPerm(GREEKROTORS[greek],'A',ROTORTYPE);
+	}catch(IllegalPermutationException e){
+	    System.out.println("THIS SHOULD NEVER HAPPEN SINCE WIRING DONE WITH CONSTANTS!!!!");
+	}
+	setReflector(wiring);
+    }
+
+    /**
+     * Rewire the reflector, switching to the matching shared scrambler
+     * table if a table is in use.
+     */
+    private void setReflector(String wiring){
+	if (wiring.equals(reflector)) return;
+	try{
+	    r = new EnigmaPerm(wiring);
+	}catch(IllegalPermutationException e){
+	    System.out.println("THIS SHOULD NEVER HAPPEN SINCE REFLECTOR CHECKED!!!!");
+	}
+	reflector = wiring;
+	if (scrambler != null)
+	    scrambler = ScramblerTable.forWheelOrder(wheelOrder,reflector);
+    }
+
     /**
      * As the Enigma cipher acts locally on the text without changing
      * the size, implement the void version.
@@ -96,30 +217,132 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
 	EnigmaKey k = (EnigmaKey)e; 
 	setup(k);
 	
+	// copy out once, rather than a synchronized charAt()/setCharAt()
+	// pair for every letter
 	int len = plaintext.length();
-	for (int i=0; i<len; i++){
-	    char X = plaintext.charAt(i);
-	    if(inDomain(X)){ //then operate on X
-		if( (int)X > 90 ) // lower case
-		    X -= 32; // convert to upper case
-		// now permute in replace in string buffer
-		plaintext.setCharAt(i,encryptChar(X,true)); //true for rotation
+	if (work == null || work.length < len) work = new char[len];
+	plaintext.getChars(0,len,work,0);
+	encryptChars(work,0,len);
+	plaintext.setLength(0);
+	plaintext.append(work,0,len);
+    }
+
+    /**
+     * Encrypt len characters of text starting at off, in place, with the
+     * given key.
+     */
+    public void encryptOn(char[] text, int off, int len, Key e){
+	setup((EnigmaKey)e);
+	encryptChars(text,off,len);
+    }
+
+    /**
+     * Reusable buffer for encryptOn(StringBuffer,Key)
+     */
+    private char[] work = null;
+
+    /**
+     * The plugboard as a plain array, refreshed by encryptChars()
+     */
+    private int[] plug = new int[26];
+
+    /**
+     * Texts at least this long are encrypted with the shared scrambler
+     * table even when none was set: building the table takes about as
+     * long as sending a few hundred thousand letters through the rotors.
+     */
+    public final static int TABLELENGTH = 1<<18;
+
+    /**
+     * Encrypt len characters of text starting at off, in place, continuing
+     * from the machine's current settings (so setup() must have been
+     * called).  Characters outside the domain are left alone and don't
+     * advance the machine; lower case letters come out as capitals.
+     *
+     * With a scrambler table the rotor orientations are kept in local
+     * variables and only written back to the rotors at the end, so the
+     * loop allocates nothing and does one table lookup per letter.
+     */
+    public void encryptChars(char[] text, int off, int len){
+	ScramblerTable t = scrambler;
+	if (t == null && len >= TABLELENGTH)
+	    t = ScramblerTable.forWheelOrder(wheelOrder,reflector);
+	if (t == null){
+	    for (int i=off; i<off+len; i++){
+		char X = text[i];
+		if(inDomain(X)){
+		    if( (int)X > 90 ) // lower case
+			X -= 32;
+		    text[i] = encryptChar(X,true); //true for rotation
+		}
+	    }
+	    return;
+	}
+	for (int i=0; i<26; i++) plug[i] = p.permute(i);
+	int oa = a.getOrientation(), ob = b.getOrientation(), oc = c.getOrientation();
+	int na = a.getNotch()-'A', nb = b.getNotch()-'A';
+	// the table wants the wiring offsets, orientation - ring
+	int ra = 26-a.getRing(), rb = 26-b.getRing(), rc = 26-c.getRing();
+	for (int i=off; i<off+len; i++){
+	    char X = text[i];
+	    if(!inDomain(X)) continue;
+	    if( (int)X > 90 ) // lower case
+		X -= 32;
+	    // step() on the local orientations
+	    oa = (oa+1) % 26;
+	    if (oa == na){
+		ob = (ob+1) % 26;
+		if (ob == nb)
+		    oc = (oc+1) % 26;
 	    }
+	    int state = ScramblerTable.state((oa+ra) % 26,(ob+rb) % 26,(oc+rc) % 26);
+	    text[i] = (char)('A' + plug[t.permute(state,plug[X-'A'])]);
 	}
+	a.setOrientation((char)('A'+oa));
+	b.setOrientation((char)('A'+ob));
+	c.setOrientation((char)('A'+oc));
     }
 
     /**
      * Helper method to encryptOn().  Puts the settings in place.
+     * The plugboard is rewired in place after the first call.
      */
     public void setup(EnigmaKey k){
 	try{
-	    p = new EnigmaPerm(k.plugboardArray);   //plugboard
+	    if (p == null)
+		p = new EnigmaPerm(k.plugboardArray);   //plugboard
+	    else
+		p.setPlugboard(k.plugboardArray);
 	}catch(IllegalPermutationException e){
 	    System.out.println("THIS SHOULD NEVER HAPPEN SINCE KEY CHECKED PLUGBOARD SETTINGS!!!!");
+	    // don't go on with the last key's plugs
+	    try{
+		p = new EnigmaPerm(new char[0][]);
+	    }catch(IllegalPermutationException never){
+	    }
 	}
 	a.setOrientation(k.orientations[0]);    //first rotor
 	b.setOrientation(k.orientations[1]);    //second rotor
 	c.setOrientation(k.orientations[2]);    //third rotor
+	a.setRing(k.rings[0]);
+	b.setRing(k.rings[1]);
+	c.setRing(k.rings[2]);
+	if (d != null){
+	    d.setOrientation(k.orientations.length > 3 ? k.orientations[3] : 'A');
+	    d.setRing(k.rings.length > 3 ? k.rings[3] : 'A');
+	    setReflector(ScramblerTable.m4Reflector(greek,d.getOffset(),thin));
+	}
+    }
+
+    /**
+     * Turn the rotors to new orientations (letters, in order a,b,c),
+     * leaving the rings and plugboard of the last setup() alone, as an
+     * operator does between the indicator and the text of a message.
+     */
+    public void setOrientations(char[] orientations){
+	a.setOrientation(Character.toUpperCase(orientations[0]));
+	b.setOrientation(Character.toUpperCase(orientations[1]));
+	c.setOrientation(Character.toUpperCase(orientations[2]));
     }
 
     /** 
@@ -131,6 +354,10 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
      * none of the other rotors will rotate.
      **/
     public char encryptChar(char X, boolean rotate){	
+      if (scrambler != null){
+	  if (rotate) step();
+	  return p.permute(scrambler.permute(state(),p.permute(X)));
+      }
       return 
 	p.permute(
 	    a.inversePermute(
@@ -151,6 +378,37 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
 	    );                                             /* p */
     }
 
+    /**
+     * Rotate the rotors exactly as a rotating call to encryptChar() would:
+     * a always turns, b turns when a reaches its notch, and c turns when
+     * b then reaches its notch.
+     */
+    protected void step(){
+	a.rotate();
+	if (a.notchPresent()){
+	    b.rotate();
+	    if (b.notchPresent())
+		c.rotate();
+	}
+    }
+
+    /**
+     * The ScramblerTable orientations at which the next n letters will be
+     * encrypted, in order.  The machine itself is left where it is.
+     */
+    public int[] nextStates(int n){
+	int oa = a.getOrientation(), ob = b.getOrientation(), oc = c.getOrientation();
+	int[] out = new int[n];
+	for(int i=0; i<n; i++){
+	    step();
+	    out[i] = state();
+	}
+	a.setOrientation((char)('A'+oa));
+	b.setOrientation((char)('A'+ob));
+	c.setOrientation((char)('A'+oc));
+	return out;
+    }
+
     /**
      * Crank the machine forward one unit.
      */ 
@@ -158,6 +416,31 @@ public class Enigma extends Kernel implements EnigmaDefinitions{
 	encryptChar('A',true);
     }
 
+    /**
+     * Crank the machine forward n units (n >= 0) in constant time.
+     * Rotor b turns once for each time a reaches its notch, and c once
+     * for each time b then reaches its notch, so the three new
+     * orientations follow from two notch counts.
+     */
+    public void advance(int n) throws IllegalArgumentException{
+	if (n < 0)
+	    throw new IllegalArgumentException("Can't crank an Enigma backwards.");
+	int nb = a.notchesIn(n);
+	int nc = b.notchesIn(nb);
+	a.rotate(n);
+	b.rotate(nb);
+	c.rotate(nc);
+    }
+
+    /**
+     * Put the settings in place and move to where the machine is after
+     * n letters, so that encryption can start at letter n of a message.
+     */
+    public void setup(EnigmaKey k, int n){
+	setup(k);
+	advance(n);
+    }
+
     /**
      * Decryption is exactly the same as encryption!
      */
@@ -24,6 +24,19 @@ public interface EnigmaDefinitions{
     public final static String REFLECTOR = "YRUHQSLDPXNGOKMIEBFZCWVJAT";
     
     public final static char[] NOTCHES = new char[]{ 'Q','E','V','J','Z' };
+
+    /**
+     * The thin rotors of the four rotor M4, which sit between the third
+     * rotor and a thin reflector and never turn, and the thin reflectors.
+     */
+    public final static String[] GREEKROTORS = new String[]{
+	                          /* beta:  */ "LEYJVCNIXWPBQMDRTAKZGFUHOS",
+	                          /* gamma: */ "FSOKANUERHMBTIYCWLQPZXVGJD" };
+    public final static String[] GREEKNAMES = new String[]{ "beta", "gamma" };
+    public final static String[] THINREFLECTORS = new String[]{
+	                          /* B: */ "ENKQAUYWJICOPBLMDXZVFTHRGS",
+	                          /* C: */ "RDOBJNTKVEHMLFCWZAXGYIPSUQ" };
+    public final static String[] THINNAMES = new String[]{ "B", "C" };
  
     /**
      * Associated types
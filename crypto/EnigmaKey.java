@@ -2,16 +2,19 @@ package webcrypt.crypto;
 /** 
  *  The EnigmaKey class implements the key for the Enigma encryption algorithm.
  *
- *  The key consist of rotor and plugboard settings.
+ *  The key consist of rotor, ring and plugboard settings.
  *
  *  The keyseed looks like
  * 
- *  orientationstring[_plugboardstring]*
+ *  orientationstring[-ringstring][_plugboardstring]*
  *
  *  Where orientationstring should be a string at least as long as the number
  *  of rotors such that the first letter orients the first rotor, the second
  *  letter orients the second rotor, etc...
  *
+ *  The optional ringstring gives the ring settings (Ringstellung) of the
+ *  rotors in the same order, e.g. GAN-BCD.  Without it every ring is at A.
+ *
  *  and where [_plugboardstring]* is a regular expression denoting that
  *  "_plugboardstring" may occur 0 or more times where "_" is the token
  *  separator and plugboardstring consists of two letters (at least, the other
@@ -31,13 +34,28 @@ public class EnigmaKey extends Key implements EnigmaDefinitions{
      */
     protected char[][] plugboardArray;  // The plugboard settings
     protected char[] orientations = new char[NUMROTORS]; // the rotor orientations
+    protected char[] rings = new char[]{ 'A','A','A' };  // the ring settings
+
+    /**
+     * Accessor methods (copies, the key can't be changed)
+     */
+    public char[] getOrientations(){ return orientations.clone(); }
+    public char[] getRings(){ return rings.clone(); }
+    public char[][] getPlugboard(){
+	char[][] out = new char[plugboardArray.length][];
+	for(int i=0; i<out.length; i++) out[i] = plugboardArray[i].clone();
+	return out;
+    }
 
     private static String errstr 
 	= "An Enigma key consists of "+NUMROTORS+" orientation letters\n"
 	+"followed by a sequence of pairs of letters for the pluboard\n"
 	+"with each token separated by an underscore.\n"
+	+"The orientation letters may be followed by a hyphen and "+NUMROTORS+" ring settings.\n"
 	+"For example, here's a valid key string for 3 rotors and 5 plug cables:"
-	+"        GAN_BF_AQ_EG_ZN_RT";
+	+"        GAN_BF_AQ_EG_ZN_RT\n"
+	+"and the same key with the rings set to B, C and D:"
+	+"        GAN-BCD_BF_AQ_EG_ZN_RT";
 
     /**
      * Create effective key in accordance to steps 1-4 above
@@ -46,16 +64,27 @@ public class EnigmaKey extends Key implements EnigmaDefinitions{
 	super(keytext);
 	seedKey = keytext.toUpperCase();
 
-	//if there are non-alphabetic letters other than "_" throw an exception
+	//if there are non-alphabetic letters other than "_" and "-" throw an exception
 	for(int i=0; i<seedKey.length(); i++)
 	    if( !Character.isLetter(seedKey.charAt(i))
-		&& seedKey.charAt(i) != '_')
+		&& seedKey.charAt(i) != '_' && seedKey.charAt(i) != '-')
 		throw new KeyCreationException(errstr);
 	
 	StringTokenizer keytokens = new StringTokenizer(seedKey,"_");
+	if (!keytokens.hasMoreTokens())
+	    throw new KeyCreationException(errstr);
 
-	// the orientations are given by the first token
-	orientations = keytokens.nextToken().toCharArray();
+	// the orientations, and possibly the rings, are given by the first token
+	String rotortoken = keytokens.nextToken();
+	int hyphen = rotortoken.indexOf('-');
+	if (hyphen != -1){
+	    String ringtoken = rotortoken.substring(hyphen+1);
+	    rotortoken = rotortoken.substring(0,hyphen);
+	    if (ringtoken.length() < NUMROTORS || ringtoken.indexOf('-') != -1)
+		throw new KeyCreationException(errstr);
+	    rings = ringtoken.toCharArray();
+	}
+	orientations = rotortoken.toCharArray();
 	if (orientations.length < NUMROTORS)
 	    throw new KeyCreationException(errstr);
 	
@@ -64,7 +93,7 @@ public class EnigmaKey extends Key implements EnigmaDefinitions{
 	String pair;
 	for(int i=0; i<plugboardArray.length; i++){
 	    pair = keytokens.nextToken();
-	    if (pair.length() < 2)
+	    if (pair.length() < 2 || pair.indexOf('-') != -1)
 		throw new KeyCreationException(errstr);
 	    for(int j=0; j<2; j++){
 		plugboardArray[i][j] = pair.charAt(j);
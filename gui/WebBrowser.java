@@ -129,7 +129,7 @@ public class WebBrowser extends JFrame
     }
 
     /* ZEPH ADD-INS>>> needed for the stats GUI */
-    final static int NUMANALYZORS = 9;
+    final static int NUMANALYZORS = 17;
     final static Analyzor[] ANALYZORS = new Analyzor[NUMANALYZORS];
     static{
 	ANALYZORS[0] = new FrequencyAnalysis();
@@ -141,6 +141,14 @@ public class WebBrowser extends JFrame
 	ANALYZORS[6] = new Bombe();
 	ANALYZORS[7] = new PlugAnalysis();
 	ANALYZORS[8] = new TimestampAnalysis();
+	ANALYZORS[9] = new PlugClimbAnalysis();
+	ANALYZORS[10] = new RotorAnalysis();
+	ANALYZORS[11] = new BanburismusAnalysis();
+	ANALYZORS[12] = new RotorWiringAnalysis();
+	ANALYZORS[13] = new CharacteristicAnalysis();
+	ANALYZORS[14] = new CribScanAnalysis();
+	ANALYZORS[15] = new DailyKeyDecryptor();
+	ANALYZORS[16] = new StreamingAnalysis();
     }
 
     /** Create and initialize a new WebBrowser window */
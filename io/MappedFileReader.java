@@ -0,0 +1,67 @@
+package webcrypt.io;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A Reader over a file of any length, memory-mapped a window at a time.
+ *
+ * As in TextManip, each byte is taken for one 8-bit char.  Only one
+ * window of the file (64MB at most) is mapped at any time, and nothing is
+ * copied but the chars asked for, so a file of several GB is read in
+ * constant memory and without going through a stream's buffers.
+ */
+public class MappedFileReader extends Reader{
+
+    /**
+     * Most bytes mapped at once.
+     */
+    public final static int WINDOW = 1<<26;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long length;
+    private long position = 0;     // of the start of the window
+    private MappedByteBuffer window = null;
+    private byte[] bytes = new byte[1<<13];
+
+    public MappedFileReader(File f) throws IOException{
+	raf = new RandomAccessFile(f,"r");
+	channel = raf.getChannel();
+	length = channel.size();
+    }
+
+    public MappedFileReader(String f) throws IOException{
+	this(new File(f));
+    }
+
+    /**
+     * The length of the file in chars.
+     */
+    public long length(){
+	return length;
+    }
+
+    /**
+     * Read up to len chars into cbuf from off; -1 at the end of the file.
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException{
+	if (channel == null)
+	    throw new IOException("reader closed");
+	if (window == null || !window.hasRemaining()){
+	    if (window != null) position += window.capacity();
+	    if (position >= length) return -1;
+	    window = channel.map(FileChannel.MapMode.READ_ONLY,position,Math.min(WINDOW,length-position));
+	}
+	int n = Math.min(Math.min(len,bytes.length),window.remaining());
+	window.get(bytes,0,n);
+	for(int i=0; i<n; i++) cbuf[off+i] = (char)(bytes[i] & 0xff);
+	return n;
+    }
+
+    public void close() throws IOException{
+	window = null;
+	channel = null;
+	raf.close();
+    }
+}
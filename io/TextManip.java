@@ -65,6 +65,74 @@ public class TextManip{
 
     }
 
+    /**
+     * The letters of the text, capitalized, in order.  These are exactly
+     * the characters that advance an Enigma.
+     */
+    public static char[] letters(StringBuffer text){
+	int len = text.length(), n = 0;
+	char[] out = new char[len];
+	for(int i=0; i<len; i++){
+	    char c = text.charAt(i);
+	    if ( (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') )
+		out[n++] = Character.toUpperCase(c);
+	}
+	char[] trimmed = new char[n];
+	System.arraycopy(out,0,trimmed,0,n);
+	return trimmed;
+    }
+
+    /**
+     * The letters of a file, capitalized as by letters(), read through a
+     * MappedFileReader.
+     */
+    public static char[] readLetters(File f) throws IOException{
+	MappedFileReader in = new MappedFileReader(f);
+	try{
+	    if (in.length() > Integer.MAX_VALUE)
+		throw new IOException(f+" is too large to read at once");
+	    char[] out = new char[(int)in.length()];
+	    int len = 0;
+	    while(len < out.length){
+		int got = in.read(out,len,out.length-len);
+		if (got == -1) break;
+		len += got;
+	    }
+	    int n = 0;
+	    for(int i=0; i<len; i++){
+		char c = out[i];
+		if ( (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') )
+		    out[n++] = Character.toUpperCase(c);
+	    }
+	    char[] trimmed = new char[n];
+	    System.arraycopy(out,0,trimmed,0,n);
+	    return trimmed;
+	}finally{
+	    in.close();
+	}
+    }
+
+    /**
+     * The files under f, subdirectories included, in name order, or f
+     * itself if it is a file.
+     */
+    public static File[] listFiles(File f){
+	java.util.ArrayList out = new java.util.ArrayList();
+	addFiles(f,out);
+	return (File[])out.toArray(new File[out.size()]);
+    }
+
+    private static void addFiles(File f, java.util.ArrayList out){
+	if (!f.isDirectory()){
+	    if (f.isFile()) out.add(f);
+	    return;
+	}
+	File[] in = f.listFiles();
+	if (in == null) return;
+	java.util.Arrays.sort(in);
+	for(int i=0; i<in.length; i++) addFiles(in[i],out);
+    }
+
     public static void main(String[] args){
 	System.out.println("length = "+getFileLength(args[0]));
         String s = getInterval(args[0],Long.parseLong(args[1]),Integer.parseInt(args[2]));
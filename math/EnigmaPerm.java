@@ -24,6 +24,13 @@ public class EnigmaPerm extends CapsPerm implements webcrypt.crypto.EnigmaDefini
      */
     private int orientation;
 
+    /**
+     * The ring setting (Ringstellung), 0 for A.  The wiring sits
+     * orientation-ring positions round while the notch, which is on the
+     * ring, follows the orientation.
+     */
+    private int ring = 0;
+
     /**
      * Flag for wheter this is a rotor or a reflector
      */
@@ -34,12 +41,20 @@ public class EnigmaPerm extends CapsPerm implements webcrypt.crypto.EnigmaDefini
      */
     public char getNotch(){ return notch; }
     public int  getOrientation(){ return orientation; }
+    public int  getRing(){ return ring; }
+
+    /**
+     * How far round the wiring is: the orientation less the ring setting.
+     * This, not the orientation, is what a ScramblerTable is indexed by.
+     */
+    public int  getOffset(){ return (orientation - ring + 26) % 26; }
     public boolean getType() { return permtype; }
 
     /**
      * Settor method
      */
     public void setOrientation(char orientation){ this.orientation = (int)(orientation-'A'); }
+    public void setRing(char ring){ this.ring = ring-'A'; }
 
     /**
      * Since rotors are meant to be used both forwards and backwards,
@@ -63,20 +78,37 @@ public class EnigmaPerm extends CapsPerm implements webcrypt.crypto.EnigmaDefini
      * The method is suitable for reflectors.
      */
     public char permute(char input){
-	return( (char)(perm[(26+input-'A'-orientation) % 26] + 'A') );
+	return( (char)(perm[(26+input-'A'-orientation+ring) % 26] + 'A') );
     }
 
     /**
      * Method for inverse permutation.  
      */
     public char inversePermute(char input){
-	return  (char)('A' + (inverse[input-'A'] + 26 + orientation) % 26 );
+	return  (char)('A' + (inverse[input-'A'] + 26 + orientation - ring) % 26 );
     }
 
     /**
      * Rotate the wheel one position.
      */
     public void rotate(){ orientation = (orientation+1) % 26 ;  }
+
+    /**
+     * Rotate the wheel n positions (n >= 0) at once.
+     */
+    public void rotate(int n){ orientation = (orientation + n % 26) % 26; }
+
+    /**
+     * The number of times the notch becomes present during the next n
+     * rotations, i.e. how often this rotor turns the next one.  O(1):
+     * the notch first comes round after (notch - orientation) mod 26
+     * rotations (26 if it is present now) and then every 26.
+     */
+    public int notchesIn(int n){
+	int first = (notch - 'A' - orientation + 26) % 26;
+	if (first == 0) first = 26;
+	return (n < first) ? 0 : 1 + (n-first)/26;
+    }
     
     /**
      * Possibly rotate and then permute the letter.
@@ -141,6 +173,33 @@ public class EnigmaPerm extends CapsPerm implements webcrypt.crypto.EnigmaDefini
 	this(plugboard2keyword(plugboard));
     }
 
+    /**
+     * Rewire a plugboard in place, without allocating a new permutation.
+     * The plugboard array has the same form as in the plugboard constructor,
+     * and is checked as plugboard2keyword() checks it: a letter plugged to
+     * itself (e.g. AA) is left alone, and a letter in two pairs is an
+     * error.  If the plugboard is incorrect an exception is thrown and the
+     * old wiring is kept.
+     */
+    public void setPlugboard(char[][] plugboard) throws IllegalPermutationException{
+	int[] wiring = perm;
+	int used = 0;  // bit i set once letter i is plugged
+	for(int i=0; i<plugboard.length; i++){
+	    int idx0 = plugboard[i][0]-'A';
+	    int idx1 = plugboard[i][1]-'A';
+	    if ( idx0 < 0 || idx0 >= 26 || idx1 < 0 || idx1 >= 26 )
+		throw new IllegalPermutationException("Incorrect plugboard setting.");
+	    if ( (used & (1<<idx0)) != 0 || (used & (1<<idx1)) != 0 )
+		throw new IllegalPermutationException("Incorrect plugboard setting.");
+	    used |= (1<<idx0) | (1<<idx1);
+	}
+	for(int i=0; i<26; i++) wiring[i] = i;
+	for(int i=0; i<plugboard.length; i++){
+	    wiring[plugboard[i][0]-'A'] = plugboard[i][1]-'A';
+	    wiring[plugboard[i][1]-'A'] = plugboard[i][0]-'A';
+	}
+    }
+
     /**
      * Helper method for the plugboard constructor.
      *
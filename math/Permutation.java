@@ -98,6 +98,100 @@ public abstract class Permutation{
     }
 	  
 
+    /**
+     * The product of this permutation and next: the permutation sending
+     * i to next(this(i)), as an array.
+     */
+    public int[] productArray(Permutation next){
+	return product(perm,next.perm);
+    }
+
+    /**
+     * The product of two permutations given as arrays: i goes to
+     * then[first[i]].
+     */
+    public static int[] product(int[] first, int[] then){
+	int[] out = new int[first.length];
+	for(int i=0; i<first.length; i++) out[i] = then[first[i]];
+	return out;
+    }
+
+    /**
+     * The cycles of the permutation, fixed points included, each starting
+     * with its smallest element and listed in order of that element.
+     */
+    public int[][] cycles(){
+	return cycles(perm);
+    }
+
+    public static int[][] cycles(int[] p){
+	boolean[] seen = new boolean[p.length];
+	int[][] found = new int[p.length][];
+	int numcycles = 0;
+	int[] cycle = new int[p.length];
+	for(int i=0; i<p.length; i++){
+	    if (seen[i]) continue;
+	    int len = 0;
+	    for(int j=i; !seen[j]; j=p[j]){
+		seen[j] = true;
+		cycle[len++] = j;
+	    }
+	    found[numcycles] = new int[len];
+	    System.arraycopy(cycle,0,found[numcycles++],0,len);
+	}
+	int[][] out = new int[numcycles][];
+	System.arraycopy(found,0,out,0,numcycles);
+	return out;
+    }
+
+    /**
+     * The cycle type of the permutation: the lengths of its cycles,
+     * longest first.  Two permutations have the same cycle type exactly
+     * when they are conjugate.
+     */
+    public int[] cycleType(){
+	return cycleType(perm);
+    }
+
+    public static int[] cycleType(int[] p){
+	boolean[] seen = new boolean[p.length];
+	int[] lengths = new int[p.length];
+	int numcycles = 0;
+	for(int i=0; i<p.length; i++){
+	    if (seen[i]) continue;
+	    int len = 0;
+	    for(int j=i; !seen[j]; j=p[j]){
+		seen[j] = true;
+		len++;
+	    }
+	    lengths[numcycles++] = len;
+	}
+	int[] out = new int[numcycles];
+	System.arraycopy(lengths,0,out,0,numcycles);
+	java.util.Arrays.sort(out);
+	for(int i=0; i<numcycles/2; i++){
+	    int t = out[i];
+	    out[i] = out[numcycles-1-i];
+	    out[numcycles-1-i] = t;
+	}
+	return out;
+    }
+
+    /**
+     * The cycles written out in the usual notation over the domain,
+     * e.g. (ADK)(BEX)(C)...
+     */
+    public String cycleString(){
+	int[][] c = cycles();
+	StringBuffer out = new StringBuffer();
+	for(int i=0; i<c.length; i++){
+	    out.append('(');
+	    for(int j=0; j<c[i].length; j++) out.append(domain[c[i][j]]);
+	    out.append(')');
+	}
+	return out.toString();
+    }
+
     /**
      * Create a permutation by specifying a permutation
      * using an array
@@ -0,0 +1,404 @@
+package webcrypt.math;
+
+/**
+ * A ScramblerTable holds, for one wheel order, the permutation performed by
+ * the rotors and reflector of an Enigma machine at every rotor orientation.
+ *
+ * The scrambler is everything between the two plugboard passes:
+ *
+ *    a_inv(b_inv(c_inv(r(c(b(a(X)))))))
+ *
+ * which takes nine EnigmaPerm calls to evaluate.  The table stores the 26
+ * outputs of each of the 26^3 orientations, so the same answer is one array
+ * index away.  This is what the Bombe does over and over, and what bulk
+ * encryption does once per letter.
+ *
+ * An orientation (a,b,c) is numbered state(a,b,c) = (a*26 + b)*26 + c where
+ * a, b and c are the rotor orientations 0-25 of the first, second and third
+ * rotor.  The wheel order lists which of the EnigmaDefinitions.ROTORS sit
+ * in positions a, b and c; the default Enigma uses {0,1,2}.
+ *
+ * The reflector is normally the REFLECTOR of EnigmaDefinitions, but any
+ * reflector wiring may be given.  This is how the four rotor M4 is handled:
+ * its thin fourth rotor never turns, so for each of its 26 positions the
+ * thin rotor and the thin reflector behind it act as a single reflector
+ * (see m4Reflector()), and the M4 scrambler is a three rotor scrambler with
+ * that reflector.
+ *
+ * A table takes 26^4 bytes.  It can be written to a file and memory-mapped
+ * back read-only, so that several JVMs share a single copy through the
+ * operating system's page cache.
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+
+public class ScramblerTable implements webcrypt.crypto.EnigmaDefinitions{
+
+    /**
+     * Number of rotor orientations (and so of table rows)
+     */
+    public final static int NUMSTATES = 26*26*26;
+
+    /**
+     * Table files start with this number followed by the wheel order
+     */
+    private final static int MAGIC = 0x454e4947;  // "ENIG"
+    private final static int HEADERSIZE = 4 + NUMROTORS;
+
+    /**
+     * Files of tables with another reflector start with this number, the
+     * wheel order and the 26 letters of the reflector wiring.
+     */
+    private final static int MAGICREFLECTOR = 0x454e4952;  // "ENIR"
+
+    /**
+     * Entry 26*state + x is the scrambler output for input x.
+     */
+    private ByteBuffer table;
+
+    /**
+     * Which rotors sit in positions a, b and c.
+     */
+    private int[] wheelOrder;
+
+    public int[] getWheelOrder(){ return wheelOrder.clone(); }
+
+    /**
+     * The wiring of the reflector.
+     */
+    private String reflector;
+
+    public String getReflector(){ return reflector; }
+
+    /**
+     * The number of the orientation (a,b,c), each in the range 0-25.
+     */
+    public static int state(int a, int b, int c){
+	return (a*26 + b)*26 + c;
+    }
+
+    /**
+     * The scrambler output (0-25) for input x (0-25) at the given orientation.
+     */
+    public int permute(int state, int x){
+	return table.get(26*state + x);
+    }
+
+    /**
+     * Character version of permute for capital letters.
+     */
+    public char permute(int state, char X){
+	return (char)('A' + table.get(26*state + X - 'A'));
+    }
+
+    /**
+     * Build the table in memory for the given wheel order.
+     */
+    public ScramblerTable(int[] wheelOrder){
+	this(wheelOrder,REFLECTOR);
+    }
+
+    /**
+     * Build the table in memory for the given wheel order and reflector
+     * wiring.
+     */
+    public ScramblerTable(int[] wheelOrder, String reflector) throws IllegalArgumentException{
+	checkWheelOrder(wheelOrder);
+	checkReflector(reflector);
+	this.wheelOrder = wheelOrder.clone();
+	this.reflector = reflector;
+	table = ByteBuffer.wrap(build(wheelOrder,reflector));
+    }
+
+    private ScramblerTable(int[] wheelOrder, String reflector, ByteBuffer table){
+	this.wheelOrder = wheelOrder;
+	this.reflector = reflector;
+	this.table = table;
+    }
+
+    /**
+     * Make sure a reflector wiring swaps the 26 letters in pairs.
+     */
+    public static void checkReflector(String reflector) throws IllegalArgumentException{
+	if (reflector == null || reflector.length() != 26)
+	    throw new IllegalArgumentException("A reflector must wire 26 letters.");
+	for(int x=0; x<26; x++){
+	    int y = reflector.charAt(x)-'A';
+	    if (y < 0 || y > 25 || y == x || reflector.charAt(y)-'A' != x)
+		throw new IllegalArgumentException("The reflector "+reflector+" doesn't swap letters in pairs.");
+	}
+    }
+
+    /**
+     * The reflector formed by the thin rotor GREEKROTORS[greek] at offset
+     * (its orientation less its ring, 0-25) in front of the thin reflector
+     * THINREFLECTORS[thin]: the letter goes through the thin rotor, is
+     * reflected and comes back through the thin rotor.
+     */
+    public static String m4Reflector(int greek, int offset, int thin) throws IllegalArgumentException{
+	if (greek < 0 || greek >= GREEKROTORS.length)
+	    throw new IllegalArgumentException("No thin rotor number "+(greek+1)+".");
+	if (thin < 0 || thin >= THINREFLECTORS.length)
+	    throw new IllegalArgumentException("No thin reflector number "+(thin+1)+".");
+	EnigmaPerm d = null, r = null;
+	try{
+	    d = new EnigmaPerm(GREEKROTORS[greek],'A',ROTORTYPE);
+	    r = new EnigmaPerm(THINREFLECTORS[thin]);
+	}catch(IllegalPermutationException e){
+	    System.out.println("THIS SHOULD NEVER HAPPEN SINCE WIRING DONE WITH CONSTANTS!!!!");
+	}
+	d.setOrientation((char)('A'+offset));
+	char[] out = new char[26];
+	for(char X='A'; X<='Z'; X++)
+	    out[X-'A'] = d.inversePermute(r.permute(d.permute(X)));
+	return new String(out);
+    }
+
+    /**
+     * Make sure the wheel order names NUMROTORS distinct rotors.
+     */
+    public static void checkWheelOrder(int[] wheelOrder) throws IllegalArgumentException{
+	if (wheelOrder == null || wheelOrder.length != NUMROTORS)
+	    throw new IllegalArgumentException("A wheel order must name "+NUMROTORS+" rotors.");
+	for(int i=0; i<NUMROTORS; i++){
+	    if (wheelOrder[i] < 0 || wheelOrder[i] >= ROTORS.length)
+		throw new IllegalArgumentException("No rotor number "+(wheelOrder[i]+1)+".");
+	    for(int j=0; j<i; j++)
+		if (wheelOrder[i] == wheelOrder[j])
+		    throw new IllegalArgumentException("Rotor "+(wheelOrder[i]+1)+" used twice.");
+	}
+    }
+
+    /**
+     * Parse a wheel order given by rotor numbers, e.g. "514" for rotors
+     * 5, 1 and 4 in positions a, b and c.
+     */
+    public static int[] parseWheelOrder(String order) throws IllegalArgumentException{
+	int[] out = new int[order.length()];
+	for(int j=0; j<out.length; j++)
+	    out[j] = order.charAt(j)-'1';
+	checkWheelOrder(out);
+	return out;
+    }
+
+    /**
+     * Parse a list of wheel orders separated by commas, e.g. "123,514", or
+     * "all" for every wheel order (see allWheelOrders()).
+     */
+    public static int[][] parseWheelOrders(String value) throws IllegalArgumentException{
+	if (value.trim().equalsIgnoreCase("all")) return allWheelOrders();
+	java.util.StringTokenizer orderTokens = new java.util.StringTokenizer(value,", ");
+	int[][] out = new int[orderTokens.countTokens()][];
+	if (out.length == 0)
+	    throw new IllegalArgumentException("No wheel orders given, e.g. 123,514 or all.");
+	for(int i=0; i<out.length; i++){
+	    String order = orderTokens.nextToken();
+	    try{
+		out[i] = parseWheelOrder(order);
+	    }catch(IllegalArgumentException e){
+		throw new IllegalArgumentException("Bad wheel order "+order+": "+e.getMessage());
+	    }
+	}
+	return out;
+    }
+
+    /**
+     * Walk the rotor chain once for every orientation and input.
+     */
+    private static byte[] build(int[] wheelOrder, String reflector){
+	byte[] out = new byte[26*NUMSTATES];
+	EnigmaPerm a = null, b = null, c = null, r = null;
+	try{
+	    a = new EnigmaPerm(ROTORS[wheelOrder[0]],NOTCHES[wheelOrder[0]],ROTORTYPE);
+	    b = new EnigmaPerm(ROTORS[wheelOrder[1]],NOTCHES[wheelOrder[1]],ROTORTYPE);
+	    c = new EnigmaPerm(ROTORS[wheelOrder[2]],NOTCHES[wheelOrder[2]],ROTORTYPE);
+	    r = new EnigmaPerm(reflector);
+	}catch(IllegalPermutationException e){
+	    System.out.println("THIS SHOULD NEVER HAPPEN SINCE WIRING DONE WITH CONSTANTS!!!!");
+	}
+	int idx = 0;
+	for(char oa='A'; oa<='Z'; oa++){
+	    a.setOrientation(oa);
+	    for(char ob='A'; ob<='Z'; ob++){
+		b.setOrientation(ob);
+		for(char oc='A'; oc<='Z'; oc++){
+		    c.setOrientation(oc);
+		    for(char X='A'; X<='Z'; X++)
+			out[idx++] = (byte)(a.inversePermute(b.inversePermute(c.inversePermute(
+			    r.permute(c.permute(b.permute(a.permute(X))))))) - 'A');
+		}
+	    }
+	}
+	return out;
+    }
+
+    /**
+     * Tables already built in this JVM, keyed by wheel order and reflector.
+     */
+    private static Hashtable shared = new Hashtable();
+
+    private static String orderKey(int[] wheelOrder, String reflector){
+	String key = "";
+	for(int i=0; i<wheelOrder.length; i++) key += (char)('1'+wheelOrder[i]);
+	return reflector.equals(REFLECTOR) ? key : key+"/"+reflector;
+    }
+
+    /**
+     * Return the table for the wheel order, building it only the first
+     * time it is asked for.  The same object is handed to every caller.
+     */
+    public static ScramblerTable forWheelOrder(int[] wheelOrder){
+	return forWheelOrder(wheelOrder,REFLECTOR);
+    }
+
+    /**
+     * Return the shared table for the wheel order and reflector wiring.
+     */
+    public static ScramblerTable forWheelOrder(int[] wheelOrder, String reflector)
+	throws IllegalArgumentException
+    {
+	checkWheelOrder(wheelOrder);
+	checkReflector(reflector);
+	String key = orderKey(wheelOrder,reflector);
+	ScramblerTable t = (ScramblerTable)shared.get(key);
+	if (t == null){
+	    // build outside the lock so that threads can build different
+	    // wheel orders at the same time; the first one stored wins
+	    t = new ScramblerTable(wheelOrder,reflector);
+	    synchronized(shared){
+		if (shared.containsKey(key))
+		    t = (ScramblerTable)shared.get(key);
+		else
+		    shared.put(key,t);
+	    }
+	}
+	return t;
+    }
+
+    /**
+     * All the wheel orders that can be made out of the ROTORS, in
+     * lexicographic order (for five rotors, 60 of them).
+     */
+    public static int[][] allWheelOrders(){
+	int n = ROTORS.length;
+	int[][] out = new int[n*(n-1)*(n-2)][];
+	int idx = 0;
+	for(int i=0; i<n; i++)
+	    for(int j=0; j<n; j++)
+		for(int k=0; k<n; k++)
+		    if (i != j && j != k && i != k)
+			out[idx++] = new int[]{i,j,k};
+	return out;
+    }
+
+    /**
+     * Like forWheelOrder() but backed by a memory-mapped file.  If the file
+     * doesn't exist yet, the table is built and written to it first.
+     */
+    public static ScramblerTable forWheelOrder(int[] wheelOrder, File f) throws IOException{
+	return forWheelOrder(wheelOrder,REFLECTOR,f);
+    }
+
+    public static ScramblerTable forWheelOrder(int[] wheelOrder, String reflector, File f)
+	throws IOException
+    {
+	checkWheelOrder(wheelOrder);
+	checkReflector(reflector);
+	String key = orderKey(wheelOrder,reflector)+"@"+f.getCanonicalPath();
+	synchronized(shared){
+	    ScramblerTable t = (ScramblerTable)shared.get(key);
+	    if (t == null){
+		if (!f.exists())
+		    forWheelOrder(wheelOrder,reflector).write(f);
+		t = map(f);
+		if (!orderKey(t.wheelOrder,t.reflector).equals(orderKey(wheelOrder,reflector)))
+		    throw new IOException(f+" holds the table of a different wheel order or reflector.");
+		shared.put(key,t);
+	    }
+	    return t;
+	}
+    }
+
+    /**
+     * Save the table so that it can later be memory-mapped with map().
+     */
+    public void write(File f) throws IOException{
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+	try{
+	    boolean standard = reflector.equals(REFLECTOR);
+	    out.writeInt(standard ? MAGIC : MAGICREFLECTOR);
+	    for(int i=0; i<NUMROTORS; i++) out.writeByte(wheelOrder[i]);
+	    if (!standard) out.writeBytes(reflector);
+	    byte[] bytes = new byte[26*NUMSTATES];
+	    ByteBuffer all = table.duplicate();
+	    all.clear();
+	    all.get(bytes);
+	    out.write(bytes);
+	}finally{
+	    out.close();
+	}
+    }
+
+    /**
+     * Memory-map a table file written by write().  The mapping is read-only
+     * and stays valid after the file's channel is closed.
+     */
+    public static ScramblerTable map(File f) throws IOException{
+	RandomAccessFile raf = new RandomAccessFile(f,"r");
+	try{
+	    int magic = raf.readInt();
+	    int headersize = (magic == MAGICREFLECTOR) ? HEADERSIZE+26 : HEADERSIZE;
+	    if (raf.length() != headersize + 26L*NUMSTATES || (magic != MAGIC && magic != MAGICREFLECTOR))
+		throw new IOException(f+" is not a scrambler table file.");
+	    int[] order = new int[NUMROTORS];
+	    for(int i=0; i<NUMROTORS; i++) order[i] = raf.readByte();
+	    checkWheelOrder(order);
+	    String reflector = REFLECTOR;
+	    if (magic == MAGICREFLECTOR){
+		byte[] wiring = new byte[26];
+		raf.readFully(wiring);
+		reflector = new String(wiring,"ISO-8859-1");
+		checkReflector(reflector);
+	    }
+	    FileChannel channel = raf.getChannel();
+	    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,headersize,26L*NUMSTATES);
+	    return new ScramblerTable(order,reflector,buf);
+	}catch(IllegalArgumentException e){
+	    throw new IOException(f+": "+e.getMessage());
+	}finally{
+	    raf.close();
+	}
+    }
+
+    /**
+     * Compare the table against the rotor chain, and time the two.
+     */
+    public static void main(String[] args) throws IOException{
+	int[] order = new int[]{0,1,2};
+	long t0 = System.currentTimeMillis();
+	ScramblerTable t = forWheelOrder(order);
+	System.out.println("Built table in "+(System.currentTimeMillis()-t0)+" ms");
+	if (args.length > 0){
+	    File f = new File(args[0]);
+	    t = forWheelOrder(order,f);
+	    System.out.println("Mapped table from "+f);
+	}
+	byte[] check = build(order,REFLECTOR);
+	for(int i=0; i<check.length; i++)
+	    if (check[i] != t.table.get(i)){
+		System.out.println("MISMATCH at state "+(i/26)+", letter "+(char)('A'+i%26));
+		return;
+	    }
+	System.out.println("Table agrees with the rotor chain at all "+NUMSTATES+" orientations.");
+	// at A, beta and thin reflector B make up reflector B (our REFLECTOR),
+	// and gamma and thin reflector C make up reflector C
+	System.out.println("Beta at A with thin reflector B "
+			   +(m4Reflector(0,0,0).equals(REFLECTOR) ? "is" : "IS NOT")+" reflector B.");
+	System.out.println("Gamma at A with thin reflector C "
+			   +(m4Reflector(1,0,1).equals("FVPJIAOYEDRZXWGCTKUQSBNMHL") ? "is" : "IS NOT")
+			   +" reflector C.");
+    }
+}
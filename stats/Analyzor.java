@@ -17,6 +17,55 @@ public abstract class Analyzor{
      * (this method is called by GUI's that make use of the Analyzor)
      */
     public abstract String toString();  //Algorithm name
+
+    /**
+     * Split an argument of options separated by semicolons, each either
+     * name=value or just name, into {name, value, option} triples: the
+     * name and value trimmed ("" for a missing value) and the option as
+     * given, for error messages.  Empty options are skipped.
+     *
+     * The GUI reuses one object per Analyzor, so an analyzeOn() reading
+     * options should put all of them back to their defaults first.
+     */
+    protected static String[][] options(String arg){
+	java.util.StringTokenizer optionTokens = new java.util.StringTokenizer(arg,";");
+	java.util.ArrayList out = new java.util.ArrayList();
+	while(optionTokens.hasMoreTokens()){
+	    String option = optionTokens.nextToken().trim();
+	    if (option.length() == 0) continue;
+	    int eq = option.indexOf('=');
+	    String name = (eq == -1) ? option : option.substring(0,eq).trim();
+	    String value = (eq == -1) ? "" : option.substring(eq+1).trim();
+	    out.add(new String[]{ name, value, option });
+	}
+	return (String[][])out.toArray(new String[out.size()][]);
+    }
+
+    /**
+     * The value of option name as a positive integer, or an
+     * IllegalArgumentException starting with errstr.
+     */
+    protected static int positive(String errstr, String name, String value) throws IllegalArgumentException{
+	return atLeast(errstr,name,value,1);
+    }
+
+    /**
+     * The value of option name as an integer of at least min, or an
+     * IllegalArgumentException starting with errstr.
+     */
+    protected static int atLeast(String errstr, String name, String value, int min)
+	throws IllegalArgumentException{
+	int out;
+	try{
+	    out = Integer.parseInt(value);
+	}catch(NumberFormatException e){
+	    out = min-1;
+	}
+	if (out < min)
+	    throw new IllegalArgumentException(errstr+"\n"+name+" must be "
+					       +(min == 1 ? "a positive integer" : "an integer of at least "+min)+"!!!");
+	return out;
+    }
 }
 
 
@@ -0,0 +1,378 @@
+package webcrypt.stats;
+
+/**
+ * The BanburismusAnalysis class looks for pairs of Enigma messages which
+ * were enciphered "in depth", i.e. over a stretch of the same rotor
+ * positions, and for how far apart their starts were.  Two messages in depth
+ * are lined up at that distance letter by letter, and there the same
+ * cipher letter comes from the same plain letter, so the two ciphertexts
+ * repeat a letter about as often as two plaintexts do (the index of
+ * coincidence, about 1/15 for English) rather than 1/26.
+ *
+ * Every pair of messages is lined up at every relative offset d (letter i
+ * of the first message under letter i+d of the second), the repeated
+ * letters of the overlap are counted, and the alignment is scored as in
+ * Banburismus by its weight of evidence for depth against chance, in
+ * decibans:
+ *
+ *    score = r * 10 log10(26 p) + (n-r) * 10 log10(26 (1-p) / 25)
+ *
+ * for r repeats in an overlap of n letters, p being the repeat rate of
+ * plaintext.  Offset d means the first message started d letters later in
+ * the key than the second.  The best alignments over all pairs are listed.
+ *
+ * The messages are held packed, 12 letters of 5 bits to a long, once for
+ * each of the 12 ways of starting a word, so the letters of any alignment
+ * line up word for word: an XOR leaves the 5 bits of a repeated letter
+ * zero and each word's repeats are counted with a few shifts and a bit
+ * count.  The pairs are split into ranges searched on several threads (see
+ * ParallelRange), each thread keeping its best alignments in a ScoreHeap.
+ *
+ * The text holds one message per line, optionally preceded by a name and a
+ * colon (e.g. "KFK: QWERT ..."); other messages are named by their line.
+ * The argument consists of options separated by semicolons:
+ *
+ *    best=n       list the n best alignments (default 20)
+ *    overlap=n    only score alignments overlapping n letters or more (default 30)
+ *    maxoffset=n  only try offsets up to n letters either way (default: all)
+ *    ic=p         the repeat rate p of the plaintext (default: that of
+ *                 VigenereStats.FREQ)
+ *    threads=n    search on n threads (default: one per processor)
+ *
+ * main() checks the packed counts against plain counting and finds the
+ * offsets of some test messages enciphered in depth.
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+public class BanburismusAnalysis extends Analyzor{
+
+    public String toString(){
+	return "BanburismusAnalysis([options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The text holds one message per line, optionally named as in\n"
+	+"                KFK: QWERTZUIOP...\n"
+	+"and the argument consists of options separated by semicolons, e.g.\n"
+	+"                best=30;overlap=50;maxoffset=100;threads=4\n"
+	+"or is left empty.";
+
+    private final static int PERWORD = 12;                     // letters in a long
+    private final static long LOWBITS = 0x0084210842108421L;   // lowest bit of each letter
+
+    private int numbest, minoverlap, maxoffset, numthreads;
+    private double repeatRate;
+
+    private String[] names;
+    private long[][][] packed;      // packed[m][p] = message m from letter p on
+    private int[] lengths;
+    private int[] rowStart;         // number of the first pair (i,i+1) of message i
+    private double repeatWeight, missWeight;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	readMessages(text);
+	int m = names.length;
+	if (m < 2)
+	    throw new IllegalArgumentException("Banburismus needs at least two messages, one per line.");
+	if ((long)m*(m-1)/2 > Integer.MAX_VALUE)
+	    throw new IllegalArgumentException("Too many messages to compare every pair!!!");
+	rowStart = new int[m];
+	for(int i=1; i<m; i++) rowStart[i] = rowStart[i-1] + (m-i);
+	int numpairs = m*(m-1)/2;
+	repeatWeight = 10*Math.log(26*repeatRate)/Math.log(10);
+	missWeight = 10*Math.log(26*(1-repeatRate)/25)/Math.log(10);
+
+	long t0 = System.currentTimeMillis();
+	final long[] alignments = new long[1];
+	ParallelRange search = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    long[] count = new long[1];
+		    ScoreHeap heap = searchPairs(from,to,count);
+		    synchronized(alignments){ alignments[0] += count[0]; }
+		    return heap;
+		}
+	    };
+	Object[] heaps = search.run(numpairs, Math.min(numpairs,numthreads*8), numthreads);
+	ScoreHeap best = new ScoreHeap(numbest);
+	for(int i=0; i<heaps.length; i++) best.merge((ScoreHeap)heaps[i]);
+	long ms = System.currentTimeMillis() - t0;
+
+	StringBuffer out = new StringBuffer("Compared "+m+" messages: "+numpairs+" pairs, "
+					    +alignments[0]+" alignments in "+ms+" ms.\n");
+	out.append("Plaintext repeat rate "+round(repeatRate,4)+" against 1/26: a repeat scores "
+		   +round(repeatWeight,2)+" db, a non-repeat "+round(missWeight,2)+" db.\n");
+	out.append("Best "+best.size()+" alignments (offset d: the first message started d letters"
+		   +" later in the key):\n");
+	long[] ids = best.ids();
+	double[] scores = best.scores();
+	for(int i=0; i<ids.length; i++){
+	    int pair = (int)(ids[i] >>> 21), d = (int)(ids[i] & 0x1fffff) - (1<<20);
+	    int a = pairRow(pair), b = a+1+(pair-rowStart[a]);
+	    int n = overlap(a,b,d);
+	    out.append("\n"+names[a]+" / "+names[b]+"\toffset "+(d > 0 ? "+" : "")+d
+		       +"\toverlap "+n+"\trepeats "+repeats(a,b,d,n)+"\tscore "+round(scores[i],1)+" db");
+	}
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    /**
+     * Split the text into named messages and pack their letters.
+     */
+    private void readMessages(StringBuffer text) throws IllegalArgumentException{
+	ArrayList nameList = new ArrayList(), letterList = new ArrayList();
+	StringTokenizer lines = new StringTokenizer(text.toString(),"\n\r");
+	for(int line=1; lines.hasMoreTokens(); line++){
+	    String message = lines.nextToken();
+	    String name = "#"+line;
+	    int colon = message.indexOf(':');
+	    if (colon != -1){
+		name = message.substring(0,colon).trim();
+		message = message.substring(colon+1);
+	    }
+	    char[] letters = TextManip.letters(new StringBuffer(message));
+	    if (letters.length == 0) continue;
+	    if (letters.length >= (1<<20))
+		throw new IllegalArgumentException("Message "+name+" is too long!!!");
+	    nameList.add(name);
+	    letterList.add(letters);
+	}
+	int m = nameList.size();
+	names = new String[m];
+	packed = new long[m][][];
+	lengths = new int[m];
+	for(int i=0; i<m; i++){
+	    names[i] = (String)nameList.get(i);
+	    char[] letters = (char[])letterList.get(i);
+	    lengths[i] = letters.length;
+	    packed[i] = pack(letters);
+	}
+    }
+
+    /**
+     * The letters packed from each of the first PERWORD letters on:
+     * out[p][w] holds letters p+12w .. p+12w+11, letter p+12w+j in bits
+     * 5j..5j+4.
+     */
+    static long[][] pack(char[] letters){
+	long[][] out = new long[PERWORD][];
+	for(int p=0; p<PERWORD; p++){
+	    int n = Math.max(0,letters.length-p);
+	    long[] words = new long[(n+PERWORD-1)/PERWORD];
+	    for(int i=0; i<n; i++)
+		words[i/PERWORD] |= (long)(letters[p+i]-'A') << (5*(i%PERWORD));
+	    out[p] = words;
+	}
+	return out;
+    }
+
+    /**
+     * The number of letters that differ in each word: the 5 bits of every
+     * letter of x are OR-ed into its lowest bit.  Shifting by at most 4
+     * never brings in bits of the letter above into that lowest bit.
+     */
+    private static long differing(long x){
+	return (x | x>>>1 | x>>>2 | x>>>3 | x>>>4) & LOWBITS;
+    }
+
+    /**
+     * The number of i < n with letter i of x equal to letter i+d of y, d >= 0.
+     */
+    static int repeats(long[][] x, long[][] y, int d, int n){
+	long[] u = x[0], v = y[d % PERWORD];
+	int start = d / PERWORD, full = n / PERWORD, rest = n % PERWORD;
+	int differ = 0;
+	for(int w=0; w<full; w++)
+	    differ += Long.bitCount(differing(u[w] ^ v[start+w]));
+	if (rest > 0)
+	    differ += Long.bitCount(differing(u[full] ^ v[start+full]) & ((1L << (5*rest)) - 1));
+	return n - differ;
+    }
+
+    /**
+     * The repeats of messages a and b at offset d, over their n letters of overlap.
+     */
+    private int repeats(int a, int b, int d, int n){
+	return (d >= 0) ? repeats(packed[a],packed[b],d,n) : repeats(packed[b],packed[a],-d,n);
+    }
+
+    private int overlap(int a, int b, int d){
+	return (d >= 0) ? Math.min(lengths[a],lengths[b]-d) : Math.min(lengths[b],lengths[a]+d);
+    }
+
+    /**
+     * The first message of pair number pair.
+     */
+    private int pairRow(int pair){
+	int lo = 0, hi = rowStart.length-2;
+	while(lo < hi){
+	    int mid = (lo+hi+1)/2;
+	    if (rowStart[mid] <= pair) lo = mid; else hi = mid-1;
+	}
+	return lo;
+    }
+
+    /**
+     * Score every alignment of the pairs first through last-1, pair
+     * (a,b) with a < b being numbered rowStart[a] + b-a-1.  An alignment
+     * is kept as pair << 21 | d + 2^20.  count[0] gets the number of
+     * alignments scored.
+     */
+    private ScoreHeap searchPairs(int first, int last, long[] count){
+	ScoreHeap heap = new ScoreHeap(numbest);
+	int a = pairRow(first), b = a+1+(first-rowStart[a]);
+	for(int pair=first; pair<last; pair++){
+	    int lo = Math.max(-maxoffset,minoverlap-lengths[a]);
+	    int hi = Math.min(maxoffset,lengths[b]-minoverlap);
+	    if (Math.min(lengths[a],lengths[b]) < minoverlap)
+		hi = lo-1;  // no alignment of a message this short overlaps enough
+	    for(int d=lo; d<=hi; d++){
+		int n = overlap(a,b,d);
+		int r = repeats(a,b,d,n);
+		heap.offer(r*repeatWeight + (n-r)*missWeight, ((long)pair << 21) | (d + (1<<20)));
+	    }
+	    if (hi >= lo) count[0] += hi-lo+1;
+	    if (++b == lengths.length){
+		a++;
+		b = a+1;
+	    }
+	}
+	return heap;
+    }
+
+    private static String round(double x, int digits){
+	double scale = Math.pow(10,digits);
+	return ""+Math.round(x*scale)/scale;
+    }
+
+    /**
+     * Set best, overlap, maxoffset and threads from arg, each back to its
+     * default unless given.
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	numbest = 20;
+	minoverlap = 30;
+	maxoffset = 1<<20;
+	numthreads = ParallelRange.defaultThreads();
+	repeatRate = 0;
+	for(int i=0; i<26; i++) repeatRate += VigenereStats.FREQ[i]*VigenereStats.FREQ[i];
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("best"))
+		numbest = positive(errstr,name,value);
+	    else if (name.equals("overlap"))
+		minoverlap = positive(errstr,name,value);
+	    else if (name.equals("maxoffset"))
+		maxoffset = Math.min(positive(errstr,name,value),1<<20);
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else if (name.equals("ic")){
+		try{
+		    repeatRate = Double.parseDouble(value);
+		}catch(NumberFormatException e){
+		    repeatRate = 0;
+		}
+		if (!(repeatRate > 1.0/26 && repeatRate < 1))
+		    throw new IllegalArgumentException(errstr+"\nic must be a repeat rate between 1/26 and 1!!!");
+	    }
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+    }
+
+    /**
+     * Check the packed repeat counts against counting letter by letter,
+     * time both, and run the analysis on test messages: random English-like
+     * plaintexts, some enciphered from the same key at different starts
+     * (in depth) and the rest each from a key of their own.
+     */
+    public static void main(String[] args) throws KeyCreationException{
+	java.util.Random rnd = new java.util.Random(1);
+	int nummessages = (args.length > 0) ? Integer.parseInt(args[0]) : 24;
+
+	// plain counting against packed counting
+	char[][] texts = new char[60][];
+	for(int i=0; i<texts.length; i++) texts[i] = plaintext(rnd,20+rnd.nextInt(300));
+	long[][][] packs = new long[texts.length][][];
+	for(int i=0; i<texts.length; i++) packs[i] = pack(texts[i]);
+	boolean ok = true;
+	long plainCount = 0, packedCount = 0, plainTime = 0, packedTime = 0;
+	for(int round=0; round<3; round++){
+	    long t0 = System.currentTimeMillis();
+	    for(int i=0; i<texts.length; i++)
+		for(int j=0; j<texts.length; j++)
+		    for(int d=0; d<texts[j].length; d++){
+			int n = Math.min(texts[i].length,texts[j].length-d);
+			for(int k=0; k<n; k++)
+			    if (texts[i][k] == texts[j][k+d]) plainCount++;
+		    }
+	    long t1 = System.currentTimeMillis();
+	    for(int i=0; i<texts.length; i++)
+		for(int j=0; j<texts.length; j++)
+		    for(int d=0; d<texts[j].length; d++)
+			packedCount += repeats(packs[i],packs[j],d,Math.min(texts[i].length,texts[j].length-d));
+	    long t2 = System.currentTimeMillis();
+	    ok &= (plainCount == packedCount);
+	    if (round == 0) continue;   // the first round warms up the JIT
+	    plainTime += t1-t0;
+	    packedTime += t2-t1;
+	}
+	System.out.println(ok ? "Packed counts agree with plain counts." : "MISMATCH in the packed counts!");
+	System.out.println("Counting every alignment twice: plain "+plainTime+" ms, packed "+packedTime+" ms");
+
+	// messages in depth: every fourth one from the same key, a few hundred
+	// letters apart, the others each on a wheel order of its own so that
+	// they can't be in depth by chance.  Plaintext letters drawn
+	// independently repeat no more than single letters do, so it takes
+	// long messages to show the depth.
+	int[][] orders = webcrypt.math.ScramblerTable.allWheelOrders();
+	int[] starts = new int[nummessages];
+	StringBuffer intercepts = new StringBuffer();
+	int numdepth = 0;
+	for(int i=0; i<nummessages; i++){
+	    boolean depth = (i % 4 == 0);
+	    starts[i] = depth ? rnd.nextInt(300) : 0;
+	    if (depth) numdepth++;
+	    String key = depth ? "QEV" : ""+(char)('A'+rnd.nextInt(26))+(char)('A'+rnd.nextInt(26))+(char)('A'+rnd.nextInt(26));
+	    Enigma enigma = new Enigma(depth ? Enigma.DEFAULTWHEELORDER : orders[1+i % (orders.length-1)]);
+	    enigma.setup(new EnigmaKey(key+"_AZ_BY_CX_DW_EV_FU"), starts[i]);
+	    char[] letters = plaintext(rnd,1500+rnd.nextInt(500));
+	    enigma.encryptChars(letters,0,letters.length);
+	    intercepts.append("M"+i+": "+new String(letters)+"\n");
+	}
+	int numpairs = numdepth*(numdepth-1)/2;
+	BanburismusAnalysis analysis = new BanburismusAnalysis();
+	analysis.analyzeOn(intercepts,"best="+numpairs);
+	System.out.println(intercepts);
+	int found = 0;
+	for(int i=0; i<nummessages; i+=4)
+	    for(int j=i+4; j<nummessages; j+=4){
+		int d = starts[i]-starts[j];
+		if (intercepts.toString().indexOf("\nM"+i+" / M"+j+"\toffset "+(d > 0 ? "+" : "")+d+"\t") != -1) found++;
+	    }
+	System.out.println("\n"+found+" of the "+numpairs+" pairs in depth are the best "+numpairs
+			   +" alignments, at the right offset.");
+    }
+
+    /**
+     * Random letters with the frequencies of VigenereStats.FREQ.
+     */
+    private static char[] plaintext(java.util.Random rnd, int n){
+	double total = 0;
+	for(int i=0; i<26; i++) total += VigenereStats.FREQ[i];
+	char[] out = new char[n];
+	for(int k=0; k<n; k++){
+	    double x = rnd.nextDouble()*total;
+	    int i = 0;
+	    while(i < 25 && (x -= VigenereStats.FREQ[i]) >= 0) i++;
+	    out[k] = (char)('A'+i);
+	}
+	return out;
+    }
+}
@@ -0,0 +1,258 @@
+package webcrypt.stats;
+
+/**
+ * The BitslicedBombe class runs the Bombe's cycle test on 64 rotor
+ * positions at once, one position per bit of a long.
+ *
+ * A letter in each of the 64 positions is held as 5 bit-planes: plane b is
+ * a long whose bit j is bit b of the letter (0-25) in position j.  For every
+ * letter x and bit b the class keeps a bitset over all rotor positions t,
+ *
+ *    planes[5*x+b] bit t = bit b of S_t(x)
+ *
+ * where S_t is the scrambler after t cranks from AAA.  The Enigma number n
+ * at the 64 positions r..r+63 is then described by the 130 windows of
+ * these bitsets starting at r+n, each a couple of shifts away.
+ *
+ * The first link of a cycle gets the same letter X in every position, so its
+ * output planes are just the windows for X.  Any other link gets a different
+ * letter in each position: the 26 letters are decoded from the 5 planes
+ * (as the 32 minterms of the planes, shared between the letters) and each
+ * letter's positions pick up that letter's windows.  Comparing the planes
+ * with X after a cycle, and AND-ing and OR-ing the results over cycles,
+ * letters and groups, gives the stops of all 64 positions together.
+ *
+ * The bitsets are made once for each block (wheel order, ring setting and
+ * thin rotor position) searched, which costs about a sixth of searching
+ * the block on the scalar engine.  Decoding the 26 letters in every link
+ * costs nearly as much as the scalar engine's table lookups, so whole
+ * searches of many blocks only run 10-15% faster, and on a few blocks
+ * nothing is gained.  The Bombe therefore only bit-slices searches of many
+ * blocks (see Bombe.SLICEDBLOCKS).
+ *
+ * Crib menus (DiagonalBoard) aren't bit-sliced: their closure follows a
+ * different path in each position.
+ *
+ * main() checks that the Bombe finds exactly the same stops with and
+ * without bit-slicing and compares the times, slicing included.
+ */
+import webcrypt.math.ScramblerTable;
+
+public class BitslicedBombe{
+
+    private final static int N = ScramblerTable.NUMSTATES;
+
+    private long[][] planes = new long[26*5][];
+
+    /**
+     * Slice the scrambler of one wheel order.  crankStates[t] is the
+     * orientation after t cranks from AAA.  The bitsets are filled one
+     * word (64 positions) at a time: the 130 output bits of each position
+     * are packed into two longs and a pair of bits, and the two 64x64 bit
+     * matrices of the word's positions are transposed into the planes.
+     */
+    public BitslicedBombe(ScramblerTable table, int[] crankStates){
+	int words = (N+64)/64 + 1;
+	for(int i=0; i<planes.length; i++) planes[i] = new long[words];
+	long[] low = new long[64], high = new long[64];   // planes 0-63 and 64-127, by position
+	for(int w=0; w<words; w++){
+	    long last0 = 0, last1 = 0;                    // planes 128 and 129
+	    for(int j=0; j<64; j++){
+		if (64*w+j >= N+64){
+		    low[j] = high[j] = 0;
+		    continue;
+		}
+		int state = crankStates[(64*w+j) % N];
+		long lo = 0, hi = table.permute(state,12) >>> 4;   // letter 12 straddles the two
+		for(int x=0; x<13; x++) lo |= (long)table.permute(state,x) << 5*x;
+		for(int x=13; x<26; x++) hi |= (long)table.permute(state,x) << 5*x-64;
+		int y = table.permute(state,25);
+		last0 |= (long)((y >>> 3) & 1) << j;
+		last1 |= (long)(y >>> 4) << j;
+		low[j] = lo;
+		high[j] = hi;
+	    }
+	    transpose(low);
+	    transpose(high);
+	    for(int i=0; i<64; i++){
+		planes[i][w] = low[i];
+		planes[64+i][w] = high[i];
+	    }
+	    planes[128][w] = last0;
+	    planes[129][w] = last1;
+	}
+    }
+
+    /**
+     * Transpose a 64x64 bit matrix in place: bit j of m[i] is swapped
+     * with bit i of m[j].  The off-diagonal blocks of 32, then 16, ... then
+     * 1 bits are swapped, each with a shift and a mask.
+     */
+    static void transpose(long[] m){
+	long mask = 0x00000000ffffffffL;
+	for(int j=32; j != 0; j >>>= 1, mask ^= mask << j)
+	    for(int b=0; b<64; b+=2*j)
+		for(int k=b; k<b+j; k++){
+		    long t = ((m[k] >>> j) ^ m[k+j]) & mask;
+		    m[k] ^= t << j;
+		    m[k+j] ^= t;
+		}
+    }
+
+    /**
+     * Bits s..s+63 of a bitset.
+     */
+    private static long window(long[] bits, int s){
+	int w = s >>> 6, k = s & 63;
+	return (k == 0) ? bits[w] : (bits[w] >>> k) | (bits[w+1] << (64-k));
+    }
+
+    /**
+     * The 130 windows of the Enigma number position for the positions
+     * r..r+63: w[5*x+b] = bit b of the Enigma's output for x.
+     */
+    private void windows(int r, int position, long[] w){
+	int s = (r + position) % N;
+	for(int j=0; j<130; j++) w[j] = window(planes[j],s);
+    }
+
+    /**
+     * Run the cycle test (see Bombe) at the count <= 64 positions starting
+     * r cranks after AAA.  positions, sourceIndices and linkIndices are as
+     * in the Bombe, and win must be a long[positions.length][130] to work in.
+     * Returns the stops: bit j is set if position r+j is a stop.
+     *
+     * The windows of an Enigma are only worked out once a group needs them,
+     * so groups after the one that rejects all 64 positions cost nothing.
+     */
+    public long stops(int r, int count, int[] positions, int[] sourceIndices,
+		      int[][][] linkIndices, long[][] win){
+	boolean[] ready = new boolean[positions.length];
+	long alive = (count >= 64) ? -1L : (1L<<count)-1;
+	long[] y = new long[5], d = new long[26];
+	for(int i=0; alive != 0 && i<sourceIndices.length; i++){
+	    for(int j=0; j<linkIndices[i].length; j++)
+		for(int k=0; k<linkIndices[i][j].length; k++){
+		    int e = linkIndices[i][j][k];
+		    if (!ready[e]){ windows(r,positions[e],win[e]); ready[e] = true; }
+		}
+	    int e = sourceIndices[i];
+	    if (!ready[e]){ windows(r,positions[e],win[e]); ready[e] = true; }
+	    long[] source = win[e];
+	    long sourceMatch = 0;
+	    for(int X=0; X<26; X++){
+		long letterMatch = alive & ~sourceMatch;
+		if (letterMatch == 0) break;
+		for(int j=0; letterMatch != 0 && j<linkIndices[i].length; j++){
+		    for(int b=0; b<5; b++) y[b] = source[5*X+b];
+		    for(int k=0; k<linkIndices[i][j].length; k++)
+			apply(win[linkIndices[i][j][k]],y,d);
+		    long differ = 0;
+		    for(int b=0; b<5; b++)
+			differ |= ((X & (1<<b)) != 0) ? ~y[b] : y[b];
+		    letterMatch &= ~differ;
+		}
+		sourceMatch |= letterMatch;
+	    }
+	    alive &= sourceMatch;
+	}
+	return alive;
+    }
+
+    /**
+     * Send the letters y (5 planes) through the Enigma whose windows are w.
+     * d is 26 longs of work space, for the positions holding each letter.
+     */
+    private static void apply(long[] w, long[] y, long[] d){
+	long y0 = y[0], y1 = y[1], n0 = ~y0, n1 = ~y1;
+	long low0 = n1&n0, low1 = n1&y0, low2 = y1&n0, low3 = y1&y0;   // bits 0-1
+	long y2 = y[2], y3 = y[3], y4 = y[4], n2 = ~y2, n3 = ~y3, n4 = ~y4;
+	long h00 = n4&n3, h01 = n4&y3, h10 = y4&n3, h11 = y4&y3;       // bits 3-4
+	long m;                                                        // bits 2-4
+	m = h00&n2; d[0] = m&low0; d[1] = m&low1; d[2] = m&low2; d[3] = m&low3;
+	m = h00&y2; d[4] = m&low0; d[5] = m&low1; d[6] = m&low2; d[7] = m&low3;
+	m = h01&n2; d[8] = m&low0; d[9] = m&low1; d[10] = m&low2; d[11] = m&low3;
+	m = h01&y2; d[12] = m&low0; d[13] = m&low1; d[14] = m&low2; d[15] = m&low3;
+	m = h10&n2; d[16] = m&low0; d[17] = m&low1; d[18] = m&low2; d[19] = m&low3;
+	m = h10&y2; d[20] = m&low0; d[21] = m&low1; d[22] = m&low2; d[23] = m&low3;
+	m = h11&n2; d[24] = m&low0; d[25] = m&low1;
+	long o0 = 0, o1 = 0, o2 = 0, o3 = 0, o4 = 0;
+	for(int x=0, base=0; x<26; x++, base+=5){
+	    long dx = d[x];
+	    o0 |= dx & w[base];
+	    o1 |= dx & w[base+1];
+	    o2 |= dx & w[base+2];
+	    o3 |= dx & w[base+3];
+	    o4 |= dx & w[base+4];
+	}
+	y[0] = o0; y[1] = o1; y[2] = o2; y[3] = o3; y[4] = o4;
+    }
+
+    /**
+     * Run the Bombe on some menus with the scalar and the bit-sliced
+     * engine, check that the outputs are identical and time both, on three
+     * wheel orders, on every wheel order and on 16 ring settings of one
+     * wheel order.  Menus may be given as arguments; otherwise a few
+     * standard ones and some random ones are used.  The scrambler tables
+     * are built first, as both engines share them; everything else is
+     * timed, the first (cold) round included, as the slices are made in
+     * every search.
+     */
+    public static void main(String[] args){
+	String[] menus = args;
+	if (menus.length == 0){
+	    menus = new String[12];
+	    menus[0] = "3:17|12-26_5:15-9-12";
+	    menus[1] = "3:17|12-26|5-8_9:17|11-4|7";
+	    menus[2] = "1:2-3|4_6:7-8-9";
+	    menus[3] = "2:5-9|14-3-11";
+	    java.util.Random rnd = new java.util.Random(1);
+	    for(int i=4; i<menus.length; i++){
+		String menu = "";
+		int groups = 1+rnd.nextInt(3);
+		for(int g=0; g<groups; g++){
+		    menu += (g>0 ? "_" : "")+(1+rnd.nextInt(40))+":";
+		    int cycles = 1+rnd.nextInt(3);
+		    for(int c=0; c<cycles; c++){
+			int links = 1+rnd.nextInt(3);
+			for(int l=0; l<links; l++)
+			    menu += (l>0 ? "-" : "")+(1+rnd.nextInt(40));
+			menu += (c<cycles-1 ? "|" : "");
+		    }
+		}
+		menus[i] = menu;
+	    }
+	}
+	int[][] orders = ScramblerTable.allWheelOrders();
+	for(int o=0; o<orders.length; o++) ScramblerTable.forWheelOrder(orders[o]);
+	String[] cases = new String[]{ "orders=123,514,245", "orders=all",
+				       "orders=123;rings=AA,AB,AC,AD,BA,BB,BC,BD,CA,CB,CC,CD,DA,DB,DC,DD" };
+	int[] blocks = new int[]{ 3, orders.length, 16 };
+	Bombe bombe = new Bombe();
+	boolean ok = true;
+	for(int c=0; c<cases.length; c++){
+	    String options = ";threads=1;"+cases[c]+";engine=";
+	    for(int round=0; round<2; round++){
+		long scalarTime = 0, slicedTime = 0;
+		for(int i=0; i<menus.length; i++){
+		    StringBuffer scalar = new StringBuffer(), sliced = new StringBuffer();
+		    long t0 = System.currentTimeMillis();
+		    bombe.analyzeOn(scalar,menus[i]+options+"scalar");
+		    long t1 = System.currentTimeMillis();
+		    bombe.analyzeOn(sliced,menus[i]+options+"bitsliced");
+		    long t2 = System.currentTimeMillis();
+		    boolean same = scalar.toString().equals(sliced.toString());
+		    ok &= same;
+		    if (!same) System.out.println(menus[i]+";"+cases[c]+": DIFFERENT STOPS");
+		    scalarTime += t1-t0;
+		    slicedTime += t2-t1;
+		}
+		System.out.println(cases[c]+(round == 0 ? ", cold: " : ", warm: ")+"scalar "+scalarTime
+				   +" ms, bit-sliced "+slicedTime+" ms"
+				   +(blocks[c] < Bombe.SLICEDBLOCKS ? " (run on the scalar engine too)" : ""));
+	    }
+	}
+	System.out.println(ok ? "The bit-sliced engine agrees with the scalar engine on every menu."
+			   : "MISMATCH between the engines!");
+    }
+}
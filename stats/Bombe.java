@@ -20,16 +20,122 @@ package webcrypt.stats;
  *    to go through all 26^3 rotor settings and report all possible positives.
  * 6) By detecting patterns and using trial and error one should now be able to
  *    guess the plugboard settings.
+ *
+ * The cycle description may be followed by options separated by semicolons:
+ *
+ *    threads=n   search the rotor positions on n threads (default: one
+ *                per processor).  The positions are split into ranges, each
+ *                range runs on its own Enigma simulators, and the stops are
+ *                merged back in position order, so the output does not depend
+ *                on the number of threads.
+ *    orders=all  search every wheel order that can be made from the rotors
+ *                of EnigmaDefinitions (60 of them) instead of only the default
+ *                order.  A subset can be listed by rotor numbers instead, e.g.
+ *                orders=123,514,245 (rotors for a,b,c in that order).  The
+ *                wheel orders are spread over the threads and every stop is
+ *                reported together with its wheel order.
+ *    best=n      run the n strongest automatic crib placements (default 3).
+ *    table=file  memory-map the scrambler table from file (writing it first
+ *                if the file doesn't exist) instead of building it in memory.
+ *                Several Bombe processes can then share one copy of the table.
+ *                When several wheel orders are searched, file is a directory
+ *                holding one table file per wheel order.
+ *    rings=all   also try every ring setting (see EnigmaKey) of rotors a and
+ *                b, 676 in all, and report each stop with its rings, e.g.
+ *                "GAN rings QCA".  The ring of rotor c doesn't change where
+ *                any rotor turns over, so trying it would only rename the
+ *                stops; it stays at A.  Some ring settings can be listed
+ *                instead, e.g. rings=QC,BZ or rings=QCA,BZA.
+ *    greek=beta  search a four rotor M4 with the thin rotor beta (or gamma)
+ *                between rotor c and a thin reflector, thin=B (the default)
+ *                or thin=C.  The thin rotor never turns, so at each of its 26
+ *                positions it makes one reflector with the thin reflector,
+ *                and gets a scrambler table of its own.  All 26 are searched,
+ *                26 times the work of a three rotor search, on the same
+ *                threads or workers; the thin rotor's letter is reported as a
+ *                fourth rotor letter, with its ring at A.
+ *    engine=bitsliced  run the cycle test on 64 rotor positions at a time,
+ *                one per bit of a long (see BitslicedBombe).  engine=scalar
+ *                tests one position at a time.  Bit-slicing only pays on
+ *                searches of many wheel orders, ring settings or thin rotor
+ *                positions (16 in all, multiplied together), and is ignored
+ *                on smaller ones.  Crib menus always use the scalar
+ *                diagonal board.
+ *    checkpoint=file  save the stops of each finished range of positions to
+ *                file (see BombeCheckpoint).  If the search is interrupted,
+ *                running it again with the same menu and options skips the
+ *                ranges already searched.
+ *    workers=n   search in n separate worker JVMs on this host instead of
+ *                on threads (see BombeCoordinator).  The ranges of positions
+ *                are leased out to the workers over loopback sockets; a
+ *                range whose worker dies or doesn't answer is leased again.
+ *    lease=s     how many seconds a worker may hold a range before it is
+ *                leased to another worker (default 300).
+ *    ngrams=file score the verified stops of a crib (see below) with the
+ *                n-grams of a corpus file instead of the single letter
+ *                frequencies of Moby Dick, n=3 giving the length of the
+ *                n-grams (default 2).
+ *    cables=n    reject crib stops implying more than n plugs (default 10).
+ *    estimate=n  don't search, but estimate how many stops the search would
+ *                give, by testing the menu at n random positions of the
+ *                search (see StopEstimate).  For a crib without a position
+ *                the strongest placements are estimated and listed, fewest
+ *                expected stops first.
+ *
+ * Instead of a cycle description, the argument may be a crib together with
+ * the position of its first letter in the ciphertext (which is the text
+ * being analyzed), e.g.
+ *
+ *    WETTERBERICHT@27
+ *
+ * The letters of the crib and the ciphertext under it then form a menu which
+ * is tested on a diagonal board (see DiagonalBoard): all 26 plugboard
+ * hypotheses for the most connected letter are followed to closure at once,
+ * including the diagonal board's implications.  This rejects far more rotor
+ * positions than the cycle test, so even menus with few closed cycles give
+ * a usable number of stops.  Each stop lists the steckers it implies.
+ * The stops are then verified (see StopVerifier): the message is decrypted
+ * with each stop's steckers, stops that contradict the crib or need too
+ * many plugs are rejected, and the rest are listed again, best first, by
+ * the n-gram score of their decryption.
+ *
+ * If the position is left out (just WETTERBERICHT) the crib is slid along the
+ * ciphertext (see CribPlacement).  Every position where no crib letter lies
+ * over itself is a possible placement; the placements are ranked by the
+ * number of cycles of their menus and the best ones are run.  The menus are
+ * also written out in cycle notation.
+ *
+ * Several menus, of either kind, can be searched in a single pass over the
+ * rotor positions by separating them with '&', e.g.
+ *
+ *    WETTERBERICHT@27&3:17|12-26_5:15-9-12&KEINEBESONDEREN
+ *
+ * The scrambler states of every Enigma number used by any of the menus are
+ * looked up once per position and shared by all the menus; the stops are
+ * then listed menu by menu.  A crib without a position uses its strongest
+ * placement.
+ *
+ * The simulators don't walk their rotor chains: every Enigma in the menu is
+ * just an offset from the current rotor position, and its scrambler is looked
+ * up in a webcrypt.math.ScramblerTable.  The rings turn the wiring against
+ * the rotor letters and notches by a constant, so for a ring setting the
+ * table is simply indexed by each orientation less the rings: the tables
+ * and the orientations after each number of cranks are shared by all the
+ * ring settings searched.
  */
 import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import webcrypt.math.ScramblerTable;
+import java.io.File;              //for memory-mapped scrambler tables and checkpoints
+import java.io.IOException;
 import java.util.StringTokenizer; //for processing the input argument
 import java.util.TreeSet;         //for finding the set of all needed enigmas
 import java.util.ArrayList;       //to keep track of matches
 
-public class Bombe extends Analyzor{
+public class Bombe extends Analyzor implements EnigmaDefinitions{
 
     public String toString(){
-	return "Bombe(crib graph)";
+	return "Bombe(crib graph[;options])";
     }
 
     /**
@@ -54,7 +160,14 @@ public class Bombe extends Analyzor{
 	+"the letter J returns to itself after going through E_9 and E_17,\n"
 	+"and also after going through E_9, E_11, E_4, and also after going\n"
 	+"through E_9 and E_7.  Then the input string would look like:\n"
-	+"       3:17|12-26_5:15-9-12_9:17|11-4|7   \n";
+	+"       3:17|12-26_5:15-9-12_9:17|11-4|7   \n"
+	+"Alternatively the argument is a crib followed by the position\n"
+	+"of its first letter among the letters of the ciphertext:\n"
+	+"       WETTERBERICHT@27   \n"
+	+"If the position is left out, the crib is placed automatically.\n"
+	+"Several menus may be separated by '&' to search them in one pass.\n"
+	+"Options may follow, separated by semicolons, e.g.\n"
+	+"       3:17|12-26_5:15-9-12;threads=4;orders=all   \n";
 	
     private int numgroups; //number of cycle groups for different sources
     private int[] sourcenumbers;  // the first setting where a group of cycles start
@@ -63,14 +176,86 @@ public class Bombe extends Analyzor{
     private int numenigmas; // number of distinct enigmas needed
     private Enigma[] enigmas; // the enigma simulators, not necessarily sorted
     private int[] positions;  // the temporal-position of each enigma simulator in enigmas[]
-    private Enigma[] sourceEnigmas; // array pointing to source Enigmas, mimicking sourcenumbers
-    private Enigma[][][] linkEnigmas; // array pointing to the Enigmas on the cycles
+    private int[] sourceIndices; // indices in positions[] of the source Enigmas, mimicking sourcenumbers
+    private int[][][] linkIndices; // indices in positions[] of the Enigmas on the cycles
+
+    private int[][] wheelOrders = new int[][]{ Enigma.DEFAULTWHEELORDER }; // the wheel orders searched
+    private boolean showOrders = false;  // whether to report the wheel order of each stop
+    private ScramblerTable[] tables;     // scramblers of each wheel order
+    private File tablefile = null;       // where to map the tables from, if anywhere
+    private int[][] crankStates;         // crankStates[o][t] = orientation of order o after t cranks from AAA
+    private int[][] rings = null;        // the ring settings of rotors a,b,c searched, null for just AAA
+    private int greek = -1, thin = 0;    // the thin rotor and reflector of an M4, or greek = -1
+
+    private DiagonalBoard board = null;  // the crib menu, when given a crib instead of cycles
+    private int numbest = 3;             // how many automatic crib placements to run
+    private Menu[] menus = null;         // the menus of a multi-menu search
+    private boolean bitsliced = false;   // whether cycle menus use the BitslicedBombe
+    private java.util.Hashtable sliced;  // the BitslicedBombe of each block being searched, by block,
+                                         // or null when the search isn't bit-sliced
+    private int[] slicedLeft;            // positions of each block not yet searched bit-sliced
+
+    private int numthreads = ParallelRange.defaultThreads(); // threads used by findMatches()
+
+    private int numworkers = 0;          // worker JVMs to search in, or 0 to search on threads
+    private int leaseSeconds = 300;      // how long a worker may hold a range of positions
+    private String workerInfo = null;    // what the workers did, for the output
+
+    private File corpus = null;          // n-grams to score crib stops with, or null for unigrams
+    private int ngramlength = 2, cables = 10;
+    private int estimate = 0;            // random positions to test the menu at instead of searching
+
+    private File checkpointfile = null;  // where to save the search progress, if anywhere
+    private int resumed, numranges;      // ranges found already searched in the checkpoint, out of
+
+    /**
+     * With a checkpoint, the positions of each wheel order are searched in
+     * this many ranges, whatever the number of threads, so that the ranges
+     * of an interrupted search match those of the resumed one.
+     */
+    private final static int CHECKPOINTRANGES = 64;
+
+    /**
+     * The random positions of an estimate are drawn in this many chunks.
+     */
+    private final static int ESTIMATECHUNKS = 64;
+
+    /**
+     * engine=bitsliced only slices searches of at least this many blocks
+     * (wheel orders times ring settings times thin rotor positions).  Each
+     * block is sliced before it is searched, and on a few blocks that and
+     * warming up the bit-sliced code cost what slicing saves, so smaller
+     * searches run on the scalar engine (see BitslicedBombe.main()).
+     */
+    final static int SLICEDBLOCKS = 16;
+
+    /**
+     * The number of rotor positions in a full search
+     */
+    public final static int NUMPOSITIONS = 26*26*26;
+
+    /**
+     * Set the number of threads used to search the rotor positions.
+     */
+    public void setThreads(int n){
+	numthreads = (n < 1) ? 1 : n;
+    }
 
     /**
      * Start the simulation and list the results out in the text
      */
     public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
-	processInput(arg);
+	if (arg == null) throw new IllegalArgumentException(errstr);
+	String menu = processOptions(arg);
+	if (menu.indexOf('&') != -1){
+	    analyzeMenusOn(text,menu);
+	    return;
+	}
+	if (isCrib(menu)){
+	    analyzeCribOn(text,menu);
+	    return;
+	}
+	processInput(menu);
 
 	/* Check if precessed argument correctly */
 	StringBuffer outbuf = new StringBuffer("Sourcenumbers:\n");
@@ -91,8 +276,17 @@ public class Bombe extends Analyzor{
 	createEnigmas();
 	outbuf.append(internalInfo());
 
+	if (estimate > 0){
+	    prepareTables();
+	    outbuf.append("\n\nEstimate: "+estimateStops());
+	    text.delete(0,text.length());
+	    text.append(outbuf.toString());
+	    return;
+	}
+
 	String[] matches = findMatches();  //the results of the simulation
 
+	outbuf.append(checkpointInfo());
 	outbuf.append("\n\nNumber of possible matches: "+matches.length);
 	outbuf.append("\n\nPossible Matches found at:\n");
 	for (int i=0; i<matches.length; i++)
@@ -156,6 +350,585 @@ public class Bombe extends Analyzor{
     }
 	
 
+    /**
+     * Parse the semicolon separated options following the menu, returning
+     * the menu.  Options not given go back to their defaults.
+     */
+    private String processOptions(String arg) throws IllegalArgumentException{
+	numthreads = ParallelRange.defaultThreads();
+	wheelOrders = new int[][]{ Enigma.DEFAULTWHEELORDER };
+	showOrders = false;
+	tablefile = null;
+	rings = null;
+	greek = -1;
+	thin = 0;
+	checkpointfile = null;
+	numworkers = 0;
+	leaseSeconds = 300;
+	board = null;
+	menus = null;
+	bitsliced = false;
+	numbest = 3;
+	corpus = null;
+	ngramlength = 2;
+	cables = 10;
+	estimate = 0;
+
+	int semi = arg.indexOf(';');
+	if (semi == -1) return arg;
+	String[][] options = options(arg.substring(semi+1));
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("threads")){
+		try{
+		    setThreads(Integer.parseInt(value));
+		}catch(NumberFormatException e){
+		    throw new IllegalArgumentException(errstr+"\nthreads must be a positive integer!!!");
+		}
+	    }
+	    else if (name.equals("orders")){
+		try{
+		    setWheelOrders(ScramblerTable.parseWheelOrders(value));
+		}catch(IllegalArgumentException e){
+		    throw new IllegalArgumentException(errstr+"\n"+e.getMessage()+"!!!");
+		}
+	    }
+	    else if (name.equals("best"))
+		numbest = positive(errstr,name,value);
+	    else if (name.equals("table") && value.length() > 0)
+		tablefile = new File(value);
+	    else if (name.equals("rings"))
+		rings = parseRings(value);
+	    else if (name.equals("greek") && indexOf(GREEKNAMES,value) != -1)
+		greek = indexOf(GREEKNAMES,value);
+	    else if (name.equals("thin") && indexOf(THINNAMES,value) != -1)
+		thin = indexOf(THINNAMES,value);
+	    else if (name.equals("engine") && (value.equals("bitsliced") || value.equals("scalar")))
+		bitsliced = value.equals("bitsliced");
+	    else if (name.equals("checkpoint") && value.length() > 0)
+		checkpointfile = new File(value);
+	    else if (name.equals("workers"))
+		numworkers = positive(errstr,name,value);
+	    else if (name.equals("lease"))
+		leaseSeconds = positive(errstr,name,value);
+	    else if (name.equals("ngrams") && value.length() > 0)
+		corpus = new File(value);
+	    else if (name.equals("n"))
+		ngramlength = positive(errstr,name,value);
+	    else if (name.equals("estimate"))
+		estimate = positive(errstr,name,value);
+	    else if (name.equals("cables")){
+		cables = positive(errstr,name,value);
+		if (cables > 13)
+		    throw new IllegalArgumentException(errstr+"\nAn Enigma has room for at most 13 cables!!!");
+	    }
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+	return arg.substring(0,semi);
+    }
+
+    /**
+     * Parse the rings option: "all", or a comma separated list of ring
+     * settings of rotors a, b and optionally c, e.g. "QC,BZA".
+     */
+    private int[][] parseRings(String value) throws IllegalArgumentException{
+	if (value.equalsIgnoreCase("all")){
+	    int[][] out = new int[26*26][];
+	    for(int i=0; i<out.length; i++) out[i] = new int[]{ i/26, i%26, 0 };
+	    return out;
+	}
+	StringTokenizer ringTokens = new StringTokenizer(value.toUpperCase(),",");
+	int[][] out = new int[ringTokens.countTokens()][];
+	if (out.length == 0)
+	    throw new IllegalArgumentException(errstr+"\nNo ring settings given!!!");
+	for(int i=0; i<out.length; i++){
+	    String ring = ringTokens.nextToken().trim();
+	    if (ring.length() < 2 || ring.length() > 3)
+		throw new IllegalArgumentException(errstr+"\nBad ring setting "+ring+"!!!");
+	    out[i] = new int[3];
+	    for(int j=0; j<ring.length(); j++){
+		out[i][j] = ring.charAt(j)-'A';
+		if (out[i][j] < 0 || out[i][j] > 25)
+		    throw new IllegalArgumentException(errstr+"\nBad ring setting "+ring+"!!!");
+	    }
+	}
+	return out;
+    }
+
+    private int numrings(){ return (rings == null) ? 1 : rings.length; }
+
+    /**
+     * The number of thin rotor positions searched: 26 for an M4, else 1.
+     */
+    private int numgreek(){ return (greek == -1) ? 1 : 26; }
+
+    private static int indexOf(String[] names, String name){
+	for(int i=0; i<names.length; i++)
+	    if (names[i].equalsIgnoreCase(name)) return i;
+	return -1;
+    }
+
+    /**
+     * A menu containing letters is a crib rather than a cycle description.
+     */
+    private static boolean isCrib(String menu){
+	for(int i=0; i<menu.length(); i++)
+	    if (Character.isLetter(menu.charAt(i))) return true;
+	return false;
+    }
+
+    /**
+     * Place a crib given as CRIB@position, where position counts the
+     * letters of the ciphertext from 1.
+     */
+    private CribPlacement processCrib(char[] ciphertext, String menu) throws IllegalArgumentException{
+	int at = menu.indexOf('@');
+	int first;
+	try{
+	    first = Integer.parseInt(menu.substring(at+1).trim());
+	}catch(NumberFormatException e){
+	    throw new IllegalArgumentException(errstr+"\n"+e);
+	}
+	char[] crib = TextManip.letters(new StringBuffer(menu.substring(0,at)));
+	if (first < 1 || first-1+crib.length > ciphertext.length)
+	    throw new IllegalArgumentException("The crib doesn't fit in the ciphertext at position "+first
+					       +".\nThe ciphertext has "+ciphertext.length+" letters.");
+	return new CribPlacement(crib,ciphertext,first-1);
+    }
+
+    /**
+     * A crib menu written out with its ciphertext and the Enigma number of
+     * its first link, as CRIB>CIPHER@first, so that it can be rebuilt
+     * without the ciphertext (see boardFromSpec()).
+     */
+    private static String boardSpec(DiagonalBoard b){
+	return new String(b.getCrib())+">"+new String(b.getCipher())+"@"+b.getPositions()[0];
+    }
+
+    private DiagonalBoard boardFromSpec(String spec) throws IllegalArgumentException{
+	int gt = spec.indexOf('>'), at = spec.indexOf('@');
+	if (gt == -1 || at < gt) throw new IllegalArgumentException(errstr);
+	try{
+	    return new DiagonalBoard(TextManip.letters(new StringBuffer(spec.substring(0,gt))),
+				     TextManip.letters(new StringBuffer(spec.substring(gt+1,at))),
+				     Integer.parseInt(spec.substring(at+1).trim()));
+	}catch(NumberFormatException e){
+	    throw new IllegalArgumentException(errstr+"\n"+e);
+	}
+    }
+
+    /**
+     * One of the menus of a multi-menu search.  Its Enigmas are given by
+     * their indices in the positions[] shared by all the menus.
+     */
+    private static class Menu{
+	String description;
+	DiagonalBoard board;     // the menu of a crib, or null for cycles
+	int numgroups;           // for cycles: as the fields of the same name
+	int[] sourcenumbers;
+	int[][][] links;
+	int[] sourceIndices;
+	int[][][] linkIndices;
+	int[] boardIndices;      // for a crib: the index of the Enigma of each link
+    }
+
+    /**
+     * Parse the menus separated by '&' and share out their Enigmas, ready
+     * for findMatches().  text is the ciphertext, needed only by cribs.
+     */
+    private void setupMenus(StringBuffer text, String arg) throws IllegalArgumentException{
+	StringTokenizer menuTokens = new StringTokenizer(arg,"&");
+	Menu[] parsed = new Menu[menuTokens.countTokens()];
+	char[] ciphertext = null;
+	TreeSet tree = new TreeSet();
+	for(int m=0; m<parsed.length; m++){
+	    Menu menu = parsed[m] = new Menu();
+	    menu.description = menuTokens.nextToken().trim();
+	    if (menu.description.indexOf('>') != -1){
+		menu.board = boardFromSpec(menu.description);
+		int[] linkPos = menu.board.getPositions();
+		for(int i=0; i<linkPos.length; i++) tree.add(Integer.valueOf(linkPos[i]));
+	    }
+	    else if (isCrib(menu.description)){
+		if (ciphertext == null) ciphertext = TextManip.letters(text);
+		CribPlacement placement;
+		if (menu.description.indexOf('@') != -1)
+		    placement = processCrib(ciphertext,menu.description);
+		else{
+		    char[] crib = TextManip.letters(new StringBuffer(menu.description));
+		    CribPlacement[] placements = CribPlacement.rank(crib,ciphertext);
+		    if (placements.length == 0)
+			throw new IllegalArgumentException("The crib "+new String(crib)+" can't be placed anywhere"
+							   +"\nin the ciphertext without enciphering a letter to itself.");
+		    placement = placements[0];
+		    menu.description = new String(crib)+"@"+placement.getPosition();
+		}
+		menu.board = placement.board();
+		int[] linkPos = menu.board.getPositions();
+		for(int i=0; i<linkPos.length; i++) tree.add(Integer.valueOf(linkPos[i]));
+	    }
+	    else{
+		processInput(menu.description);
+		menu.numgroups = numgroups;
+		menu.sourcenumbers = sourcenumbers;
+		menu.links = links;
+		for(int i=0; i<numgroups; i++){
+		    tree.add(Integer.valueOf(sourcenumbers[i]));
+		    for(int j=0; j<links[i].length; j++)
+			for(int k=0; k<links[i][j].length; k++)
+			    tree.add(Integer.valueOf(links[i][j][k]));
+		}
+	    }
+	}
+
+	// the Enigmas of all the menus together
+	Object[] temp = tree.toArray();
+	numenigmas = temp.length;
+	positions = new int[numenigmas];
+	for(int i=0; i<numenigmas; i++) positions[i] = ((Integer)temp[i]).intValue();
+	for(int m=0; m<parsed.length; m++){
+	    Menu menu = parsed[m];
+	    if (menu.board != null){
+		int[] linkPos = menu.board.getPositions();
+		menu.boardIndices = new int[linkPos.length];
+		for(int i=0; i<linkPos.length; i++)
+		    menu.boardIndices[i] = java.util.Arrays.binarySearch(positions,linkPos[i]);
+		continue;
+	    }
+	    menu.sourceIndices = new int[menu.numgroups];
+	    menu.linkIndices = new int[menu.numgroups][][];
+	    for(int i=0; i<menu.numgroups; i++){
+		menu.sourceIndices[i] = java.util.Arrays.binarySearch(positions,menu.sourcenumbers[i]);
+		menu.linkIndices[i] = new int[menu.links[i].length][];
+		for(int j=0; j<menu.links[i].length; j++){
+		    menu.linkIndices[i][j] = new int[menu.links[i][j].length];
+		    for(int k=0; k<menu.links[i][j].length; k++)
+			menu.linkIndices[i][j][k] = java.util.Arrays.binarySearch(positions,menu.links[i][j][k]);
+		}
+	    }
+	}
+	board = null;
+	menus = parsed;
+    }
+
+    /**
+     * Search several menus separated by '&' in one pass over the rotor
+     * positions and list the stops of each menu.
+     */
+    private void analyzeMenusOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	if (estimate > 0)
+	    throw new IllegalArgumentException(errstr+"\nMenus can only be estimated one at a time!!!");
+	setupMenus(text,arg);
+
+	String[] matches = findMatches();  //the results of the simulation, tagged by menu
+
+	StringBuffer outbuf = new StringBuffer("Searched "+menus.length+" menus on "+numenigmas
+					       +" Enigmas in one pass.");
+	outbuf.append(checkpointInfo());
+	TreeSet common = null;  // rotor positions where every menu stopped so far
+	for(int m=0; m<menus.length; m++){
+	    ArrayList found = new ArrayList();
+	    TreeSet stops = new TreeSet();
+	    for(int i=0; i<matches.length; i++){
+		int tab = matches[i].indexOf('\t');
+		if (Integer.parseInt(matches[i].substring(0,tab)) != m) continue;
+		String match = matches[i].substring(tab+1);
+		found.add(match);
+		int steckers = match.indexOf("  steckers:");
+		stops.add(steckers == -1 ? match : match.substring(0,steckers));
+	    }
+	    if (common == null) common = stops;
+	    else common.retainAll(stops);
+	    outbuf.append("\n\nMenu "+(m+1)+": "+menus[m].description);
+	    outbuf.append("\n\nNumber of possible matches: "+found.size());
+	    outbuf.append("\n\nPossible Matches found at:\n");
+	    for (int i=0; i<found.size(); i++)
+		outbuf.append("\n\"abc\" = "+found.get(i));
+	}
+	outbuf.append("\n\nRotor positions where every menu stopped: "+common.size()+"\n");
+	for(java.util.Iterator itr = common.iterator(); itr.hasNext(); )
+	    outbuf.append("\n\"abc\" = "+itr.next());
+
+	String outstr = outbuf.toString();
+	text.delete(0,text.length());
+	text.append(outstr);
+    }
+
+    /**
+     * Run the diagonal board Bombe on a crib and list the results in the text.
+     * Without a position, the crib is tried at every position where no letter
+     * would be enciphered to itself, and the best placements are run.
+     */
+    private void analyzeCribOn(StringBuffer text, String menu) throws IllegalArgumentException{
+	char[] ciphertext = TextManip.letters(text);
+	StringBuffer outbuf = new StringBuffer();
+	CribPlacement[] placements;
+	if (menu.indexOf('@') != -1){
+	    placements = new CribPlacement[]{ processCrib(ciphertext,menu) };
+	    if (estimate > 0){
+		text.delete(0,text.length());
+		text.append(estimatePlacements(placements,1));
+		return;
+	    }
+	}
+	else{
+	    char[] crib = TextManip.letters(new StringBuffer(menu));
+	    placements = CribPlacement.rank(crib,ciphertext);
+	    if (placements.length == 0)
+		throw new IllegalArgumentException("The crib "+new String(crib)+" can't be placed anywhere"
+						   +"\nin the ciphertext without enciphering a letter to itself.");
+	    if (estimate > 0){
+		text.delete(0,text.length());
+		text.append("The crib "+new String(crib)+" can be placed at "+placements.length+" positions.\n"
+			    +estimatePlacements(placements,Math.max(10,numbest)));
+		return;
+	    }
+	    outbuf.append("The crib "+new String(crib)+" can be placed at "+placements.length
+			  +" positions.\nStrongest menus:\n");
+	    for(int i=0; i<placements.length && i<10; i++)
+		outbuf.append("\n"+placements[i]);
+	    if (placements.length > numbest){
+		CribPlacement[] best = new CribPlacement[numbest];
+		System.arraycopy(placements,0,best,0,numbest);
+		placements = best;
+	    }
+	    outbuf.append("\n\nRunning the best "+placements.length+".\n\n");
+	}
+
+	NgramModel model;
+	try{
+	    model = (corpus == null) ? NgramModel.unigrams() : NgramModel.train(corpus,ngramlength);
+	}catch(IOException e){
+	    throw new IllegalArgumentException("Could not read n-grams from "+corpus+":\n"+e);
+	}
+
+	for(int p=0; p<placements.length; p++){
+	    board = placements[p].board();
+	    outbuf.append("Crib:   "+new String(placements[p].getCrib()));
+	    outbuf.append("\nCipher: "+new String(placements[p].getCipher()));
+	    outbuf.append("\n\nMenu:\n"+board);
+	    String cycles = placements[p].cycles();
+	    if (cycles.length() > 0)
+		outbuf.append("\nAs cycles: "+cycles);
+
+	    CribStop[] matches = cribStops(findStops());  //the results of the simulation
+
+	    outbuf.append(checkpointInfo());
+	    outbuf.append("\n\nNumber of possible matches: "+matches.length);
+	    outbuf.append("\n\nPossible Matches found at:\n");
+	    for (int i=0; i<matches.length; i++)
+		outbuf.append("\n\"abc\" = "+stopString(matches[i]));
+	    outbuf.append(verifyStops(ciphertext,matches,model));
+	    outbuf.append("\n\n");
+	}
+
+	String outstr = outbuf.toString();
+	text.delete(0,text.length());
+	text.append(outstr);
+    }
+
+    /**
+     * Estimate the stops of the strongest num placements and list them,
+     * fewest expected stops first.
+     */
+    private String estimatePlacements(CribPlacement[] placements, int num){
+	num = Math.min(num,placements.length);
+	prepareTables();
+	final StopEstimate[] estimates = new StopEstimate[num];
+	Integer[] order = new Integer[num];
+	long t0 = System.currentTimeMillis();
+	for(int p=0; p<num; p++){
+	    board = placements[p].board();
+	    estimates[p] = estimateStops();
+	    order[p] = Integer.valueOf(p);
+	}
+	long ms = System.currentTimeMillis() - t0;
+	java.util.Arrays.sort(order,new java.util.Comparator(){
+		public int compare(Object x, Object y){
+		    double ex = estimates[((Integer)x).intValue()].expected();
+		    double ey = estimates[((Integer)y).intValue()].expected();
+		    return (ex < ey) ? -1 : (ex > ey) ? 1 : 0;
+		}
+	    });
+	StringBuffer out = new StringBuffer("Estimated the stops of "+num+(num == 1 ? " placement" : " placements")
+					    +" from "+estimate+" random positions each in "+ms+" ms"
+					    +(num == 1 ? ":\n" : ", fewest first:\n"));
+	for(int i=0; i<num; i++){
+	    int p = order[i].intValue();
+	    out.append("\n"+placements[p]+"\n    "+estimates[p]);
+	}
+	return out.toString();
+    }
+
+    /**
+     * Test the current menu (crib board or cycles) at estimate random
+     * positions of the search space and estimate the stops of the whole
+     * search.  The positions are drawn in a fixed number of chunks, each
+     * with its own seed, so the estimate doesn't depend on the threads.
+     * The plugboard doesn't enter the Bombe's test, so only the rotor
+     * settings are drawn.
+     */
+    private StopEstimate estimateStops(){
+	final int numblocks = wheelOrders.length*numrings()*numgreek();
+	ParallelRange sample = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    java.util.Random rnd = new java.util.Random(from);
+		    int[] linkPos = (board == null) ? positions : board.getPositions();
+		    int[] states = new int[linkPos.length];
+		    int[] live = new int[26], pending = new int[26];
+		    long[] out = new long[2];   // positions stopped, stops
+		    for(int i=from; i<to; i++){
+			int block = rnd.nextInt(numblocks), rot = rnd.nextInt(NUMPOSITIONS);
+			int g = block % numgreek(), ring = (block / numgreek()) % numrings();
+			int o = block / (numgreek()*numrings());
+			ScramblerTable table = tables[o*numgreek()+g];
+			for(int k=0; k<states.length; k++)
+			    states[k] = ringState(o,ring,(rot+linkPos[k]) % NUMPOSITIONS);
+			int stops = (board != null) ? Integer.bitCount(board.test(table,states,live,pending))
+			    : cyclesClose(table,states,sourceIndices,linkIndices) ? 1 : 0;
+			if (stops > 0){
+			    out[0]++;
+			    out[1] += stops;
+			}
+		    }
+		    return out;
+		}
+	    };
+	Object[] chunks = sample.run(estimate, Math.min(estimate,ESTIMATECHUNKS), numthreads);
+	long stopped = 0, stops = 0;
+	for(int i=0; i<chunks.length; i++){
+	    stopped += ((long[])chunks[i])[0];
+	    stops += ((long[])chunks[i])[1];
+	}
+	return new StopEstimate(estimate,stopped,stops,(long)numblocks*NUMPOSITIONS);
+    }
+
+    /**
+     * Verify the stops of the crib menu board (see StopVerifier) and list
+     * them best first, followed by the rejected ones.
+     */
+    private String verifyStops(char[] ciphertext, CribStop[] matches, NgramModel model){
+	StopVerifier.Stop[] stops = new StopVerifier.Stop[matches.length];
+	for(int i=0; i<matches.length; i++) stops[i] = verifierStop(matches[i]);
+	long t0 = System.currentTimeMillis();
+	StopVerifier.Stop[] verified = new StopVerifier(ciphertext,board,model,cables).verify(stops,numthreads);
+	long ms = System.currentTimeMillis() - t0;
+	StringBuffer out = new StringBuffer("\n\nVerified stops: "+verified.length+" of "+matches.length
+					    +" in "+ms+" ms, best first by "+model+" score per letter:\n");
+	for(int i=0; i<verified.length; i++)
+	    out.append("\n"+verified[i]);
+	if (verified.length < stops.length){
+	    out.append("\n\nRejected stops:\n");
+	    for(int i=0; i<stops.length; i++)
+		if (stops[i].getRejected() != null) out.append("\n"+stops[i]);
+	}
+	return out.toString();
+    }
+
+    /**
+     * A stop of a crib menu, as found by findCribMatches(): the wheel
+     * order number o, ring setting number ring and thin rotor position g
+     * searched, the orientation of the rotors (as seen in their windows)
+     * and the steckers implied by the surviving hypothesis.  toString() is
+     * the record of the stop kept in checkpoints and sent by workers, e.g.
+     * "2 0 0 1379 AT EQ MM"; parse() reads it back.
+     */
+    static class CribStop{
+	int o, ring, g, state;
+	int[] steckers;         // steckers[L] = partner of L, or -1 if unknown
+
+	CribStop(int o, int ring, int g, int state, int[] steckers){
+	    this.o = o;
+	    this.ring = ring;
+	    this.g = g;
+	    this.state = state;
+	    this.steckers = steckers;
+	}
+
+	public String toString(){
+	    return o+" "+ring+" "+g+" "+state+" "+steckerString(steckers);
+	}
+
+	static CribStop parse(String record){
+	    StringTokenizer tokens = new StringTokenizer(record," ");
+	    int o = Integer.parseInt(tokens.nextToken()), ring = Integer.parseInt(tokens.nextToken());
+	    int g = Integer.parseInt(tokens.nextToken()), state = Integer.parseInt(tokens.nextToken());
+	    int[] steckers = new int[26];
+	    for(int L=0; L<26; L++) steckers[L] = -1;
+	    while(tokens.hasMoreTokens()){
+		String pair = tokens.nextToken();
+		steckers[pair.charAt(0)-'A'] = pair.charAt(1)-'A';
+		steckers[pair.charAt(1)-'A'] = pair.charAt(0)-'A';
+	    }
+	    return new CribStop(o,ring,g,state,steckers);
+	}
+    }
+
+    /**
+     * The stops of a crib search.  Those read back from a checkpoint or
+     * sent by workers arrive as records (see CribStop).
+     */
+    private static CribStop[] cribStops(ArrayList stops){
+	CribStop[] out = new CribStop[stops.size()];
+	for(int i=0; i<out.length; i++){
+	    Object stop = stops.get(i);
+	    out[i] = (stop instanceof CribStop) ? (CribStop)stop : CribStop.parse((String)stop);
+	}
+	return out;
+    }
+
+    /**
+     * A crib stop as listed in the output: the rotor letters, the suffix
+     * of stopSuffix() and the steckers.
+     */
+    private String stopString(CribStop stop){
+	return rotorString(stop.state)+stopSuffix(stop.o,stop.ring,stop.g)+"  steckers: "
+	    +steckerString(stop.steckers);
+    }
+
+    /**
+     * What the StopVerifier needs to decrypt with a crib stop: the wheel
+     * order, and the rotor letters and rings as an EnigmaKey.
+     */
+    private StopVerifier.Stop verifierStop(CribStop stop){
+	String key = rotorString(stop.state)+(greek == -1 ? "" : ""+(char)('A'+stop.g));
+	String ringstr = "AAA";
+	if (rings != null)
+	    ringstr = ""+(char)('A'+rings[stop.ring][0])+(char)('A'+rings[stop.ring][1])
+		+(char)('A'+rings[stop.ring][2]);
+	if (greek != -1) ringstr += "A";
+	if (!ringstr.equals("AAA")) key += "-"+ringstr;
+	return new StopVerifier.Stop(stopString(stop),wheelOrders[stop.o],greek,thin,key,stop.steckers);
+    }
+
+    /**
+     * Search the given wheel orders (each lists the indices in
+     * EnigmaDefinitions.ROTORS of rotors a, b and c).  Stops are then
+     * reported with their wheel order.
+     */
+    public void setWheelOrders(int[][] orders) throws IllegalArgumentException{
+	if (orders == null || orders.length == 0)
+	    throw new IllegalArgumentException("No wheel orders to search!!!");
+	for(int i=0; i<orders.length; i++)
+	    ScramblerTable.checkWheelOrder(orders[i]);
+	wheelOrders = orders;
+	showOrders = true;
+    }
+
+    /**
+     * Parse a comma separated list of wheel orders given by rotor numbers,
+     * e.g. "123,514".
+     */
+    /**
+     * Rotor numbers of a wheel order, e.g. "1-2-3".
+     */
+    static String orderString(int[] order){
+	String out = "";
+	for(int i=0; i<order.length; i++) out += (i>0?"-":"")+(order[i]+1);
+	return out;
+    }
+
     /**
      * Construct the Enigma simulators used in the Bombe.
      */
@@ -174,45 +947,146 @@ public class Bombe extends Analyzor{
 	positions = new int[numenigmas];
 	for(int i=0; i<numenigmas; i++) positions[i] = ((Integer)temp[i]).intValue();
 
-	// Now create the enigmas.  After creating each one
+	enigmas = createEnigmas(0);
+	sourceIndices = sourceIndices();
+	linkIndices = linkIndices();
+    }
+
+    /**
+     * Create a fresh set of Enigma simulators, one per distinct position,
+     * for a search starting offset rotor positions after AAA.
+     */
+    private Enigma[] createEnigmas(int offset){
+	// Create the enigmas.  After creating each one
 	// forward it by the number of steps indicated indices.
-	enigmas = new Enigma[numenigmas];
+	Enigma[] out = new Enigma[numenigmas];
 	for(int i=0; i<numenigmas; i++){
-	    enigmas[i] = new Enigma();
+	    out[i] = new Enigma();
 	    try{
-		enigmas[i].setup(new EnigmaKey("AAA"));
+		out[i].setup(new EnigmaKey("AAA"));
 	    }catch(KeyCreationException e){
 		System.out.println("In Bombe.java:  THIS SHOULD NEVER HAVE HAPPENED!!!!!!");
 	    }
 	    // crank forward the number of necessary positions.
 	    // position == 1 doesn't get cranked
-	    for(int j=1; j < positions[i]; j++)
-		enigmas[i].crank();
+	    if (positions[i]+offset > 1)
+		out[i].advance(positions[i]+offset-1);
 	}
+	return out;
+    }
 
-	// For each source number, find its index in the enigma array and point sourceEnigmas there
-	sourceEnigmas = new Enigma[numgroups];
+    /**
+     * For each source number, find its index in the enigma array.
+     */
+    private int[] sourceIndices(){
+	int[] out = new int[numgroups];
 	for(int i=0; i<numgroups; i++){
 	    int sourcenum = sourcenumbers[i];
 	    for(int j=0; j<numenigmas; j++)
 		if( positions[j] == sourcenum )
-		    sourceEnigmas[i] = enigmas[j];
+		    out[i] = j;
 	}
-	
-	// For each link number, find its index in the enigma array and point sourceEnigmas there
-	linkEnigmas = new Enigma[numgroups][][];
+	return out;
+    }
+
+    /**
+     * For each link number, find its index in the enigma array.
+     */
+    private int[][][] linkIndices(){
+	int[][][] out = new int[numgroups][][];
 	for(int i=0; i<numgroups; i++){
-	    linkEnigmas[i] = new Enigma[links[i].length][];
+	    out[i] = new int[links[i].length][];
 	    for(int j=0; j<links[i].length; j++){
-		linkEnigmas[i][j] = new Enigma[links[i][j].length];
+		out[i][j] = new int[links[i][j].length];
 		for(int k=0; k<links[i][j].length; k++){
 		    int linknum = links[i][j][k];
 		    for(int l=0; l<numenigmas; l++)
 			if( positions[l] == linknum )
-			    linkEnigmas[i][j][k] = enigmas[l];
+			    out[i][j][k] = l;
 		}
 	    }
-	}	
+	}
+	return out;
+    }
+
+    /**
+     * Load the scrambler table of every wheel order searched, and record the
+     * orientation reached after every number of cranks from AAA.  The rotors
+     * return to AAA after NUMPOSITIONS cranks, so Enigma number n at
+     * position t is in orientation crankStates[o][(t+n) % NUMPOSITIONS].
+     * The wheel orders are prepared in parallel.
+     */
+    private void prepareTables() throws IllegalArgumentException{
+	int numtables = wheelOrders.length*numgreek();
+	tables = new ScramblerTable[numtables];
+	crankStates = new int[wheelOrders.length][];
+	sliced = null;
+	if (bitsliced && numtables*numrings() >= SLICEDBLOCKS){
+	    sliced = new java.util.Hashtable();
+	    slicedLeft = new int[numtables*numrings()];
+	    java.util.Arrays.fill(slicedLeft,NUMPOSITIONS);
+	}
+	ParallelRange prepareStates = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    for(int o=from; o<to; o++) prepareStates(o);
+		    return null;
+		}
+	    };
+	prepareStates.run(wheelOrders.length, wheelOrders.length, numthreads);
+	ParallelRange prepare = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    for(int i=from; i<to; i++) prepareTable(i);
+		    return null;
+		}
+	    };
+	prepare.run(numtables, numtables, numthreads);
+    }
+
+    /**
+     * Record the orientations of wheel order number o after every number
+     * of cranks from AAA.
+     */
+    private void prepareStates(int o){
+	Enigma indexEnigma = new Enigma(wheelOrders[o]); //just used to keep track of rotor positions
+	try{
+	    indexEnigma.setup(new EnigmaKey("AAA"));
+	}catch(KeyCreationException e){
+	    System.out.println("In Bombe.java:  THIS SHOULD NEVER HAVE HAPPENED!!!!!!");
+	}
+	int[] states = new int[NUMPOSITIONS];
+	for(int t=0; t<NUMPOSITIONS; t++){
+	    states[t] = indexEnigma.state();
+	    indexEnigma.crank();
+	}
+	crankStates[o] = states;
+    }
+
+    /**
+     * Load table number i: that of wheel order i/numgreek() with, for an
+     * M4, the thin rotor at offset i%numgreek().
+     */
+    private void prepareTable(int i) throws IllegalArgumentException{
+	int o = i / numgreek(), g = i % numgreek();
+	String reflector = (greek == -1) ? REFLECTOR : ScramblerTable.m4Reflector(greek,g,thin);
+	File f = tablefile;
+	if (f != null && (wheelOrders.length > 1 || greek != -1 || f.isDirectory())){
+	    f.mkdirs();
+	    f = new File(f,"wheels"+orderString(wheelOrders[o])
+			 +(greek == -1 ? "" : "_"+GREEKNAMES[greek]+THINNAMES[thin]+(char)('A'+g))+".tab");
+	}
+	try{
+	    tables[i] = (f == null) ? ScramblerTable.forWheelOrder(wheelOrders[o],reflector)
+		: ScramblerTable.forWheelOrder(wheelOrders[o],reflector,f);
+	}catch(IOException e){
+	    throw new IllegalArgumentException("Could not use scrambler table "+f+":\n"+e);
+	}
+    }
+
+    /**
+     * The letters a,b,c of a ScramblerTable orientation number.
+     */
+    private static String rotorString(int state){
+	return ""+(char)('A'+state/676)+(char)('A'+(state/26)%26)+(char)('A'+state%26);
     }
 
     /**
@@ -235,55 +1109,440 @@ public class Bombe extends Analyzor{
      *         if letter_match still true, source_match = true
      *      if source_match still false, total_match = false
      *   if total_match still true, add current rotor configuraion to match list
+     *
+     * The rotor configurations are split into ranges which are searched
+     * concurrently by findMatches(first,last) and then concatenated in order.
      */
     private String[] findMatches(){
-	ArrayList matches = new ArrayList();
-	Enigma indexEnigma = new Enigma(); //just used to keep track of rotor positions
+	Object[] temp = findStops().toArray();
+	String[] out = new String[temp.length];
+	for(int i=0; i<out.length; i++) out[i] = (String)temp[i];
+	return out;
+    }
+
+    /**
+     * The stops of the search in position order, as listed by
+     * searchChunk(), or as records where they come from a checkpoint or
+     * from workers.
+     */
+    private ArrayList findStops(){
+	// The search space is every position of every wheel order, in that order.
+	// Use several chunks per thread so that a slow range doesn't hold up the rest.
+	long longsize = (long)wheelOrders.length*numrings()*numgreek()*NUMPOSITIONS;
+	if (longsize > Integer.MAX_VALUE)
+	    throw new IllegalArgumentException("The search is too large to run at once.\n"
+					       +"Search fewer wheel orders or ring settings at a time.");
+	int size = (int)longsize;
+	numranges = (checkpointfile != null) ? wheelOrders.length*CHECKPOINTRANGES
+	    : Math.max(4*(numworkers > 0 ? numworkers : numthreads),wheelOrders.length);
+	Object[] done = null;
+	final BombeCheckpoint checkpoint = (checkpointfile == null) ? null
+	    : new BombeCheckpoint(checkpointfile,checkpointKey(),numranges);
+	if (checkpoint != null){
+	    try{
+		done = checkpoint.load();
+	    }catch(IOException e){
+		throw new IllegalArgumentException("Could not use checkpoint "+checkpointfile+":\n"+e);
+	    }
+	    resumed = checkpoint.getResumed();
+	}
+	ParallelRange search = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    return searchChunk(from,to);
+		}
+		protected void chunkDone(int chunk, Object result){
+		    if (checkpoint == null) return;
+		    try{
+			checkpoint.save(chunk,(ArrayList)result);
+		    }catch(IOException e){
+			throw new IllegalStateException("Could not write checkpoint "+checkpointfile+":\n"+e);
+		    }
+		}
+	    };
+	Object[] chunks;
+	workerInfo = null;
 	try{
-	    indexEnigma.setup(new EnigmaKey("AAA"));
-	}catch(KeyCreationException e){
-	    System.out.println("In Bombe.java:  THIS SHOULD NEVER HAVE HAPPENED!!!!!!");
+	    if (numworkers > 0){
+		BombeCoordinator coordinator = new BombeCoordinator(searchSpec(),size,numranges,
+								    1000L*leaseSeconds);
+		try{
+		    done = coordinator.run(numworkers,search,done);
+		}catch(IOException e){
+		    throw new IllegalArgumentException("Could not run the Bombe workers:\n"+e);
+		}
+		workerInfo = coordinator.toString();
+	    }
+	    // search here whatever the workers left undone
+	    boolean finished = (done != null);
+	    for(int i=0; finished && i<done.length; i++) finished = (done[i] != null);
+	    if (!finished) prepareTables();
+	    chunks = search.run(size,numranges,numthreads,done);
+	}finally{
+	    if (checkpoint != null){
+		try{
+		    checkpoint.close();
+		}catch(IOException e){
+		    // every record was flushed when written
+		}
+	    }
 	}
-	for(int rot = 1; rot <= 26*26*26; rot++){
-	    //DEBUGGING CODE:
-	    //	    if ( rot % 100 == 0 )
-	    //      System.out.println("Analyzing postion no. "+rot+" in Bombe.");
-	    
-	    String rotorPositions = indexEnigma.rotors();
+	ArrayList matches = new ArrayList();
+	for(int i=0; i<chunks.length; i++)
+	    matches.addAll((ArrayList)chunks[i]);
+	return matches;
+    }
 
-	    //	    System.out.print(rot+") Index Enigma->"+rotorPositions+",");
-	    //	    for (int i=0; i<numenigmas; i++) System.out.print(i+"->"+enigmas[i].rotors()+",");
-	    //	    System.out.println();
+    /**
+     * Search the positions from through to-1 of the whole search space
+     * (every position of every thin rotor position of every ring setting of
+     * every wheel order, in that order).  Called on the search threads, and by BombeWorker on the
+     * ranges leased to it.  The stops are listed as in the output, or as
+     * CribStops for a crib menu; their toString() is what checkpoints and
+     * workers store.
+     */
+    ArrayList searchChunk(int from, int to){
+	// split the chunk where it crosses into another table or ring setting
+	ArrayList out = new ArrayList();
+	while(from < to){
+	    int block = from / NUMPOSITIONS;
+	    int g = block % numgreek(), ring = (block / numgreek()) % numrings();
+	    int o = block / (numgreek()*numrings());
+	    int first = from - block*NUMPOSITIONS;
+	    int last = Math.min(to,(block+1)*NUMPOSITIONS) - block*NUMPOSITIONS;
+	    if (menus != null)
+		out.addAll(findMenusMatches(o,ring,g,first,last));
+	    else if (board == null && sliced != null)
+		out.addAll(findSlicedMatches(block,o,ring,g,first,last));
+	    else if (board == null)
+		out.addAll(findMatches(o,ring,g,first,last));
+	    else
+		out.addAll(findCribMatches(o,ring,g,first,last));
+	    from = last + block*NUMPOSITIONS;
+	}
+	return out;
+    }
 
-	    //We crank at the beginning because the behavior written into the enigmas
-	    //is to rotate first, and then transform.
-	    indexEnigma.crank();
-	    for (int i=0; i<numenigmas; i++)  
-		enigmas[i].crank();
-	    boolean totalMatch = true;
-	    for(int i=0; totalMatch && i<sourceEnigmas.length; i++){
-		boolean sourceMatch = false;
-		for(char X='A'; !sourceMatch && X<='Z'; X++){
-		    boolean letterMatch = true;
-		    for(int j=0; letterMatch && j<linkEnigmas[i].length; j++){
-			char Y = sourceEnigmas[i].encryptChar(X,false); //false so no cranking
-			for(int k=0; k<linkEnigmas[i][j].length; k++)
-			    Y = linkEnigmas[i][j][k].encryptChar(Y,false);
-			if ( X != Y) 
-			    letterMatch = false;
-		    }
-		    sourceMatch = letterMatch;  // true now
+    /**
+     * The scrambler table index of wheel order o after each number of
+     * cranks from AAA, with ring setting number ring: the orientations
+     * less the rings.  Without rings these are just crankStates[o].
+     */
+    private int[] ringStates(int o, int ring){
+	int[] orientations = crankStates[o];
+	if (rings == null) return orientations;
+	if (rings[ring][0] == 0 && rings[ring][1] == 0 && rings[ring][2] == 0) return orientations;
+	int[] out = new int[NUMPOSITIONS];
+	for(int t=0; t<NUMPOSITIONS; t++) out[t] = ringState(o,ring,t);
+	return out;
+    }
+
+    /**
+     * The scrambler table index of wheel order o after t cranks from AAA
+     * with ring setting number ring: one entry of ringStates(o,ring).
+     */
+    private int ringState(int o, int ring, int t){
+	int s = crankStates[o][t];
+	if (rings == null) return s;
+	int ra = rings[ring][0], rb = rings[ring][1], rc = rings[ring][2];
+	return ScramblerTable.state((s/676+26-ra) % 26, ((s/26)%26+26-rb) % 26, (s%26+26-rc) % 26);
+    }
+
+    /**
+     * What follows the rotor letters of a stop: the thin rotor's letter
+     * for an M4, the ring setting, if rings are searched, and the wheel
+     * order, if several may be.
+     */
+    private String stopSuffix(int o, int ring, int g){
+	String out = (greek == -1) ? "" : ""+(char)('A'+g);
+	if (rings != null)
+	    out += " rings "+(char)('A'+rings[ring][0])+(char)('A'+rings[ring][1])+(char)('A'+rings[ring][2]);
+	if (showOrders)
+	    out += " with rotors "+orderString(wheelOrders[o]);
+	return out;
+    }
+
+    /**
+     * The search as an argument for prepareWorker(): the menu, with cribs
+     * written out by boardSpec(), and the options that change the stops.
+     */
+    String searchSpec(){
+	StringBuffer spec = new StringBuffer();
+	if (menus != null)
+	    for(int m=0; m<menus.length; m++){
+		if (m > 0) spec.append("&");
+		if (menus[m].board != null)
+		    spec.append(boardSpec(menus[m].board));
+		else
+		    appendCycles(spec,menus[m].numgroups,menus[m].sourcenumbers,menus[m].links);
+	    }
+	else if (board != null)
+	    spec.append(boardSpec(board));
+	else
+	    appendCycles(spec,numgroups,sourcenumbers,links);
+	if (showOrders){
+	    spec.append(";orders=");
+	    for(int o=0; o<wheelOrders.length; o++){
+		spec.append(o>0 ? "," : "");
+		for(int i=0; i<wheelOrders[o].length; i++) spec.append(wheelOrders[o][i]+1);
+	    }
+	}
+	if (rings != null){
+	    spec.append(";rings=");
+	    appendRings(spec);
+	}
+	if (greek != -1) spec.append(";greek="+GREEKNAMES[greek]+";thin="+THINNAMES[thin]);
+	if (bitsliced) spec.append(";engine=bitsliced");
+	if (tablefile != null) spec.append(";table="+tablefile.getAbsolutePath());
+	return spec.toString();
+    }
+
+    /**
+     * Get ready to search chunks of the search described by spec (see
+     * searchSpec()) with searchChunk().  Used by BombeWorker.
+     */
+    void prepareWorker(String spec) throws IllegalArgumentException{
+	String menu = processOptions(spec);
+	numthreads = 1;
+	if (menu.indexOf('&') != -1)
+	    setupMenus(null,menu);
+	else if (menu.indexOf('>') != -1)
+	    board = boardFromSpec(menu);
+	else{
+	    processInput(menu);
+	    createEnigmas();
+	}
+	prepareTables();
+    }
+
+    /**
+     * Everything that decides the stops found in each range: the menu and
+     * the wheel orders.
+     */
+    private String checkpointKey(){
+	StringBuffer key = new StringBuffer();
+	if (menus != null)
+	    for(int m=0; m<menus.length; m++){
+		if (menus[m].board != null)
+		    key.append(menus[m].board);
+		else
+		    appendCycles(key,menus[m].numgroups,menus[m].sourcenumbers,menus[m].links);
+		key.append("&");
+	    }
+	else if (board != null)
+	    key.append(board);
+	else
+	    appendCycles(key,numgroups,sourcenumbers,links);
+	key.append(" orders");
+	for(int o=0; o<wheelOrders.length; o++)
+	    key.append(" "+orderString(wheelOrders[o]));
+	key.append(showOrders ? " shown" : "");
+	if (greek != -1)
+	    key.append(" "+GREEKNAMES[greek]+" thin "+THINNAMES[thin]);
+	if (rings != null){
+	    key.append(" rings ");
+	    appendRings(key);
+	}
+	return key.toString();
+    }
+
+    private void appendRings(StringBuffer key){
+	for(int i=0; i<rings.length; i++){
+	    key.append(i>0 ? "," : "");
+	    for(int j=0; j<3; j++) key.append((char)('A'+rings[i][j]));
+	}
+    }
+
+    private static void appendCycles(StringBuffer key, int numgroups, int[] sourcenumbers, int[][][] links){
+	for(int i=0; i<numgroups; i++){
+	    key.append(sourcenumbers[i]+":");
+	    for(int j=0; j<links[i].length; j++){
+		for(int k=0; k<links[i][j].length; k++)
+		    key.append(links[i][j][k]+(k<links[i][j].length-1 ? "-" : ""));
+		key.append(j<links[i].length-1 ? "|" : "_");
+	    }
+	}
+    }
+
+    /**
+     * Lines on the checkpoint and the workers for the output, if any.
+     */
+    private String checkpointInfo(){
+	String out = "";
+	if (checkpointfile != null)
+	    out += "\n\nCheckpoint "+checkpointfile+": "+resumed+" of "+numranges
+		+" ranges were already searched.";
+	if (workerInfo != null)
+	    out += "\n\n"+workerInfo;
+	return out;
+    }
+
+    /**
+     * Search the rotor positions first through last-1 (counted in cranks from
+     * AAA) of wheel order number o with ring setting number ring (see
+     * ringStates()) and, for an M4, the thin rotor at g, returning the
+     * matches in position order.
+     * Each range keeps its own record of where its simulators are, so
+     * disjoint ranges can be searched concurrently.
+     */
+    private ArrayList findMatches(int o, int ring, int g, int first, int last){
+	ArrayList matches = new ArrayList();
+	ScramblerTable table = tables[o*numgreek()+g];
+	int[] crankStates = this.crankStates[o];
+	int[] ringStates = ringStates(o,ring);
+	String suffix = stopSuffix(o,ring,g);
+	int[] states = new int[numenigmas]; // table index of each simulator at this position
+	for(int rot = first; rot < last; rot++){
+	    //The enigmas rotate first, and then transform, so simulator
+	    //number n is n cranks past the index position.
+	    for (int i=0; i<numenigmas; i++)
+		states[i] = ringStates[(rot+positions[i]) % NUMPOSITIONS];
+	    if (cyclesClose(table,states,sourceIndices,linkIndices))
+		matches.add(rotorString(crankStates[rot])+suffix);
+	}
+	return matches;
+    }
+
+    /**
+     * The bit-sliced version of findMatches(o,ring,g,first,last): 64 positions
+     * are tested at a time.  block is the number of the (wheel order, ring
+     * setting, thin rotor) block, as in searchChunk().
+     */
+    private ArrayList findSlicedMatches(int block, int o, int ring, int g, int first, int last){
+	ArrayList matches = new ArrayList();
+	int[] crankStates = this.crankStates[o];
+	BitslicedBombe slices = slices(block,o,ring,g,last-first);
+	String suffix = stopSuffix(o,ring,g);
+	long[][] win = new long[numenigmas][130];
+	for(int r = first; r < last; r += 64){
+	    long stops = slices.stops(r,Math.min(64,last-r),positions,sourceIndices,linkIndices,win);
+	    while(stops != 0){
+		int j = Long.numberOfTrailingZeros(stops);
+		stops &= stops-1;
+		matches.add(rotorString(crankStates[r+j])+suffix);
+	    }
+	}
+	return matches;
+    }
+
+    /**
+     * The BitslicedBombe of a block, for a range of count of its positions.
+     * The first range of a block slices it and the last one drops it, so a
+     * block is sliced once however the ranges split it, and only the blocks
+     * being searched are held in memory.
+     */
+    private synchronized BitslicedBombe slices(int block, int o, int ring, int g, int count){
+	Integer key = Integer.valueOf(block);
+	BitslicedBombe out = (BitslicedBombe)sliced.get(key);
+	if (out == null){
+	    out = new BitslicedBombe(tables[o*numgreek()+g],ringStates(o,ring));
+	    sliced.put(key,out);
+	}
+	slicedLeft[block] -= count;
+	if (slicedLeft[block] <= 0) sliced.remove(key);
+	return out;
+    }
+
+    /**
+     * The cycle test of findMatches() at one rotor position: does every
+     * group have a letter which comes back to itself around all its cycles?
+     * states[i] is the orientation of the Enigma at positions[i].
+     */
+    private static boolean cyclesClose(ScramblerTable table, int[] states,
+				       int[] sourceIndices, int[][][] linkIndices){
+	boolean totalMatch = true;
+	for(int i=0; totalMatch && i<sourceIndices.length; i++){
+	    boolean sourceMatch = false;
+	    int source = states[sourceIndices[i]];
+	    for(int X=0; !sourceMatch && X<26; X++){
+		boolean letterMatch = true;
+		for(int j=0; letterMatch && j<linkIndices[i].length; j++){
+		    int Y = table.permute(source,X);
+		    for(int k=0; k<linkIndices[i][j].length; k++)
+			Y = table.permute(states[linkIndices[i][j][k]],Y);
+		    if ( X != Y) 
+			letterMatch = false;
 		}
-		totalMatch = sourceMatch; // if no source match, false now
+		sourceMatch = letterMatch;  // true now
 	    }
-	    if (totalMatch)
-		matches.add(rotorPositions);
+	    totalMatch = sourceMatch; // if no source match, false now
 	}
-	//	System.out.println("Got to end of search.  matches.length="+matches.size());
-	Object[] temp = matches.toArray();
-	//	System.out.println("Converted array.  out.length="+temp.length);
-	String[] out = new String[temp.length];
-	for(int i=0; i<out.length; i++) out[i] = (String)temp[i];
+	return totalMatch;
+    }
+
+    /**
+     * The multi-menu version of findMatches(o,ring,g,first,last).  The states of
+     * the Enigmas are looked up once per position for all the menus.  Each
+     * match is prefixed by the number of its menu and a tab.
+     */
+    private ArrayList findMenusMatches(int o, int ring, int g, int first, int last){
+	ArrayList matches = new ArrayList();
+	ScramblerTable table = tables[o*numgreek()+g];
+	int[] crankStates = this.crankStates[o];
+	int[] ringStates = ringStates(o,ring);
+	String suffix = stopSuffix(o,ring,g);
+	int[] states = new int[numenigmas];
+	int[][] boardStates = new int[menus.length][];
+	for(int m=0; m<menus.length; m++)
+	    if (menus[m].board != null) boardStates[m] = new int[menus[m].boardIndices.length];
+	int[] live = new int[26], pending = new int[26];
+	for(int rot = first; rot < last; rot++){
+	    for (int i=0; i<numenigmas; i++)
+		states[i] = ringStates[(rot+positions[i]) % NUMPOSITIONS];
+	    for(int m=0; m<menus.length; m++){
+		Menu menu = menus[m];
+		if (menu.board == null){
+		    if (cyclesClose(table,states,menu.sourceIndices,menu.linkIndices))
+			matches.add(m+"\t"+rotorString(crankStates[rot])+suffix);
+		    continue;
+		}
+		int[] bs = boardStates[m];
+		for(int i=0; i<bs.length; i++) bs[i] = states[menu.boardIndices[i]];
+		int survivors = menu.board.test(table,bs,live,pending);
+		while(survivors != 0){
+		    int h = Integer.numberOfTrailingZeros(survivors);
+		    survivors &= survivors-1;
+		    matches.add(m+"\t"+rotorString(crankStates[rot])+suffix+"  steckers: "
+				+steckerString(menu.board.steckers(table,bs,h)));
+		}
+	    }
+	}
+	return matches;
+    }
+
+    /**
+     * The diagonal board version of findMatches(o,ring,g,first,last).  Every stop
+     * is listed once per surviving hypothesis, as a CribStop with the
+     * steckers it implies.
+     */
+    private ArrayList findCribMatches(int o, int ring, int g, int first, int last){
+	ArrayList matches = new ArrayList();
+	ScramblerTable table = tables[o*numgreek()+g];
+	int[] crankStates = this.crankStates[o];
+	int[] ringStates = ringStates(o,ring);
+	int[] linkPos = board.getPositions();
+	int[] states = new int[linkPos.length];
+	int[] live = new int[26], pending = new int[26];
+	for(int rot = first; rot < last; rot++){
+	    for (int i=0; i<states.length; i++)
+		states[i] = ringStates[(rot+linkPos[i]) % NUMPOSITIONS];
+	    int survivors = board.test(table,states,live,pending);
+	    while(survivors != 0){
+		int h = Integer.numberOfTrailingZeros(survivors);
+		survivors &= survivors-1;
+		matches.add(new CribStop(o,ring,g,crankStates[rot],board.steckers(table,states,h)));
+	    }
+	}
+	return matches;
+    }
+
+    /**
+     * List stecker pairs such as "AT EQ MM" (MM: M is not plugged).
+     */
+    private static String steckerString(int[] steckers){
+	String out = "";
+	for(int L=0; L<26; L++)
+	    if (steckers[L] >= L)
+		out += (out.length()>0?" ":"")+(char)('A'+L)+(char)('A'+steckers[L]);
 	return out;
     }
 }
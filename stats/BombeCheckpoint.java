@@ -0,0 +1,154 @@
+package webcrypt.stats;
+
+/**
+ * A BombeCheckpoint records the progress of a Bombe search in a file, so
+ * that a search which was interrupted (a crash, a closed StatsGUI window)
+ * can carry on where it stopped instead of starting again from AAA.
+ *
+ * The search is split into a fixed number of ranges of rotor positions.
+ * Every time a range is finished, one record is appended to the file:
+ *
+ *    long   hash of the search (menu, wheel orders, number of ranges)
+ *    int    the range number
+ *    int    the number of stops found in the range
+ *    UTF    each stop, as listed by Bombe.searchChunk()
+ *
+ * and the file is flushed.  Appending keeps the cost of a checkpoint
+ * proportional to the range just finished.  A record cut short by a crash
+ * is dropped (and cut off the file) when the file is read back.
+ *
+ * Records of other searches are skipped, so one file can serve several
+ * menus, e.g. all the crib placements of one Bombe run.  Once a search has
+ * finished, running it again reads every range back from the file.
+ */
+import java.io.*;
+import java.util.ArrayList;
+
+public class BombeCheckpoint{
+
+    private final static int MAGIC = 0x424f4d42;  // "BOMB"
+
+    private File file;
+    private long hash;
+    private int numchunks;
+    private DataOutputStream out = null;
+    private int resumed = 0;
+
+    /**
+     * A checkpoint in file f of the search described by key (everything
+     * that determines the stops of each range) split into numchunks ranges.
+     */
+    public BombeCheckpoint(File f, String key, int numchunks){
+	file = f;
+	this.numchunks = numchunks;
+	hash = hash(key+"#"+numchunks);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a string.
+     */
+    static long hash(String s){
+	long h = 0xcbf29ce484222325L;
+	for(int i=0; i<s.length(); i++){
+	    h ^= s.charAt(i);
+	    h *= 0x100000001b3L;
+	}
+	return h;
+    }
+
+    /**
+     * The number of ranges found finished by load().
+     */
+    public int getResumed(){ return resumed; }
+
+    /**
+     * Read back the ranges already finished, as an array with one entry
+     * per range: the ArrayList of the range's stops, or null if the range
+     * still has to be searched.  Then open the file for appending.
+     */
+    public Object[] load() throws IOException{
+	Object[] done = new Object[numchunks];
+	resumed = 0;
+	long valid = 0;   // length of the file up to the last whole record
+	if (file.exists() && file.length() > 0){
+	    CountingInput counter = new CountingInput(new FileInputStream(file));
+	    DataInputStream in = new DataInputStream(counter);
+	    try{
+		if (in.readInt() != MAGIC)
+		    throw new IOException(file+" is not a Bombe checkpoint file.");
+		valid = 4;
+		while(true){
+		    long h = in.readLong();
+		    int chunk = in.readInt();
+		    int numstops = in.readInt();
+		    ArrayList stops = new ArrayList();
+		    for(int i=0; i<numstops; i++) stops.add(in.readUTF());
+		    valid = counter.count;
+		    if (h == hash && chunk >= 0 && chunk < numchunks && done[chunk] == null){
+			done[chunk] = stops;
+			resumed++;
+		    }
+		}
+	    }catch(EOFException e){
+		// end of the file, or a record cut short
+	    }finally{
+		in.close();
+	    }
+	}
+	if (valid == 0){
+	    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	    out.writeInt(MAGIC);
+	    out.flush();
+	}
+	else{
+	    RandomAccessFile raf = new RandomAccessFile(file,"rw");
+	    try{
+		raf.setLength(valid);
+	    }finally{
+		raf.close();
+	    }
+	    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file,true)));
+	}
+	return done;
+    }
+
+    /**
+     * Append the stops of a finished range.  Called from the search threads.
+     */
+    public synchronized void save(int chunk, ArrayList stops) throws IOException{
+	out.writeLong(hash);
+	out.writeInt(chunk);
+	out.writeInt(stops.size());
+	for(int i=0; i<stops.size(); i++) out.writeUTF(stops.get(i).toString());
+	out.flush();
+    }
+
+    public synchronized void close() throws IOException{
+	if (out != null) out.close();
+	out = null;
+    }
+
+    /**
+     * An input stream which counts the bytes read, to know where the last
+     * whole record ends.
+     */
+    private static class CountingInput extends BufferedInputStream{
+	long count = 0;
+	CountingInput(InputStream in){ super(in); }
+	public synchronized int read() throws IOException{
+	    int b = super.read();
+	    if (b != -1) count++;
+	    return b;
+	}
+	public synchronized int read(byte[] b, int off, int len) throws IOException{
+	    int n = super.read(b,off,len);
+	    if (n > 0) count += n;
+	    return n;
+	}
+	public synchronized long skip(long n) throws IOException{
+	    long k = super.skip(n);
+	    count += k;
+	    return k;
+	}
+    }
+}
@@ -0,0 +1,307 @@
+package webcrypt.stats;
+
+/**
+ * The BombeCoordinator class runs a Bombe search in several worker JVMs
+ * (see BombeWorker) on the same host, for searches too long for the threads
+ * of one process, or to keep a crash of one search process from losing it all.
+ *
+ * The search space (every rotor position of every wheel order, in that
+ * order) is split into ranges as for the threads of the Bombe.  The
+ * coordinator listens on a loopback port, starts the workers with the same
+ * class path, and leases the ranges out one at a time:
+ *
+ *    worker                         coordinator
+ *    HELLO version token      ->
+ *                             <-    JOB token spec size numranges
+ *    REQUEST                  ->
+ *                             <-    LEASE range | WAIT | DONE
+ *    RESULT range n stop*     ->
+ *
+ * where every message is an int code followed by its fields, written with
+ * DataOutputStream (strings as UTF).  A worker searches a leased range and
+ * sends back its stops before asking for the next one.
+ *
+ * Anything on the host may connect to the port, so each search draws a
+ * random token, which the workers are given on their standard input; a
+ * connection that doesn't say HELLO with it is dropped, and JOB repeats it
+ * so that a worker knows it reached its own coordinator.  A RESULT for any
+ * range but the one leased on that connection drops the connection too,
+ * so that nothing can mark ranges searched that it wasn't given.
+ *
+ * A lease which isn't answered within the lease time is put back in the
+ * queue, as are the leases of a worker whose connection drops, so the
+ * search survives a worker that hangs or dies.  A range may then be
+ * searched twice; the first result wins, and since every worker runs the
+ * same search the results are the same anyway.  Ranges that no worker could
+ * finish are left null for the caller to search itself.
+ */
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+public class BombeCoordinator{
+
+    // message codes
+    final static int HELLO = 1, JOB = 2, REQUEST = 3, LEASE = 4, WAIT = 5, RESULT = 6, DONE = 7;
+    final static int VERSION = 2;
+
+    private String spec;
+    private int size, numranges;
+    private long leaseMillis;
+    private long token;                           // shared with our workers only
+
+    private Object[] results;                     // the stops of each range, null until known
+    private int remaining;                        // ranges still without results
+    private long[] deadline;                      // when the lease of each range runs out, 0 if not leased
+    private LinkedList queue = new LinkedList();  // ranges waiting to be leased
+    private ParallelRange reporter;               // told about every finished range
+    private int handlers = 0;                     // connections being served
+    private int numconnected = 0, numsearched = 0, numreleased = 0;
+    private RuntimeException failure = null;      // the first thrown by reporter.chunkDone()
+
+    /**
+     * A coordinator for the search described by spec (see
+     * Bombe.searchSpec()) over [0,size) split into numranges ranges.
+     */
+    public BombeCoordinator(String spec, int size, int numranges, long leaseMillis){
+	this.spec = spec;
+	this.size = size;
+	this.numranges = numranges;
+	this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Search the ranges with done[i] == null (all of them if done is null)
+     * in numworkers worker JVMs.  reporter.chunkDone() is called for every
+     * range a worker finishes, e.g. to checkpoint it; if it throws, the
+     * workers are stopped and the exception is thrown from here, as from
+     * ParallelRange.run().  Returns the results of all ranges, with null
+     * for the ranges the workers didn't finish.
+     */
+    public Object[] run(int numworkers, ParallelRange reporter, Object[] done) throws IOException{
+	this.reporter = reporter;
+	results = new Object[numranges];
+	deadline = new long[numranges];
+	if (done != null) System.arraycopy(done,0,results,0,numranges);
+	for(int i=0; i<numranges; i++)
+	    if (results[i] == null) queue.add(Integer.valueOf(i));
+	remaining = queue.size();
+	if (remaining == 0) return results;
+
+	token = new java.security.SecureRandom().nextLong();
+	ServerSocket server = new ServerSocket(0,numworkers,InetAddress.getByName("127.0.0.1"));
+	Process[] workers = new Process[numworkers];
+	try{
+	    for(int i=0; i<numworkers; i++)
+		workers[i] = startWorker(server.getLocalPort(),i);
+	    server.setSoTimeout(500);
+	    while(!finished(workers)){
+		try{
+		    startHandler(server.accept());
+		}catch(SocketTimeoutException e){
+		    // look again whether we are done
+		}
+	    }
+	}finally{
+	    server.close();
+	    for(int i=0; i<numworkers; i++)
+		if (workers[i] != null) workers[i].destroy();
+	}
+	synchronized(this){
+	    if (failure != null) throw failure;
+	    return results.clone();
+	}
+    }
+
+    /**
+     * Are all ranges searched, or are there no workers left to search them?
+     */
+    private synchronized boolean finished(Process[] workers){
+	if (remaining == 0 || failure != null) return true;
+	if (handlers > 0) return false;
+	for(int i=0; i<workers.length; i++){
+	    try{
+		workers[i].exitValue();
+	    }catch(IllegalThreadStateException e){
+		return false;  // still running, it may yet connect
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Start worker JVM number n, with this JVM's class path, connecting
+     * back to port.  The token goes to its standard input, where other
+     * processes can't see it as they could its command line.  Its output
+     * is copied to ours.
+     */
+    private Process startWorker(int port, int n) throws IOException{
+	String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+	ProcessBuilder builder = new ProcessBuilder(new String[]{
+		java, "-cp", System.getProperty("java.class.path"),
+		"webcrypt.stats.BombeWorker", "127.0.0.1", ""+port });
+	builder.redirectErrorStream(true);
+	final Process process = builder.start();
+	Writer input = new OutputStreamWriter(process.getOutputStream());
+	input.write(token+"\n");
+	input.close();
+	final BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+	Thread drain = new Thread("BombeWorker-"+n+"-output"){
+		public void run(){
+		    try{
+			for(String line = output.readLine(); line != null; line = output.readLine())
+			    System.out.println(getName()+": "+line);
+		    }catch(IOException e){
+			// the worker is gone
+		    }
+		}
+	    };
+	drain.setDaemon(true);
+	drain.start();
+	return process;
+    }
+
+    private synchronized void startHandler(final Socket socket){
+	handlers++;
+	numconnected++;
+	Thread handler = new Thread("BombeCoordinator-"+numconnected){
+		public void run(){
+		    try{
+			serve(socket);
+		    }finally{
+			handlerDone();
+		    }
+		}
+	    };
+	handler.setDaemon(true);
+	handler.start();
+    }
+
+    private synchronized void handlerDone(){
+	handlers--;
+    }
+
+    /**
+     * Talk to one worker until it is told DONE or its connection drops.
+     */
+    private void serve(Socket socket){
+	int lease = -1;
+	try{
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	    if (in.readInt() != HELLO || in.readInt() != VERSION || in.readLong() != token) return;
+	    out.writeInt(JOB);
+	    out.writeLong(token);
+	    out.writeUTF(spec);
+	    out.writeInt(size);
+	    out.writeInt(numranges);
+	    out.flush();
+	    while(true){
+		// a worker silent for a whole lease has hung: drop it.  Before its
+		// first lease it may take its time building its tables.
+		socket.setSoTimeout(lease == -1 ? 0 : (int)Math.min(leaseMillis,Integer.MAX_VALUE));
+		int msg = in.readInt();
+		if (msg == RESULT){
+		    int range = in.readInt();
+		    int numstops = in.readInt();
+		    ArrayList stops = new ArrayList();
+		    for(int i=0; i<numstops; i++) stops.add(in.readUTF());
+		    if (range != lease) return;  // not what this connection was given
+		    lease = -1;
+		    if (!finish(range,stops)) return;
+		}
+		else if (msg == REQUEST){
+		    int next = nextLease();
+		    if (next == -1){
+			out.writeInt(DONE);
+			out.flush();
+			return;
+		    }
+		    if (next == -2)
+			out.writeInt(WAIT);
+		    else{
+			lease = next;
+			out.writeInt(LEASE);
+			out.writeInt(next);
+		    }
+		    out.flush();
+		}
+		else
+		    return;
+	    }
+	}catch(IOException e){
+	    // the worker died, hung up or hung; its lease goes back in the queue
+	}finally{
+	    if (lease != -1) release(lease);
+	    try{
+		socket.close();
+	    }catch(IOException e){
+		// nothing more to say to it
+	    }
+	}
+    }
+
+    /**
+     * The next range to lease, -1 if every range is searched, or -2 if the
+     * remaining ranges are all leased and their leases still running.
+     * Ranges whose leases ran out are put back in the queue first.
+     */
+    private synchronized int nextLease(){
+	if (failure != null) return -1;
+	long now = System.currentTimeMillis();
+	for(int i=0; i<numranges; i++)
+	    if (deadline[i] != 0 && deadline[i] < now && results[i] == null){
+		deadline[i] = 0;
+		queue.add(Integer.valueOf(i));
+		numreleased++;
+	    }
+	while(!queue.isEmpty()){
+	    int range = ((Integer)queue.removeFirst()).intValue();
+	    if (results[range] != null) continue;
+	    deadline[range] = now+leaseMillis;
+	    return range;
+	}
+	return (remaining == 0) ? -1 : -2;
+    }
+
+    /**
+     * Record the stops of a range, unless another worker got there first.
+     * Returns false if reporting the range failed, and the search with it.
+     */
+    private boolean finish(int range, ArrayList stops){
+	synchronized(this){
+	    if (range < 0 || range >= numranges || results[range] != null) return true;
+	    results[range] = stops;
+	    deadline[range] = 0;
+	    remaining--;
+	    numsearched++;
+	}
+	try{
+	    reporter.chunkDone(range,stops);
+	}catch(RuntimeException e){
+	    fail(e);
+	    return false;
+	}
+	return true;
+    }
+
+    private synchronized void fail(RuntimeException e){
+	if (failure == null) failure = e;
+    }
+
+    /**
+     * Put back the lease of a worker that went away.
+     */
+    private synchronized void release(int range){
+	if (results[range] != null || deadline[range] == 0) return;
+	deadline[range] = 0;
+	queue.addFirst(Integer.valueOf(range));
+	numreleased++;
+    }
+
+    public synchronized String toString(){
+	return "Workers: "+numsearched+" of "+numranges+" ranges searched by "+numconnected
+	    +" worker processes, "+numreleased+" leases given up and leased again.";
+    }
+}
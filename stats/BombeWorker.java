@@ -0,0 +1,78 @@
+package webcrypt.stats;
+
+/**
+ * A BombeWorker is a JVM started by a BombeCoordinator to search ranges of
+ * rotor positions.  It connects back to the coordinator, is sent the search
+ * (see Bombe.searchSpec()), builds its own scrambler tables, and then
+ * searches the ranges leased to it one at a time until it is told that
+ * the search is done.  See BombeCoordinator for the protocol.
+ *
+ * Usage: java webcrypt.stats.BombeWorker host port
+ * with the coordinator's token on the first line of standard input.
+ */
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+
+public class BombeWorker{
+
+    /**
+     * How long to wait before asking again when every range is leased.
+     */
+    private final static int WAITMILLIS = 200;
+
+    public static void main(String[] args) throws IOException{
+	if (args.length != 2){
+	    System.out.println("Usage: java webcrypt.stats.BombeWorker host port");
+	    return;
+	}
+	long token;
+	try{
+	    token = Long.parseLong(new BufferedReader(new InputStreamReader(System.in)).readLine().trim());
+	}catch(RuntimeException e){
+	    System.out.println("No token from the coordinator on standard input.");
+	    return;
+	}
+	Socket socket = new Socket(args[0],Integer.parseInt(args[1]));
+	try{
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	    out.writeInt(BombeCoordinator.HELLO);
+	    out.writeInt(BombeCoordinator.VERSION);
+	    out.writeLong(token);
+	    out.flush();
+	    if (in.readInt() != BombeCoordinator.JOB || in.readLong() != token) return;
+	    String spec = in.readUTF();
+	    int size = in.readInt(), numranges = in.readInt();
+	    Bombe bombe = new Bombe();
+	    bombe.prepareWorker(spec);
+
+	    while(true){
+		out.writeInt(BombeCoordinator.REQUEST);
+		out.flush();
+		int msg = in.readInt();
+		if (msg == BombeCoordinator.DONE) return;
+		if (msg == BombeCoordinator.WAIT){
+		    try{
+			Thread.sleep(WAITMILLIS);
+		    }catch(InterruptedException e){
+			// just ask sooner
+		    }
+		    continue;
+		}
+		if (msg != BombeCoordinator.LEASE) return;
+		int range = in.readInt();
+		ArrayList stops = bombe.searchChunk(ParallelRange.bound(size,numranges,range),
+						    ParallelRange.bound(size,numranges,range+1));
+		out.writeInt(BombeCoordinator.RESULT);
+		out.writeInt(range);
+		out.writeInt(stops.size());
+		for(int i=0; i<stops.size(); i++) out.writeUTF(stops.get(i).toString());
+	    }
+	}catch(EOFException e){
+	    System.out.println("The coordinator hung up.");
+	}finally{
+	    socket.close();
+	}
+    }
+}
@@ -0,0 +1,281 @@
+package webcrypt.stats;
+
+/**
+ * The CharacteristicAnalysis class finds the rotor positions of a day's
+ * key from the day's doubled message indicators, as Rejewski did with his
+ * card catalog.
+ *
+ * Each indicator is a message key of three letters enciphered twice at the
+ * day's key, six letters in all.  The first and fourth letters of each
+ * indicator give one letter of the permutation AD, the second and fifth of
+ * BE and the third and sixth of CF; a day's traffic usually holds enough
+ * indicators to spell out all three.  Their cycle types don't depend on
+ * the plugboard, and the CharacteristicCatalog lists the rotor positions
+ * (wheel order and rotor offsets, i.e. ground setting less rings) at which
+ * the Enigma has each combination.  Rotor a doesn't change them, so the
+ * positions are listed with its offset as '?'.
+ *
+ * The text holds the indicators, six letters each, separated by
+ * whitespace, and the argument consists of options separated by
+ * semicolons:
+ *
+ *    catalog=file  map the catalog from file, building and writing it
+ *                  first (for all wheel orders) if the file doesn't exist
+ *                  (default: build the catalog in memory, of the wheel
+ *                  orders listed only)
+ *    orders=123,514  list only these wheel orders (default: all)
+ *    max=n         list at most n positions (default 100)
+ *    threads=n     build the catalog on n threads (default: one per processor)
+ *
+ * main() enciphers the indicators of a simulated day, finds its rotor
+ * positions and times the lookup.
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import webcrypt.math.Permutation;
+import webcrypt.math.ScramblerTable;
+import java.io.File;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+public class CharacteristicAnalysis extends Analyzor{
+
+    public String toString(){
+	return "CharacteristicAnalysis([options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The text holds the day's doubled indicators, six letters each, separated by\n"
+	+"whitespace, and the argument consists of options separated by semicolons, e.g.\n"
+	+"                catalog=/tmp/characteristics.cat;orders=123,514;max=20\n"
+	+"or is left empty.";
+
+    private File catalogFile;
+    private int[][] orders;      // the wheel orders to list, or null for all
+    private int max, numthreads;
+
+    /**
+     * The catalog built in memory by the last run without a file, and its
+     * wheel orders (null for all), kept since the GUI reuses the same
+     * object.
+     */
+    private CharacteristicCatalog built = null;
+    private int[][] builtOrders = null;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	int[][] products = readIndicators(text);
+
+	int[] parts = new int[3];
+	StringBuffer out = new StringBuffer();
+	String[] names = new String[]{ "AD", "BE", "CF" };
+	for(int j=0; j<3; j++){
+	    parts[j] = CharacteristicCatalog.partitionIndex(Permutation.cycleType(products[j]));
+	    out.append(names[j]+" = "+cycleString(products[j])+"\n");
+	    if (parts[j] == -1)
+		throw new IllegalArgumentException(out+"\nThe cycles of "+names[j]+" don't pair up,"
+						   +" so the indicators aren't from one Enigma key!!!");
+	}
+	out.append("Characteristic: "+CharacteristicCatalog.partition(parts[0])+" / "
+		   +CharacteristicCatalog.partition(parts[1])+" / "+CharacteristicCatalog.partition(parts[2])
+		   +" (lengths of the cycle pairs)\n");
+
+	CharacteristicCatalog catalog;
+	long t0 = System.currentTimeMillis();
+	try{
+	    catalog = catalog();
+	}catch(IOException e){
+	    throw new IllegalArgumentException("Couldn't read or write the catalog "+catalogFile+": "+e.getMessage());
+	}
+	long t1 = System.currentTimeMillis();
+	int[][] found = catalog.lookup(CharacteristicCatalog.characteristic(parts[0],parts[1],parts[2]));
+	long t2 = System.currentTimeMillis();
+
+	StringBuffer list = new StringBuffer();
+	int numfound = 0;
+	for(int i=0; i<found.length; i++){
+	    int[] order = catalog.getWheelOrder(found[i][0]);
+	    if (!wanted(order)) continue;
+	    if (numfound++ < max){
+		int bc = found[i][1];
+		list.append("\nrotors "+(order[0]+1)+(order[1]+1)+(order[2]+1)+"  offsets ?"
+			    +(char)('A'+bc/26)+(char)('A'+bc%26));
+	    }
+	}
+	out.append("Catalog of "+catalog.size()+" positions of rotors b and c ready in "+(t1-t0)
+		   +" ms, looked up in "+(t2-t1)+" ms.\n");
+	out.append("Rotor positions with this characteristic: "+numfound
+		   +(numfound > max ? ", the first "+max+" shown" : "")
+		   +" (offsets are the ground setting less the rings, the middle rotor not turning"
+		   +" within the indicator; any offset of the first rotor gives the same characteristic)\n");
+	out.append(list);
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    private CharacteristicCatalog catalog() throws IOException{
+	if (catalogFile != null)
+	    return CharacteristicCatalog.forFile(catalogFile,numthreads);
+	if (built == null || !java.util.Arrays.deepEquals(builtOrders,orders)){
+	    built = CharacteristicCatalog.build(orders == null ? ScramblerTable.allWheelOrders() : orders,numthreads);
+	    builtOrders = orders;
+	}
+	return built;
+    }
+
+    private boolean wanted(int[] order){
+	if (orders == null) return true;
+	for(int i=0; i<orders.length; i++)
+	    if (java.util.Arrays.equals(orders[i],order)) return true;
+	return false;
+    }
+
+    /**
+     * AD, BE and CF as spelled out by the indicators in the text.
+     */
+    private int[][] readIndicators(StringBuffer text) throws IllegalArgumentException{
+	int[][] products = new int[3][26];
+	for(int j=0; j<3; j++) java.util.Arrays.fill(products[j],-1);
+	StringTokenizer tokens = new StringTokenizer(text.toString());
+	int numindicators = 0;
+	while(tokens.hasMoreTokens()){
+	    String token = tokens.nextToken();
+	    char[] ind = TextManip.letters(new StringBuffer(token));
+	    if (ind.length != 6 || ind.length != token.length())
+		throw new IllegalArgumentException(errstr+"\nThe indicator "+token+" isn't six letters!!!");
+	    numindicators++;
+	    for(int j=0; j<3; j++){
+		int x = ind[j]-'A', y = ind[j+3]-'A';
+		if (products[j][x] != -1 && products[j][x] != y)
+		    throw new IllegalArgumentException("The indicator "+token+" contradicts an earlier one:"
+						       +" letter "+(j+1)+" "+ind[j]+" went to "
+						       +(char)('A'+products[j][x])+" before!!!");
+		products[j][x] = y;
+	    }
+	}
+	if (numindicators == 0)
+	    throw new IllegalArgumentException(errstr+"\nNo indicators given!!!");
+	String[] names = new String[]{ "AD", "BE", "CF" };
+	for(int j=0; j<3; j++){
+	    int known = 0;
+	    for(int x=0; x<26; x++) if (products[j][x] != -1) known++;
+	    if (known < 26)
+		throw new IllegalArgumentException("The "+numindicators+" indicators give "+names[j]+" for only "
+						   +known+" of 26 letters; more indicators are needed!!!");
+	}
+	for(int j=0; j<3; j++){
+	    boolean[] hit = new boolean[26];
+	    for(int x=0; x<26; x++){
+		if (hit[products[j][x]])
+		    throw new IllegalArgumentException("Two letters go to "+(char)('A'+products[j][x])+" in "
+						       +names[j]+", so the indicators aren't from one Enigma key!!!");
+		hit[products[j][x]] = true;
+	    }
+	}
+	return products;
+    }
+
+    private static String cycleString(int[] p){
+	int[][] c = Permutation.cycles(p);
+	StringBuffer out = new StringBuffer();
+	for(int i=0; i<c.length; i++){
+	    out.append('(');
+	    for(int j=0; j<c[i].length; j++) out.append((char)('A'+c[i][j]));
+	    out.append(')');
+	}
+	return out.toString();
+    }
+
+    /**
+     * Read the catalog, wheel orders and limits from arg; whatever isn't
+     * given goes back to its default.
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	catalogFile = null;
+	orders = null;
+	max = 100;
+	numthreads = ParallelRange.defaultThreads();
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("catalog")){
+		if (value.length() == 0)
+		    throw new IllegalArgumentException(errstr+"\ncatalog needs a file name!!!");
+		catalogFile = new File(value);
+	    }
+	    else if (name.equals("orders")){
+		try{
+		    orders = ScramblerTable.parseWheelOrders(value);
+		}catch(IllegalArgumentException e){
+		    throw new IllegalArgumentException(errstr+"\n"+e.getMessage()+"!!!");
+		}
+	    }
+	    else if (name.equals("max"))
+		max = positive(errstr,name,value);
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+    }
+
+    /**
+     * Simulate a day: a random daily key, with rings and plugs, enciphers
+     * the doubled keys of 150 messages.  Find the day's rotor positions
+     * with a catalog of one wheel order and of all of them, the latter
+     * written to a file and mapped back.
+     */
+    public static void main(String[] args) throws KeyCreationException, IOException{
+	java.util.Random rnd = new java.util.Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+	int[][] all = ScramblerTable.allWheelOrders();
+	int[] order = all[rnd.nextInt(all.length)];
+	char[] ground = new char[3], rings = new char[3];
+	for(int i=0; i<3; i++){
+	    ground[i] = (char)('A'+rnd.nextInt(26));
+	    rings[i] = (char)('A'+rnd.nextInt(26));
+	}
+	// keep the middle rotor from turning within the indicators
+	int notch = EnigmaDefinitions.NOTCHES[order[0]]-'A';
+	int ahead = (notch - (ground[0]-'A') + 26) % 26;
+	if (ahead >= 1 && ahead <= 6)
+	    ground[0] = (char)('A'+(ground[0]-'A'+7) % 26);
+	String daily = new String(ground)+"-"+new String(rings)+"_AT_EQ_BL_CZ_DX_FN";
+	EnigmaKey k = new EnigmaKey(daily);
+	Enigma enigma = new Enigma(order);
+
+	StringBuffer indicators = new StringBuffer();
+	for(int m=0; m<150; m++){
+	    char[] ind = new char[6];
+	    for(int i=0; i<3; i++) ind[i] = ind[i+3] = (char)('A'+rnd.nextInt(26));
+	    enigma.setup(k);
+	    enigma.encryptChars(ind,0,6);
+	    indicators.append(new String(ind)+(m % 10 == 9 ? "\n" : " "));
+	}
+	String offsets = "";
+	for(int i=0; i<3; i++) offsets += (char)('A'+(ground[i]-rings[i]+26) % 26);
+	String rotors = ""+(order[0]+1)+(order[1]+1)+(order[2]+1);
+	System.out.println("Daily key "+daily+" with rotors "+rotors+": offsets "+offsets+"\n"+indicators);
+
+	CharacteristicAnalysis analysis = new CharacteristicAnalysis();
+	StringBuffer text = new StringBuffer(indicators.toString());
+	analysis.analyzeOn(text,"orders="+rotors+";max=30");
+	System.out.println(text+"\n");
+
+	File f = File.createTempFile("characteristics",".cat");
+	f.delete();
+	f.deleteOnExit();
+	String[] runs = new String[]{ "building and writing the catalog", "mapping the catalog back" };
+	for(int r=0; r<2; r++){
+	    text = new StringBuffer(indicators.toString());
+	    analysis.analyzeOn(text,"catalog="+f+";max=100000");
+	    String result = text.toString();
+	    int lines = 0;
+	    for(int i=result.indexOf("\nrotors"); i != -1; i=result.indexOf("\nrotors",i+1)) lines++;
+	    System.out.println(runs[r]+": "+result.substring(result.indexOf("Catalog"),result.indexOf("\n",result.indexOf("Catalog")))
+			       +"\n"+lines+" positions, the true one "
+			       +(result.indexOf("rotors "+rotors+"  offsets ?"+offsets.substring(1)) != -1
+				 ? "among them." : "MISSING!"));
+	}
+    }
+}
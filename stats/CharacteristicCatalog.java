@@ -0,0 +1,261 @@
+package webcrypt.stats;
+
+/**
+ * The CharacteristicCatalog class is Rejewski's card catalog: for every
+ * rotor position of every wheel order, the cycle types of the products AD,
+ * BE and CF of the Enigma permutations A-F at the first six letters of a
+ * message.  In this package's Enigma they don't depend on rotor a (see
+ * below), so the catalog holds one entry per position of rotors b and c.
+ *
+ * Every message of a day began with its message key enciphered twice at
+ * the day's key, so the first and fourth letters of the indicator are
+ * enciphered from the same letter x: with A and D the Enigma at letters 1
+ * and 4, the fourth letter is D(A(first letter)).  Enough indicators spell
+ * out the permutation AD (and so BE and CF).  The plugboard S only
+ * conjugates it, AD = S D' A' S with A', D' the unplugged scrambler, and
+ * conjugation keeps the cycle type, so the cycle types of AD, BE and CF
+ * depend on the rotor position alone and can be looked up in a catalog
+ * made without any plugboard.
+ *
+ * A and D are fixed-point-free involutions, so the cycles of AD come in
+ * pairs of equal length and their lengths, one per pair, are a partition
+ * of 13; there are 101 of them.  The three partitions of a position are
+ * its characteristic, numbered (ad*101 + be)*101 + cf.
+ *
+ * Positions are the ScramblerTable orientations (the rotor offsets,
+ * orientation less ring) before the first letter, and as in Rejewski's
+ * catalog the middle rotor is taken not to turn during the six letters;
+ * since the ring settings aren't known, neither is where it turns.  A day
+ * whose indicators cross a turnover isn't found.
+ *
+ * In this package's Enigma a rotor's orientation shifts only the letters
+ * going into its wiring (see EnigmaPerm), so turning rotor a conjugates
+ * the whole scrambler by a shift.  AD, BE and CF are then conjugate to one
+ * another and the characteristic doesn't depend on rotor a.  The catalog
+ * is therefore made with rotor a at offset A and gives the offsets of b
+ * and c only; the offset of rotor a has to be found otherwise (e.g. with
+ * PlugAnalysis).
+ *
+ * Each entry is a long, the characteristic in the high bits and the wheel
+ * order and the offsets of b and c (b*26 + c) in the low 24, and the
+ * entries are sorted, so the positions of a characteristic are found by
+ * binary search.  The catalog of all 60 wheel orders holds 40560 entries;
+ * it can be written to a file once and memory-mapped read-only afterwards,
+ * so a lookup doesn't have to build any ScramblerTable.
+ */
+import webcrypt.math.Permutation;
+import webcrypt.math.ScramblerTable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class CharacteristicCatalog{
+
+    private final static int MAGIC = 0x43484232;  // "CHB2": entries per offset of rotors b and c
+
+    /**
+     * The partitions of 13, largest parts first, in lexicographic order
+     * from 13 down to 1+1+...+1.
+     */
+    private final static int[][] PARTITIONS;
+    private final static HashMap PARTITIONINDEX = new HashMap();
+    public final static int NUMPARTITIONS;
+
+    static{
+	ArrayList all = new ArrayList();
+	partitions(13,13,new int[13],0,all);
+	PARTITIONS = new int[all.size()][];
+	for(int i=0; i<PARTITIONS.length; i++){
+	    PARTITIONS[i] = (int[])all.get(i);
+	    PARTITIONINDEX.put(partitionString(PARTITIONS[i]),Integer.valueOf(i));
+	}
+	NUMPARTITIONS = PARTITIONS.length;
+    }
+
+    private static void partitions(int left, int largest, int[] parts, int n, ArrayList out){
+	if (left == 0){
+	    int[] p = new int[n];
+	    System.arraycopy(parts,0,p,0,n);
+	    out.add(p);
+	    return;
+	}
+	for(int k=Math.min(left,largest); k>=1; k--){
+	    parts[n] = k;
+	    partitions(left-k,k,parts,n+1,out);
+	}
+    }
+
+    private static String partitionString(int[] parts){
+	StringBuffer out = new StringBuffer();
+	for(int i=0; i<parts.length; i++) out.append((i>0 ? " " : "")+parts[i]);
+	return out.toString();
+    }
+
+    /**
+     * The number of the partition made by the cycle type (longest first)
+     * of a product of two fixed-point-free involutions of 26 letters, or -1
+     * if its cycles don't pair up.
+     */
+    public static int partitionIndex(int[] cycleType){
+	if (cycleType.length % 2 != 0) return -1;
+	int[] half = new int[cycleType.length/2];
+	for(int i=0; i<half.length; i++){
+	    if (cycleType[2*i] != cycleType[2*i+1]) return -1;
+	    half[i] = cycleType[2*i];
+	}
+	Integer index = (Integer)PARTITIONINDEX.get(partitionString(half));
+	return (index == null) ? -1 : index.intValue();
+    }
+
+    /**
+     * The lengths of the cycle pairs of partition number i, e.g. "5 5 2 1".
+     */
+    public static String partition(int i){
+	return partitionString(PARTITIONS[i]);
+    }
+
+    public static int characteristic(int ad, int be, int cf){
+	return (ad*NUMPARTITIONS + be)*NUMPARTITIONS + cf;
+    }
+
+    /**
+     * The characteristic of orientation state of a table: AD, BE and CF
+     * of the scrambler at the six letters after it, a turning once per
+     * letter and b and c standing still.
+     */
+    public static int characteristic(ScramblerTable table, int state){
+	int a = state/676, bc = state%676;
+	int[][] perms = new int[6][26];
+	for(int j=0; j<6; j++){
+	    int s = ((a+j+1) % 26)*676 + bc;
+	    for(int x=0; x<26; x++) perms[j][x] = table.permute(s,x);
+	}
+	int[] parts = new int[3];
+	for(int j=0; j<3; j++)
+	    parts[j] = partitionIndex(Permutation.cycleType(Permutation.product(perms[j],perms[j+3])));
+	return characteristic(parts[0],parts[1],parts[2]);
+    }
+
+    private int[][] wheelOrders;
+    private LongBuffer entries;
+
+    public int getNumOrders(){ return wheelOrders.length; }
+    public int[] getWheelOrder(int i){ return wheelOrders[i].clone(); }
+    public int size(){ return entries.limit(); }
+
+    private CharacteristicCatalog(int[][] wheelOrders, LongBuffer entries){
+	this.wheelOrders = wheelOrders;
+	this.entries = entries;
+    }
+
+    /**
+     * Build the catalog of the given wheel orders, one wheel order per
+     * chunk of a ParallelRange.
+     */
+    public static CharacteristicCatalog build(final int[][] wheelOrders, int numthreads){
+	final int N = 26*26;
+	final long[] all = new long[wheelOrders.length*N];
+	ParallelRange builder = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    for(int o=from; o<to; o++){
+			ScramblerTable table = new ScramblerTable(wheelOrders[o]);
+			// rotor a at offset A: the state is just b*26 + c
+			for(int bc=0; bc<N; bc++)
+			    all[o*N+bc] = ((long)characteristic(table,bc) << 24) | (o << 16) | bc;
+		    }
+		    return null;
+		}
+	    };
+	builder.run(wheelOrders.length,wheelOrders.length,numthreads);
+	java.util.Arrays.sort(all);
+	return new CharacteristicCatalog(wheelOrders,LongBuffer.wrap(all));
+    }
+
+    /**
+     * The catalog of every wheel order, mapped from file f, which is built
+     * and written first if it doesn't exist.
+     */
+    public static CharacteristicCatalog forFile(File f, int numthreads) throws IOException{
+	if (!f.exists())
+	    build(ScramblerTable.allWheelOrders(),numthreads).write(f);
+	return map(f);
+    }
+
+    /**
+     * Save the catalog: the magic number, the number of wheel orders and
+     * their rotors, the number of entries and the entries.
+     */
+    public void write(File f) throws IOException{
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+	try{
+	    out.writeInt(MAGIC);
+	    out.writeInt(wheelOrders.length);
+	    for(int o=0; o<wheelOrders.length; o++)
+		for(int i=0; i<wheelOrders[o].length; i++) out.writeByte(wheelOrders[o][i]);
+	    out.writeInt(entries.limit());
+	    for(int i=0; i<entries.limit(); i++) out.writeLong(entries.get(i));
+	}finally{
+	    out.close();
+	}
+    }
+
+    /**
+     * Memory-map a catalog file written by write().
+     */
+    public static CharacteristicCatalog map(File f) throws IOException{
+	RandomAccessFile raf = new RandomAccessFile(f,"r");
+	try{
+	    if (raf.length() < 8 || raf.readInt() != MAGIC)
+		throw new IOException(f+" is not a characteristic catalog file.");
+	    int[][] orders = new int[raf.readInt()][];
+	    for(int o=0; o<orders.length; o++){
+		orders[o] = new int[ScramblerTable.NUMROTORS];
+		for(int i=0; i<orders[o].length; i++) orders[o][i] = raf.readByte();
+		try{
+		    ScramblerTable.checkWheelOrder(orders[o]);
+		}catch(IllegalArgumentException e){
+		    throw new IOException(f+": "+e.getMessage());
+		}
+	    }
+	    int numentries = raf.readInt();
+	    long start = raf.getFilePointer();
+	    if (raf.length() != start + 8L*numentries)
+		throw new IOException(f+" is not a characteristic catalog file.");
+	    FileChannel channel = raf.getChannel();
+	    ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,start,8L*numentries);
+	    return new CharacteristicCatalog(orders,buf.asLongBuffer());
+	}finally{
+	    raf.close();
+	}
+    }
+
+    /**
+     * The positions with a characteristic, as {wheel order number, b*26 + c}
+     * pairs in order, rotor a being at any offset.
+     */
+    public int[][] lookup(int characteristic){
+	long low = (long)characteristic << 24, high = (long)(characteristic+1) << 24;
+	int first = lowerBound(low), last = lowerBound(high);
+	int[][] out = new int[last-first][];
+	for(int i=first; i<last; i++){
+	    long e = entries.get(i);
+	    out[i-first] = new int[]{ (int)((e >>> 16) & 0xff), (int)(e & 0xffff) };
+	}
+	return out;
+    }
+
+    /**
+     * The first entry >= x.
+     */
+    private int lowerBound(long x){
+	int lo = 0, hi = entries.limit();
+	while(lo < hi){
+	    int mid = (lo+hi) >>> 1;
+	    if (entries.get(mid) < x) lo = mid+1; else hi = mid;
+	}
+	return lo;
+    }
+}
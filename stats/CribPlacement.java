@@ -0,0 +1,278 @@
+package webcrypt.stats;
+
+/**
+ * The CribPlacement class finds where a crib can sit under a ciphertext and
+ * turns each such placement into a Bombe menu.
+ *
+ * An Enigma never enciphers a letter to itself, so the crib can only sit at
+ * offsets where no crib letter lies over the same ciphertext letter.  Rather
+ * than comparing strings at every offset, the ciphertext is stored as one
+ * bitset per letter (bit p of bits[L] set when letter p is L).  Shifting the
+ * bitset of crib letter i back by i marks every offset where that crib
+ * letter hits itself; OR-ing these for the whole crib marks every bad
+ * offset in one pass over the words of the bitsets.
+ *
+ * Each placement is ranked by the strength of its menu: first the number of
+ * closed cycles (more cycles, fewer false stops), then the number of links
+ * in its largest connected piece, then its offset.
+ */
+public class CribPlacement implements Comparable{
+
+    private int offset;       // 0-based offset of the crib among the ciphertext letters
+    private char[] crib;      // the crib letters
+    private char[] cipher;    // the ciphertext letters under the crib
+    private int closures;     // independent closed cycles of the menu
+    private int component;    // links in the largest connected piece of the menu
+
+    public int getOffset(){ return offset; }
+    public int getClosures(){ return closures; }
+    public int getComponent(){ return component; }
+    public char[] getCrib(){ return crib.clone(); }
+    public char[] getCipher(){ return cipher.clone(); }
+
+    /**
+     * Position of the first crib letter as a Bombe counts it (from 1).
+     */
+    public int getPosition(){ return offset+1; }
+
+    /**
+     * The diagonal board menu of this placement.
+     */
+    public DiagonalBoard board(){
+	return new DiagonalBoard(crib,cipher,offset+1);
+    }
+
+    /**
+     * Placement of crib at offset among the ciphertext letters.
+     */
+    public CribPlacement(char[] crib, char[] ciphertext, int offset){
+	this.offset = offset;
+	this.crib = crib.clone();
+	cipher = new char[crib.length];
+	System.arraycopy(ciphertext,offset,cipher,0,crib.length);
+	measure();
+    }
+
+    /**
+     * One bitset per capital letter: bit p of bits[L] is set when text[p]
+     * is the letter L.  Characters other than capitals set no bits.
+     */
+    public static long[][] letterBits(char[] text){
+	long[][] bits = new long[26][(text.length+63)>>>6];
+	for(int p=0; p<text.length; p++){
+	    int L = text[p]-'A';
+	    if (L >= 0 && L < 26) bits[L][p>>>6] |= 1L<<p;
+	}
+	return bits;
+    }
+
+    /**
+     * A bitset of the offsets at which some crib letter lies over the same
+     * letter of the text whose letterBits() are given.
+     */
+    public static long[] conflicts(long[][] bits, char[] crib){
+	int words = bits[0].length;
+	long[] out = new long[words];
+	for(int i=0; i<crib.length; i++){
+	    int L = crib[i]-'A';
+	    if (L < 0 || L >= 26) continue;
+	    long[] b = bits[L];
+	    int skip = i>>>6, shift = i&63;
+	    // out |= b >>> i, as a bitset
+	    for(int w=0; w+skip<words; w++){
+		long word = b[w+skip] >>> shift;
+		if (shift != 0 && w+skip+1 < words)
+		    word |= b[w+skip+1] << (64-shift);
+		out[w] |= word;
+	    }
+	}
+	return out;
+    }
+
+    /**
+     * All offsets where crib fits under the ciphertext without any letter
+     * being enciphered to itself, in increasing order.
+     */
+    public static int[] possibleOffsets(char[] crib, char[] ciphertext){
+	int last = ciphertext.length - crib.length;
+	if (last < 0 || crib.length == 0) return new int[0];
+	long[] bad = conflicts(letterBits(ciphertext),crib);
+	int count = 0;
+	for(int o=0; o<=last; o++)
+	    if ((bad[o>>>6] & (1L<<o)) == 0) count++;
+	int[] out = new int[count];
+	count = 0;
+	for(int o=0; o<=last; o++)
+	    if ((bad[o>>>6] & (1L<<o)) == 0) out[count++] = o;
+	return out;
+    }
+
+    /**
+     * All possible placements of the crib, strongest menu first.
+     */
+    public static CribPlacement[] rank(char[] crib, char[] ciphertext){
+	int[] offsets = possibleOffsets(crib,ciphertext);
+	CribPlacement[] out = new CribPlacement[offsets.length];
+	for(int i=0; i<offsets.length; i++)
+	    out[i] = new CribPlacement(crib,ciphertext,offsets[i]);
+	java.util.Arrays.sort(out);
+	return out;
+    }
+
+    /**
+     * Count the closed cycles and the size of the largest piece with a
+     * union-find over the 26 letters.
+     */
+    private void measure(){
+	int[] parent = new int[26];
+	int[] links = new int[26];   // links in the piece of each root
+	boolean[] used = new boolean[26];
+	for(int L=0; L<26; L++) parent[L] = L;
+	for(int i=0; i<crib.length; i++){
+	    int A = crib[i]-'A', B = cipher[i]-'A';
+	    used[A] = used[B] = true;
+	    int x = find(parent,A), y = find(parent,B);
+	    if (x != y){
+		parent[x] = y;
+		links[y] += links[x];
+	    }
+	    links[y]++;
+	}
+	int letters = 0, pieces = 0;
+	component = 0;
+	for(int L=0; L<26; L++)
+	    if (used[L]){
+		letters++;
+		if (find(parent,L) == L){
+		    pieces++;
+		    if (links[L] > component) component = links[L];
+		}
+	    }
+	closures = crib.length - letters + pieces;
+    }
+
+    private static int find(int[] parent, int x){
+	while(parent[x] != x) x = parent[x] = parent[parent[x]];
+	return x;
+    }
+
+    /**
+     * The menu written in the Bombe's cycle notation, e.g. "3:17|12-26_5:15-9-12".
+     *
+     * The cycles are the fundamental cycles of a breadth-first spanning
+     * forest of the letter graph: every link not in the forest closes
+     * exactly one cycle with the forest path between its letters.  Each
+     * cycle is written from the top of that path, leaving it through a
+     * forest link where it can, so cycles which leave the same letter
+     * through the same link are grouped together, e.g. "3:17|12-26".
+     * Returns "" if the menu has no cycles.
+     */
+    public String cycles(){
+	int n = crib.length;
+	int[][] at = new int[26][];    // links touching each letter
+	int[] degree = new int[26];
+	for(int i=0; i<n; i++){ degree[crib[i]-'A']++; degree[cipher[i]-'A']++; }
+	for(int L=0; L<26; L++) at[L] = new int[degree[L]];
+	int[] fill = new int[26];
+	for(int i=0; i<n; i++){
+	    at[crib[i]-'A'][fill[crib[i]-'A']++] = i;
+	    at[cipher[i]-'A'][fill[cipher[i]-'A']++] = i;
+	}
+
+	// breadth-first spanning forest: parentLink[L] is the link to L's parent
+	int[] parentLink = new int[26], depth = new int[26];
+	boolean[] seen = new boolean[26], treeLink = new boolean[n];
+	int[] queue = new int[26];
+	for(int root=0; root<26; root++){
+	    if (seen[root] || degree[root] == 0) continue;
+	    int head = 0, tail = 0;
+	    queue[tail++] = root;
+	    seen[root] = true;
+	    parentLink[root] = -1;
+	    while(head < tail){
+		int L = queue[head++];
+		for(int k=0; k<at[L].length; k++){
+		    int i = at[L][k];
+		    int M = other(i,L);
+		    if (!seen[M]){
+			seen[M] = true;
+			parentLink[M] = i;
+			depth[M] = depth[L]+1;
+			treeLink[i] = true;
+			queue[tail++] = M;
+		    }
+		}
+	    }
+	}
+
+	// one cycle per link outside the forest, started at the top of its
+	// forest path and grouped by (that letter, first link)
+	java.util.TreeMap groups = new java.util.TreeMap();
+	for(int i=0; i<n; i++){
+	    if (treeLink[i]) continue;
+	    int u = crib[i]-'A', v = cipher[i]-'A';
+	    // climb from both ends to the common ancestor
+	    java.util.ArrayList fromU = new java.util.ArrayList();  // links from the ancestor down to u
+	    java.util.ArrayList toV = new java.util.ArrayList();    // links from the ancestor down to v
+	    int x = v, y = u;
+	    while(x != y){
+		if (depth[x] >= depth[y]){
+		    toV.add(0,Integer.valueOf(parentLink[x]));
+		    x = other(parentLink[x],x);
+		}
+		else{
+		    fromU.add(0,Integer.valueOf(parentLink[y]));
+		    y = other(parentLink[y],y);
+		}
+	    }
+	    // the cycle ancestor -> u -(i)-> v -> ancestor, or the other way
+	    // round; leave the ancestor through a forest link if possible (those
+	    // are the links cycles share), the lower numbered one if both are
+	    java.util.ArrayList cycle = new java.util.ArrayList(fromU);
+	    cycle.add(Integer.valueOf(i));
+	    for(int k=toV.size()-1; k>=0; k--) cycle.add(toV.get(k));
+	    int first = ((Integer)cycle.get(0)).intValue(), last = ((Integer)cycle.get(cycle.size()-1)).intValue();
+	    if (first == i || (last != i && last < first))
+		java.util.Collections.reverse(cycle);
+	    first = ((Integer)cycle.get(0)).intValue();
+	    String rest = "";
+	    for(int k=1; k<cycle.size(); k++)
+		rest += (k>1?"-":"")+(((Integer)cycle.get(k)).intValue()+1+offset);
+	    String key = (char)('A'+x)+":"+(first+1+offset);
+	    String old = (String)groups.get(key);
+	    groups.put(key, old == null ? rest : old+"|"+rest);
+	}
+	String out = "";
+	for(java.util.Iterator itr = groups.keySet().iterator(); itr.hasNext(); ){
+	    String key = (String)itr.next();
+	    out += (out.length()>0?"_":"")+key.substring(2)+":"+groups.get(key);
+	}
+	return out;
+    }
+
+    /**
+     * The letter at the other end of link i from letter L.
+     */
+    private int other(int i, int L){
+	return (crib[i]-'A' == L) ? cipher[i]-'A' : crib[i]-'A';
+    }
+
+    /**
+     * Strongest menus first: more closures, then a bigger connected piece,
+     * then the earlier offset.
+     */
+    public int compareTo(Object o){
+	CribPlacement x = (CribPlacement)o;
+	return (closures > x.closures) ? -1
+	    : (closures < x.closures) ? 1
+	    : (component > x.component) ? -1
+	    : (component < x.component) ? 1
+	    : (offset < x.offset) ? -1
+	    : (offset > x.offset) ? 1
+	    : 0;
+    }
+
+    public String toString(){
+	return "position "+getPosition()+": "+closures+" closures, "+component+" connected links";
+    }
+}
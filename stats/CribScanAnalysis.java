@@ -0,0 +1,212 @@
+package webcrypt.stats;
+
+/**
+ * The CribScanAnalysis class scans a corpus of intercepts for the places a
+ * list of cribs can sit, so that the analyst only sets up Bombe menus at
+ * offsets that are possible at all.
+ *
+ * An Enigma never enciphers a letter to itself, so a crib can only sit
+ * where none of its letters lies over the same ciphertext letter.  Each
+ * intercept is turned into one bitset per letter once (see
+ * CribPlacement.letterBits()), after which every crib is tested at all
+ * offsets at once, a few word operations per crib letter and 64 offsets
+ * (see CribPlacement.conflicts()).
+ *
+ * The intercepts are files, one message per file, of which only the
+ * letters count.  Each file is memory-mapped rather than read through a
+ * stream (see TextManip.readLetters()), and the files are spread over
+ * several threads (see ParallelRange), so a corpus of thousands of
+ * messages is scanned in seconds.
+ *
+ * The text holds the cribs, one per line, and the argument consists of
+ * options separated by semicolons:
+ *
+ *    dir=path     the intercepts: a file, or a directory whose files
+ *                 (subdirectories included) are scanned in name order
+ *    threads=n    scan on n threads (default: one per processor)
+ *
+ * Each file and crib is reported with the positions (counted from 1 as the
+ * Bombe counts them) where the crib fits.  main() builds a corpus of
+ * random intercepts with cribs planted in them and checks that the scan
+ * finds exactly the offsets a letter by letter comparison finds.
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+public class CribScanAnalysis extends Analyzor{
+
+    public String toString(){
+	return "CribScanAnalysis(dir=path[;options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The text holds the cribs, one per line, and the argument consists of options\n"
+	+"separated by semicolons, at least the intercepts to scan, e.g.\n"
+	+"                dir=/data/intercepts;threads=4";
+
+    private File dir;
+    private int numthreads;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	final char[][] cribs = readCribs(text);
+	final File[] files = TextManip.listFiles(dir);
+	if (files.length == 0)
+	    throw new IllegalArgumentException("No files to scan in "+dir+"!!!");
+
+	long t0 = System.currentTimeMillis();
+	final long[] letters = new long[files.length];
+	ParallelRange scan = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    StringBuffer out = new StringBuffer();
+		    for(int f=from; f<to; f++){
+			char[] cipher;
+			try{
+			    cipher = TextManip.readLetters(files[f]);
+			}catch(IOException e){
+			    out.append("\n"+files[f]+": couldn't read: "+e.getMessage()+"\n");
+			    continue;
+			}
+			letters[f] = cipher.length;
+			out.append("\n"+files[f]+" ("+cipher.length+" letters)\n");
+			long[][] bits = CribPlacement.letterBits(cipher);
+			for(int c=0; c<cribs.length; c++)
+			    out.append(new String(cribs[c])+"\t"+positions(bits,cribs[c],cipher.length)+"\n");
+		    }
+		    return out;
+		}
+	    };
+	Object[] chunks = scan.run(files.length,files.length,numthreads);
+	long ms = System.currentTimeMillis() - t0;
+
+	long total = 0;
+	for(int f=0; f<files.length; f++) total += letters[f];
+	StringBuffer out = new StringBuffer("Scanned "+files.length+(files.length == 1 ? " file" : " files")
+					    +" of "+total+" letters in all for "+cribs.length
+					    +(cribs.length == 1 ? " crib" : " cribs")+" in "+ms+" ms.\n"
+					    +"Positions (from 1) where no crib letter lies over itself:\n");
+	for(int c=0; c<chunks.length; c++) out.append((StringBuffer)chunks[c]);
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    /**
+     * The positions of the crib allowed by the bitsets of a text of
+     * length letters, with their number first, e.g. "3: 5 17 40".
+     */
+    private static String positions(long[][] bits, char[] crib, int length){
+	int last = length - crib.length;
+	if (last < 0) return "0: longer than the message";
+	long[] bad = CribPlacement.conflicts(bits,crib);
+	StringBuffer list = new StringBuffer();
+	int count = 0;
+	for(int w=0; w<=(last>>>6); w++){
+	    long good = ~bad[w];
+	    if (w == (last>>>6) && (last&63) != 63) good &= (1L<<((last&63)+1)) - 1;
+	    count += Long.bitCount(good);
+	    while(good != 0){
+		list.append(" "+((w<<6) + Long.numberOfTrailingZeros(good) + 1));
+		good &= good-1;
+	    }
+	}
+	return count+":"+list;
+    }
+
+    private char[][] readCribs(StringBuffer text) throws IllegalArgumentException{
+	ArrayList cribs = new ArrayList();
+	StringTokenizer lines = new StringTokenizer(text.toString(),"\n\r");
+	while(lines.hasMoreTokens()){
+	    char[] crib = TextManip.letters(new StringBuffer(lines.nextToken()));
+	    if (crib.length > 0) cribs.add(crib);
+	}
+	if (cribs.size() == 0)
+	    throw new IllegalArgumentException(errstr+"\nNo cribs given!!!");
+	return (char[][])cribs.toArray(new char[cribs.size()][]);
+    }
+
+    /**
+     * Read dir= and threads= (see Analyzor.options()).
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	dir = null;
+	numthreads = ParallelRange.defaultThreads();
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("dir")){
+		dir = new File(value);
+		if (value.length() == 0 || !dir.exists())
+		    throw new IllegalArgumentException(errstr+"\nNo such file or directory "+value+"!!!");
+	    }
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+	if (dir == null)
+	    throw new IllegalArgumentException(errstr+"\nThe intercepts to scan must be given with dir=path!!!");
+    }
+
+    /**
+     * Write a corpus of random intercepts, each enciphering a crib at a
+     * random place, scan it and compare every reported position with a
+     * letter by letter check.
+     */
+    public static void main(String[] args) throws IOException, KeyCreationException{
+	int numfiles = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+	java.util.Random rnd = new java.util.Random(1);
+	String[] cribs = new String[]{ "WETTERVORHERSAGE", "ANXOBERKOMMANDODERWEHRMACHT", "KEINEBESONDERENEREIGNISSE" };
+	File dir = File.createTempFile("intercepts","");
+	dir.delete();
+	dir.mkdir();
+	Enigma enigma = new Enigma();
+	char[][] ciphers = new char[numfiles][];
+	for(int f=0; f<numfiles; f++){
+	    char[] plain = new char[500+rnd.nextInt(3000)];
+	    for(int i=0; i<plain.length; i++) plain[i] = (char)('A'+rnd.nextInt(26));
+	    String crib = cribs[rnd.nextInt(cribs.length)];
+	    crib.getChars(0,crib.length(),plain,rnd.nextInt(plain.length-crib.length()));
+	    String key = "";
+	    for(int i=0; i<3; i++) key += (char)('A'+rnd.nextInt(26));
+	    enigma.setup(new EnigmaKey(key));
+	    enigma.encryptChars(plain,0,plain.length);
+	    ciphers[f] = plain;
+	    Writer out = new FileWriter(new File(dir,"msg"+(10000+f)+".txt"));
+	    for(int i=0; i<plain.length; i+=5)
+		out.write(new String(plain,i,Math.min(5,plain.length-i))+(i % 50 == 45 ? "\n" : " "));
+	    out.close();
+	}
+
+	CribScanAnalysis scanner = new CribScanAnalysis();
+	StringBuffer text = new StringBuffer(cribs[0]+"\n"+cribs[1]+"\n"+cribs[2]);
+	scanner.analyzeOn(text,"dir="+dir);
+	String result = text.toString();
+	System.out.println(result.substring(0,result.indexOf('\n')));
+	System.out.println(result.substring(result.indexOf('\n')+1,result.indexOf('\n')+1+600)+"...");
+
+	StringBuffer expected = new StringBuffer();
+	for(int f=0; f<numfiles; f++){
+	    expected.append("\n"+new File(dir,"msg"+(10000+f)+".txt")+" ("+ciphers[f].length+" letters)\n");
+	    for(int c=0; c<cribs.length; c++){
+		char[] crib = cribs[c].toCharArray();
+		StringBuffer list = new StringBuffer();
+		int count = 0;
+		for(int o=0; o+crib.length<=ciphers[f].length; o++){
+		    boolean ok = true;
+		    for(int i=0; i<crib.length && ok; i++) ok = crib[i] != ciphers[f][o+i];
+		    if (ok){ count++; list.append(" "+(o+1)); }
+		}
+		expected.append(cribs[c]+"\t"+count+":"+list+"\n");
+	    }
+	}
+	System.out.println(result.endsWith(expected.toString()) ? "\nEvery position agrees with a letter by letter check."
+			   : "\nMISMATCH with the letter by letter check!");
+	File[] written = dir.listFiles();
+	for(int i=0; i<written.length; i++) written[i].delete();
+	dir.delete();
+    }
+}
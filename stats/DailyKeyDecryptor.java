@@ -0,0 +1,256 @@
+package webcrypt.stats;
+
+/**
+ * The DailyKeyDecryptor class decrypts a day's traffic once the daily key
+ * is known, following the indicator procedure of the three rotor Enigma.
+ *
+ * The operator set the machine to the daily key (wheel order, rings,
+ * plugs and ground setting), chose a message key of three letters and
+ * enciphered it twice; these six letters, the indicator, began the
+ * message.  He then turned the rotors to the message key, leaving rings
+ * and plugs alone, and enciphered the text.  So each message is decrypted
+ * by deciphering its indicator at the ground setting, which gives the
+ * message key (twice, the halves agreeing unless the operator erred),
+ * turning the rotors to it and deciphering the rest.  Later procedures
+ * enciphered the message key only once; indicator=3 handles those.
+ *
+ * Every message of a day shares the wheel order, rings and plugboard, so
+ * the plugboard is set up once per thread and all threads share one
+ * ScramblerTable of the wheel order; a message then costs one table
+ * lookup per letter (see Enigma.encryptChars()).  The messages are spread
+ * over several threads with ParallelRange.
+ *
+ * The messages are either the lines of the text, each optionally
+ * starting with a name and a colon, or the files under a directory, one
+ * message per file; only letters count.  The argument consists of options
+ * separated by semicolons:
+ *
+ *    key=GAN-BCD_AT_EQ  the daily key: ground setting, rings and plugs
+ *                       (see EnigmaKey)
+ *    rotors=123         the wheel order (default 123)
+ *    dir=path           decrypt the files under path instead of the text
+ *    indicator=6        6 for a doubled message key (default), 3 for a
+ *                       single one
+ *    threads=n          decrypt on n threads (default: one per processor)
+ *
+ * main() enciphers a day's traffic with EnigmaKeys made for each message,
+ * writes it to a directory and decrypts it back.
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import webcrypt.math.ScramblerTable;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+public class DailyKeyDecryptor extends Analyzor{
+
+    public String toString(){
+	return "DailyKeyDecryptor(key=dailykey[;options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The messages are the lines of the text, each beginning with its indicator,\n"
+	+"or the files under dir=path, and the argument consists of options separated\n"
+	+"by semicolons, at least the daily key, e.g.\n"
+	+"                key=GAN-BCD_AT_EQ;rotors=514;threads=4";
+
+    private EnigmaKey daily;
+    private int[] wheelOrder;
+    private File dir;
+    private int indicatorLength, numthreads;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	final String[] names;
+	final char[][] messages;
+	if (dir != null){
+	    File[] files = TextManip.listFiles(dir);
+	    names = new String[files.length];
+	    messages = new char[files.length][];
+	    for(int m=0; m<files.length; m++){
+		names[m] = files[m].toString();
+		try{
+		    messages[m] = TextManip.readLetters(files[m]);
+		}catch(IOException e){
+		    throw new IllegalArgumentException("Couldn't read "+files[m]+": "+e.getMessage());
+		}
+	    }
+	}
+	else{
+	    ArrayList n = new ArrayList(), t = new ArrayList();
+	    StringTokenizer lines = new StringTokenizer(text.toString(),"\n\r");
+	    while(lines.hasMoreTokens()){
+		String line = lines.nextToken();
+		int colon = line.indexOf(':');
+		char[] letters = TextManip.letters(new StringBuffer(line.substring(colon+1)));
+		if (letters.length == 0) continue;
+		n.add(colon == -1 ? "Message "+(t.size()+1) : line.substring(0,colon).trim());
+		t.add(letters);
+	    }
+	    names = (String[])n.toArray(new String[n.size()]);
+	    messages = (char[][])t.toArray(new char[t.size()][]);
+	}
+	if (messages.length == 0)
+	    throw new IllegalArgumentException(errstr+"\nNo messages given!!!");
+
+	long t0 = System.currentTimeMillis();
+	String[] decrypted = decrypt(messages);
+	long ms = System.currentTimeMillis() - t0;
+
+	long total = 0;
+	for(int m=0; m<messages.length; m++) total += messages[m].length;
+	StringBuffer out = new StringBuffer("Decrypted "+messages.length
+					    +(messages.length == 1 ? " message" : " messages")+" of "+total
+					    +" letters in all in "+ms+" ms.\n");
+	for(int m=0; m<messages.length; m++)
+	    out.append("\n"+names[m]+"  "+decrypted[m]+"\n");
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    /**
+     * Decrypt the messages with the daily key, each as its message key
+     * and indicator remarks, a newline and the plaintext.
+     */
+    private String[] decrypt(final char[][] messages){
+	final ScramblerTable table = ScramblerTable.forWheelOrder(wheelOrder);
+	final char[] ground = daily.getOrientations();
+	final String[] out = new String[messages.length];
+	ParallelRange pool = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    Enigma enigma = new Enigma(wheelOrder);
+		    enigma.setScramblerTable(table);
+		    enigma.setup(daily);
+		    for(int m=from; m<to; m++){
+			char[] message = messages[m];
+			if (message.length < indicatorLength){
+			    out[m] = "too short for an indicator";
+			    continue;
+			}
+			char[] indicator = new char[indicatorLength];
+			System.arraycopy(message,0,indicator,0,indicatorLength);
+			enigma.setOrientations(ground);
+			enigma.encryptChars(indicator,0,indicatorLength);
+			String key = new String(indicator,0,3), note = "";
+			if (indicatorLength == 6 && !key.equals(new String(indicator,3,3)))
+			    note = "  (indicator halves differ: "+key+" "+new String(indicator,3,3)+")";
+			char[] body = new char[message.length-indicatorLength];
+			System.arraycopy(message,indicatorLength,body,0,body.length);
+			enigma.setOrientations(indicator);
+			enigma.encryptChars(body,0,body.length);
+			out[m] = "message key "+key+note+"\n"+new String(body);
+		    }
+		    return null;
+		}
+	    };
+	pool.run(messages.length, Math.min(messages.length,numthreads*8), numthreads);
+	return out;
+    }
+
+    /**
+     * Read the daily key and the other options, starting again from the
+     * defaults.
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	daily = null;
+	wheelOrder = Enigma.DEFAULTWHEELORDER;
+	dir = null;
+	indicatorLength = 6;
+	numthreads = ParallelRange.defaultThreads();
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("key")){
+		try{
+		    daily = new EnigmaKey(value);
+		}catch(KeyCreationException e){
+		    throw new IllegalArgumentException(errstr+"\nBad daily key "+value+"!!!");
+		}
+		if (daily.getOrientations().length != 3 || daily.getRings().length != 3)
+		    throw new IllegalArgumentException(errstr+"\nThe daily key is for a three rotor Enigma!!!");
+	    }
+	    else if (name.equals("rotors")){
+		try{
+		    wheelOrder = ScramblerTable.parseWheelOrder(value);
+		    ScramblerTable.checkWheelOrder(wheelOrder);
+		}catch(IllegalArgumentException e){
+		    throw new IllegalArgumentException(errstr+"\n"+e.getMessage()+"!!!");
+		}
+	    }
+	    else if (name.equals("dir")){
+		dir = new File(value);
+		if (value.length() == 0 || !dir.exists())
+		    throw new IllegalArgumentException(errstr+"\nNo such file or directory "+value+"!!!");
+	    }
+	    else if (name.equals("indicator")){
+		if (!value.equals("6") && !value.equals("3"))
+		    throw new IllegalArgumentException(errstr+"\nindicator must be 6 or 3!!!");
+		indicatorLength = Integer.parseInt(value);
+	    }
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+	if (daily == null)
+	    throw new IllegalArgumentException(errstr+"\nThe daily key must be given with key=!!!");
+    }
+
+    /**
+     * Encipher a day of n messages (default 2000) the slow way, a new
+     * EnigmaKey per message key, write them to a directory and check that
+     * every message decrypts back to its plaintext.
+     */
+    public static void main(String[] args) throws KeyCreationException, IOException{
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+	java.util.Random rnd = new java.util.Random(1);
+	String rings = "QHF", plugs = "_AT_EQ_BL_CZ_DX_FN_GK_HR_IV_JW";
+	String dailykey = "RTW-"+rings+plugs;
+	int[] order = new int[]{4,0,3};
+	Enigma enigma = new Enigma(order);
+
+	File dir = File.createTempFile("traffic","");
+	dir.delete();
+	dir.mkdir();
+	String[] plaintexts = new String[n];
+	long t0 = System.currentTimeMillis();
+	for(int m=0; m<n; m++){
+	    char[] plain = new char[100+rnd.nextInt(400)];
+	    for(int i=0; i<plain.length; i++) plain[i] = (char)('A'+rnd.nextInt(26));
+	    plaintexts[m] = new String(plain);
+	    String key = "";
+	    for(int i=0; i<3; i++) key += (char)('A'+rnd.nextInt(26));
+	    char[] indicator = (key+key).toCharArray();
+	    enigma.setup(new EnigmaKey(dailykey));
+	    enigma.encryptChars(indicator,0,6);
+	    enigma.setup(new EnigmaKey(key+"-"+rings+plugs));
+	    enigma.encryptChars(plain,0,plain.length);
+	    Writer out = new FileWriter(new File(dir,"msg"+(10000+m)+".txt"));
+	    out.write(new String(indicator)+"\n"+new String(plain)+"\n");
+	    out.close();
+	}
+	long t1 = System.currentTimeMillis();
+
+	DailyKeyDecryptor decryptor = new DailyKeyDecryptor();
+	StringBuffer text = new StringBuffer();
+	decryptor.analyzeOn(text,"key="+dailykey+";rotors=514;dir="+dir);
+	String result = text.toString();
+	System.out.println("Enciphered "+n+" messages with a new EnigmaKey each in "+(t1-t0)+" ms.");
+	System.out.println(result.substring(0,result.indexOf('\n')));
+	System.out.println(result.substring(result.indexOf('\n'),result.indexOf('\n')+300)+"...");
+	int wrong = 0, from = 0;
+	for(int m=0; m<n; m++){
+	    from = result.indexOf("msg"+(10000+m)+".txt  message key ",from);
+	    int line = result.indexOf('\n',from)+1;
+	    if (from == -1 || !result.startsWith(plaintexts[m]+"\n",line)) wrong++;
+	    from = Math.max(from,0);
+	}
+	System.out.println(wrong == 0 ? "Every message decrypts to its plaintext."
+			   : "WRONG DECRYPTION of "+wrong+" messages!");
+	File[] written = dir.listFiles();
+	for(int i=0; i<written.length; i++) written[i].delete();
+	dir.delete();
+    }
+}
@@ -0,0 +1,217 @@
+package webcrypt.stats;
+
+/**
+ * The DiagonalBoard class tests a Bombe menu the way Welchman's improved
+ * Bombe did: by following current through a 26x26 board of wires instead
+ * of pushing one letter at a time around a cycle.
+ *
+ * The menu is a list of links: crib letter P and cipher letter C were
+ * enciphered into each other by the Enigma at message position n.  Write
+ * (L,x) for the hypothesis "letter L is plugged to x".  At a given rotor
+ * position the link (P,C,n) joins (P,x) to (C,S_n(x)) for every x, where
+ * S_n is the scrambler of Enigma number n.  Since the plugboard is a
+ * swap, the diagonal board also joins (L,x) to (x,L).
+ *
+ * Every set of connected wires is either all true or all false.  The wires
+ * (T,h) of the most connected menu letter T are the 26 hypotheses to test.
+ * A hypothesis is rejected as soon as its connected wires include two wires
+ * of the same letter, since no letter can be plugged to two others.  Such
+ * a contradiction rejects at once every hypothesis of T met on the way, so
+ * a wrong rotor position usually needs a single propagation for all 26.
+ *
+ * The wires of a letter are kept as a 26-bit mask in an int, so the board is
+ * 26 ints and the register of a letter is tested with one bit count.
+ */
+public class DiagonalBoard{
+
+    private int numlinks;
+    private int[] linkA, linkB;  // the two letters (0-25) of each link
+    private int[] linkPos;       // the Enigma number (message position) of each link
+    private int[][] linksAt;     // linksAt[L] = the links touching letter L
+    private int testLetter;      // the letter whose hypotheses are tested
+
+    public int getTestLetter(){ return testLetter; }
+    public int getNumLinks(){ return numlinks; }
+
+    /**
+     * The crib and cipher letters of the links, in order.
+     */
+    public char[] getCrib(){
+	char[] out = new char[numlinks];
+	for(int i=0; i<numlinks; i++) out[i] = (char)('A'+linkA[i]);
+	return out;
+    }
+
+    public char[] getCipher(){
+	char[] out = new char[numlinks];
+	for(int i=0; i<numlinks; i++) out[i] = (char)('A'+linkB[i]);
+	return out;
+    }
+
+    /**
+     * The Enigma numbers of the links, in the order in which test()
+     * expects their scrambler states.
+     */
+    public int[] getPositions(){ return linkPos.clone(); }
+
+    /**
+     * Build the menu of a crib placed under a ciphertext: crib[i] and
+     * cipher[i] are enciphered into each other by Enigma number first+i.
+     * Both arrays hold capital letters.
+     */
+    public DiagonalBoard(char[] crib, char[] cipher, int first) throws IllegalArgumentException{
+	if (crib.length != cipher.length)
+	    throw new IllegalArgumentException("Crib and ciphertext differ in length.");
+	numlinks = crib.length;
+	linkA = new int[numlinks];
+	linkB = new int[numlinks];
+	linkPos = new int[numlinks];
+	int[] degree = new int[26];
+	for(int i=0; i<numlinks; i++){
+	    linkA[i] = crib[i]-'A';
+	    linkB[i] = cipher[i]-'A';
+	    linkPos[i] = first+i;
+	    if (linkA[i] < 0 || linkA[i] > 25 || linkB[i] < 0 || linkB[i] > 25)
+		throw new IllegalArgumentException("Crib and ciphertext must be capital letters.");
+	    if (linkA[i] == linkB[i])
+		throw new IllegalArgumentException("The crib letter "+crib[i]+" at position "+(first+i)
+						   +" is enciphered to itself,\n"
+						   +"which an Enigma never does.  Move the crib.");
+	    degree[linkA[i]]++;
+	    degree[linkB[i]]++;
+	}
+	linksAt = new int[26][];
+	testLetter = 0;
+	for(int L=0; L<26; L++){
+	    linksAt[L] = new int[degree[L]];
+	    if (degree[L] > degree[testLetter]) testLetter = L;
+	}
+	int[] fill = new int[26];
+	for(int i=0; i<numlinks; i++){
+	    linksAt[linkA[i]][fill[linkA[i]]++] = i;
+	    linksAt[linkB[i]][fill[linkB[i]]++] = i;
+	}
+    }
+
+    /**
+     * The number of independent closed cycles of the menu (links minus
+     * letters plus connected pieces).  The more closures, the fewer false stops.
+     */
+    public int closures(){
+	int[] parent = new int[26];
+	for(int L=0; L<26; L++) parent[L] = L;
+	int letters = 0, pieces = 0;
+	boolean[] used = new boolean[26];
+	for(int i=0; i<numlinks; i++){
+	    used[linkA[i]] = used[linkB[i]] = true;
+	    int x = find(parent,linkA[i]), y = find(parent,linkB[i]);
+	    if (x != y) parent[x] = y;
+	}
+	for(int L=0; L<26; L++)
+	    if (used[L]){
+		letters++;
+		if (find(parent,L) == L) pieces++;
+	    }
+	return numlinks - letters + pieces;
+    }
+
+    private static int find(int[] parent, int x){
+	while(parent[x] != x) x = parent[x] = parent[parent[x]];
+	return x;
+    }
+
+    /**
+     * Test all 26 hypotheses of the test letter at one rotor position.
+     * states[i] is the ScramblerTable orientation of the Enigma of link i
+     * (see getPositions()).  Returns a mask with bit h set when "test letter
+     * plugged to h" survived, so 0 means the position is rejected.
+     *
+     * The work arrays must have length 26 and are overwritten.
+     */
+    public int test(webcrypt.math.ScramblerTable table, int[] states, int[] live, int[] pending){
+	int rejected = 0;
+	int survivors = 0;
+	for(int h=0; h<26; h++){
+	    if ( ((rejected|survivors) & (1<<h)) != 0 ) continue;
+	    int found = propagate(table,states,h,live,pending);
+	    if (found < 0)
+		rejected |= live[testLetter];  // every hypothesis met is contradictory
+	    else
+		survivors |= 1<<h;
+	}
+	return survivors;
+    }
+
+    /**
+     * Find the steckers implied by hypothesis h at a rotor position which
+     * survived test(): out[L] is the letter plugged to L, or -1 when the
+     * menu says nothing about L.  Returns null if h is contradictory.
+     */
+    public int[] steckers(webcrypt.math.ScramblerTable table, int[] states, int h){
+	int[] live = new int[26], pending = new int[26];
+	if (propagate(table,states,h,live,pending) < 0) return null;
+	int[] out = new int[26];
+	for(int L=0; L<26; L++)
+	    out[L] = (live[L] == 0) ? -1 : Integer.numberOfTrailingZeros(live[L]);
+	return out;
+    }
+
+    /**
+     * Energize the wire (testLetter,h) and follow the current through the
+     * links and the diagonal board until nothing changes or two wires of
+     * one letter are live.  live[] ends up holding the wires reached.
+     * Returns -1 on a contradiction and the number of live wires otherwise.
+     */
+    private int propagate(webcrypt.math.ScramblerTable table, int[] states, int h,
+			  int[] live, int[] pending){
+	for(int L=0; L<26; L++) live[L] = pending[L] = 0;
+	live[testLetter] = pending[testLetter] = 1<<h;
+	int count = 1;
+	boolean changed = true;
+	while(changed){
+	    changed = false;
+	    for(int L=0; L<26; L++){
+		int bits = pending[L];
+		if (bits == 0) continue;
+		pending[L] = 0;
+		changed = true;
+		while(bits != 0){
+		    int x = Integer.numberOfTrailingZeros(bits);
+		    bits &= bits-1;
+		    // diagonal board: L plugged to x means x plugged to L
+		    if ((live[x] & (1<<L)) == 0){
+			live[x] |= 1<<L;
+			pending[x] |= 1<<L;
+			count++;
+			if ((live[x] & (live[x]-1)) != 0) return -1;
+		    }
+		    // the scramblers of the links at L
+		    int[] at = linksAt[L];
+		    for(int k=0; k<at.length; k++){
+			int i = at[k];
+			int M = (linkA[i] == L) ? linkB[i] : linkA[i];
+			int y = table.permute(states[i],x);
+			if ((live[M] & (1<<y)) == 0){
+			    live[M] |= 1<<y;
+			    pending[M] |= 1<<y;
+			    count++;
+			    if ((live[M] & (live[M]-1)) != 0) return -1;
+			}
+		    }
+		}
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Describe the links, e.g. "E-Q at 3".
+     */
+    public String toString(){
+	StringBuffer out = new StringBuffer();
+	for(int i=0; i<numlinks; i++)
+	    out.append((char)('A'+linkA[i])+"-"+(char)('A'+linkB[i])+" at "+linkPos[i]+"\n");
+	out.append("Test letter: "+(char)('A'+testLetter)+", closures: "+closures());
+	return out.toString();
+    }
+}
@@ -25,16 +25,17 @@ public class FrequencyAnalysis extends Analyzor{
      */
     public void analyzeOn(StringBuffer text, String arg){
 	MonoAlphabeticStats mas = new MonoAlphabeticStats();
-	CharFrequency[] freqtable = mas.getFrequencies(text.toString());
+	CharFrequency[] freqtable = mas.getFrequencies(text);
 	int cnt = 0;
-	String out = "Letter\tCount\tFrequency\t\tVariance\n\n";
+	StringBuffer out = new StringBuffer("Letter\tCount\tFrequency\t\tVariance\n\n");
 	for(int i=0; i<freqtable.length; i++){
-	    out += freqtable[i] + "\n";
+	    out.append(freqtable[i] + "\n");
 	    cnt += freqtable[i].getCount();
 	}
-	out += "\n\nFinal in-domain count = "+cnt;
+	out.append("\n\nFinal in-domain count = "+cnt);
+	String result = out.toString();
 	text.delete(0,text.length());
-	text.append(out);
+	text.append(result);
     }
 
 }
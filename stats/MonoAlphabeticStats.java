@@ -5,9 +5,14 @@ package webcrypt.stats;
  * static classes, we use object oriented design to allow
  * for customization of analysis, and concurrent analysis
  * of several texts in different windows.
+ *
+ * Counting is done into plain int[] counts, one per char of the domain,
+ * through a table giving the domain index of each char's capital, so a
+ * text is counted in one pass without upper-casing or copying it whole.
+ * CharFrequency objects are only made for the tables handed back.
  */
 
-import java.util.*;  // For TreeSet, Iterator
+import java.util.*;  // For TreeSet, Iterator, Arrays
 
 public class MonoAlphabeticStats extends webcrypt.character.CharDomains{
 
@@ -25,13 +30,27 @@ public class MonoAlphabeticStats extends webcrypt.character.CharDomains{
 	domsize = getDomainSize();
     }
     
+    /**
+     * Let a later setDomain() take effect here too.
+     */
+    public void setDomain(int[][] dom){
+	super.setDomain(dom);
+	domsize = getDomainSize();
+	foldTable = null;
+	domainChars = null;
+    }
+
     /**
      * Get the maximum frequency
-     *
-     * Cheap and dirty solution, but wasteful
      */
     public CharFrequency maxFreq(String text){
-	return (getFrequencies(text))[0];
+	int[] counts = counts(text);
+	int total = 0, max = 0;
+	for(int i=0; i<domsize; i++){
+	    total += counts[i];
+	    if (counts[i] > counts[max]) max = i;
+	}
+	return frequency(max,counts,total);
     }
 
     /**
@@ -39,70 +58,247 @@ public class MonoAlphabeticStats extends webcrypt.character.CharDomains{
      * sorted in descending order of frequence
      */
     public CharFrequency[] getFrequencies(String text){
-	//first capitalize since don't care about cases
-	text = text.toUpperCase();
+	return frequencies(counts(text));
+    }
 
-	CharFrequency[] index = unorderedFrequencies(text);
-	// count the total
-	int totalcount = 0;
-	for( int i=0; i<index.length; i++) totalcount += index[i].getCount();
+    /**
+     * Same for text held in a StringBuffer, which is read a block at a
+     * time rather than copied whole.
+     */
+    public CharFrequency[] getFrequencies(StringBuffer text){
+	return frequencies(counts(text));
+    }
 
-	//order the CharFrequency in descending (real) order
-	TreeSet tree = new TreeSet();
-	for(int i = 0; i < domsize; i++){
-	    tree.add(index[i]);
-	    //	    System.out.println(index[i]);
-	}
-	
-	//retrieve the objects in any array, recompute and return
+    /**
+     * The CharFrequency table of the given counts (see counts()), in
+     * descending order of count, ties in domain order.  This is the only
+     * place CharFrequency objects get made.
+     */
+    public CharFrequency[] frequencies(int[] counts){
+	int totalcount = 0;
+	for(int i=0; i<domsize; i++) totalcount += counts[i];
+	int[] order = order(counts);
 	CharFrequency[] output = new CharFrequency[domsize];
-	int j = 0;
-	CharFrequency cf;
-	double cnt, var;
-	for( Iterator itr = tree.iterator(); itr.hasNext(); ){
-	    cf = (CharFrequency)itr.next();
-	    cnt = cf.getCount();
-	    cf.setFreq( cnt/totalcount );
-	    var = cnt/totalcount - 1.0/domsize;
-	    cf.setVar( var * var );
-	    output[j++] = cf;
-	    //	    System.out.println(cf);
-	}
-
+	for(int j=0; j<domsize; j++) output[j] = frequency(order[j],counts,totalcount);
 	return output;
     }
 
+    /**
+     * The CharFrequency of domain char i, with its frequency and variance.
+     */
+    private CharFrequency frequency(int i, int[] counts, int totalcount){
+	CharFrequency cf = new CharFrequency(domainChar(i));
+	double cnt = counts[i];
+	cf.setCount(counts[i]);
+	cf.setFreq( cnt/totalcount );
+	double var = cnt/totalcount - 1.0/domsize;
+	cf.setVar( var * var );
+	return cf;
+    }
+
+    /**
+     * The indices 0..counts.length-1 by descending count, ties in
+     * increasing order.  Sorts primitive keys (count in the high word,
+     * index in the low one) so no objects get made.
+     */
+    public static int[] order(int[] counts){
+	long[] keys = new long[counts.length];
+	for(int i=0; i<counts.length; i++)
+	    keys[i] = ((long)(Integer.MAX_VALUE - counts[i]) << 32) | i;
+	Arrays.sort(keys);
+	int[] out = new int[counts.length];
+	for(int i=0; i<counts.length; i++) out[i] = (int)keys[i];
+	return out;
+    }
+
     /**
      * Return an array listing the frequency of each char in the domain.
      * Ordered by the letter
      */
     protected CharFrequency[] unorderedFrequencies(String text){
-	//initialize an index array containing all the letter frequency objects
+	int[] counts = counts(text);
 	CharFrequency[] index = new CharFrequency[domsize];
-	int j = 0;
-	for(int i = 0; i < domain.length; i++)
-	    for(char c = (char)domain[i][0]; c <= (char)domain[i][1]; c++){
-		index[j++] = new CharFrequency(c);
+	for(int i=0; i<domsize; i++){
+	    index[i] = new CharFrequency(domainChar(i));
+	    index[i].setCount(counts[i]);
+	}
+	return index;
+    }
+
+    /**
+     * The counting core.  counts[i] is the number of characters of the
+     * text whose capital is the i'th char of the domain, which is what
+     * counting the upper-cased text gives.
+     */
+    public int[] counts(String text){
+	int[] counts = new int[domsize];
+	char[] buf = block();
+	for(int from=0; from<text.length(); from+=buf.length){
+	    int len = Math.min(buf.length,text.length()-from);
+	    text.getChars(from,from+len,buf,0);
+	    count(buf,0,len,counts);
+	}
+	return counts;
+    }
+
+    public int[] counts(StringBuffer text){
+	int[] counts = new int[domsize];
+	char[] buf = block();
+	for(int from=0; from<text.length(); from+=buf.length){
+	    int len = Math.min(buf.length,text.length()-from);
+	    text.getChars(from,from+len,buf,0);
+	    count(buf,0,len,counts);
+	}
+	return counts;
+    }
+
+    /**
+     * Add the counts of len chars of text from off to counts (domsize
+     * long).  Returns the number of chars counted.  One table lookup per
+     * char; nothing is allocated once the table is made.
+     */
+    public int count(char[] text, int off, int len, int[] counts){
+	int[] fold = foldTable();
+	int n = 0;
+	for(int i=off; i<off+len; i++){
+	    char c = text[i];
+	    int idx = (c < fold.length) ? fold[c] : upperIndex(c);
+	    if (idx >= 0){
+		counts[idx]++;
+		n++;
 	    }
-	//run through string ignoring non-domain char's and counting the rest
-	char c;
-	int idx, count;
-	CharFrequency cf;
-	int totalcount = 0;
-	double var;
-	for(int i = 0; i < text.length(); i++){
-	    c = text.charAt(i);
-	    if (inDomain(c)){
-		//recompute the stats:
-		totalcount++;
-		idx = getIndex(c);
-		cf = index[idx];
-		count = cf.getCount()+1;
-		cf.setCount(count);
-		//		System.out.println(cf);
+	    else if (idx == EXPANDS)
+		n += countExpansion(c,counts);
+	}
+	return n;
+    }
+
+    /**
+     * foldTable[c] is the domain index of the capital of c, -1 if that
+     * isn't in the domain, or EXPANDS if c's capital is several chars
+     * (e.g. the German sharp s, whose capital is SS).  Covers the domain
+     * and the Latin letters, which is where the capitals of A-Z come from.
+     */
+    private int[] foldTable = null;
+    private final static int FOLDLIMIT = 0x24f;
+    final static int EXPANDS = -2;
+
+    private int[] foldTable(){
+	if (foldTable == null){
+	    int max = FOLDLIMIT;
+	    for(int i=0; i<domain.length; i++)
+		if (domain[i][1] > max) max = domain[i][1];
+	    int[] t = new int[max+1];
+	    for(int c=0; c<=max; c++) t[c] = foldedIndex((char)c);
+	    foldTable = t;
+	}
+	return foldTable;
+    }
+
+    /**
+     * The capital of every char as String.toUpperCase() makes it, with
+     * '\uffff' for the chars whose capital is more than one char; made
+     * once and shared, the first time a text has chars beyond a foldTable.
+     */
+    private static char[] upper = null;
+
+    private static synchronized char[] upper(){
+	if (upper == null){
+	    char[] u = new char[65536];
+	    for(int c=0; c<65536; c++){
+		String C = String.valueOf((char)c).toUpperCase();
+		u[c] = (C.length() == 1) ? C.charAt(0) : '\uffff';
 	    }
+	    upper = u;
 	}
-	return index;
+	return upper;
+    }
+
+    /**
+     * The letter (0 for A to 25 for Z) of the capital of every char as
+     * count() folds it into CAPS: -1 if it isn't A-Z, or EXPANDS if the
+     * capital is several chars.  Made once and shared; NgramCounter reads
+     * its letters through it, so that letters and n-grams are counted alike.
+     */
+    private static byte[] capsLetters = null;
+
+    static synchronized byte[] capsLetters(){
+	if (capsLetters == null){
+	    char[] u = upper();
+	    byte[] t = new byte[65536];
+	    for(int c=0; c<65536; c++)
+		t[c] = (u[c] == '\uffff') ? (byte)EXPANDS
+		    : (u[c] >= 'A' && u[c] <= 'Z') ? (byte)(u[c]-'A') : (byte)-1;
+	    capsLetters = t;
+	}
+	return capsLetters;
+    }
+
+    /**
+     * The letters A-Z, as numbers 0-25, of the capital of a char whose
+     * capital is several chars (e.g. SS for the German sharp s); returns
+     * how many went into out from k.
+     */
+    static int expandLetters(char c, byte[] out, int k){
+	String C = String.valueOf(c).toUpperCase();
+	int n = 0;
+	for(int i=0; i<C.length(); i++)
+	    if (C.charAt(i) >= 'A' && C.charAt(i) <= 'Z') out[k+n++] = (byte)(C.charAt(i)-'A');
+	return n;
+    }
+
+    private int foldedIndex(char c){
+	String C = String.valueOf(c).toUpperCase();
+	if (C.length() > 1) return EXPANDS;
+	return inDomain(C.charAt(0)) ? getIndex(C.charAt(0)) : -1;
+    }
+
+    /**
+     * foldedIndex() for the chars beyond the foldTable, through the shared
+     * table of capitals.
+     */
+    private int upperIndex(char c){
+	char C = upper()[c];
+	if (C == '\uffff') return foldedIndex(c);
+	return inDomain(C) ? getIndex(C) : -1;
+    }
+
+    private int countExpansion(char c, int[] counts){
+	String C = String.valueOf(c).toUpperCase();
+	int n = 0;
+	for(int i=0; i<C.length(); i++)
+	    if (inDomain(C.charAt(i))){
+		counts[getIndex(C.charAt(i))]++;
+		n++;
+	    }
+	return n;
+    }
+
+    /**
+     * The i'th char of the domain.
+     */
+    protected char domainChar(int i){
+	if (domainChars == null){
+	    char[] chars = new char[domsize];
+	    int j = 0;
+	    for(int r = 0; r < domain.length; r++)
+		for(int c = domain[r][0]; c <= domain[r][1]; c++) chars[j++] = (char)c;
+	    domainChars = chars;
+	}
+	return domainChars[i];
+    }
+
+    private char[] domainChars = null;
+
+    /**
+     * Reusable block for counting Strings and StringBuffers without
+     * copying them whole.
+     */
+    private char[] block = null;
+
+    private char[] block(){
+	if (block == null) block = new char[8192];
+	return block;
     }
 
    /**
@@ -112,83 +308,24 @@ public class MonoAlphabeticStats extends webcrypt.character.CharDomains{
      * For len = 2 these are the bigrams
      * For len = 3 these are the trigrams
      *
-     * Don't try len > 4 !!!!
+     * len may go up to NgramCounter.MAXN (8), which does the counting.
+     * Fewer than n are returned if the text has fewer different strings.
      */
     public StringFrequency[] getMultigramFrequencies(String text, int len, int n)
 	throws IllegalArgumentException{
-	if( len < 1 || len > 4 )
-	    throw new IllegalArgumentException("length not in the range [1,4]");
-	//capitalize  and remove all non characters
-	text = webcrypt.io.StandardizeFile.longLine(text,true);
-	text = text.substring(0,text.length()-1);  //longLine adds a newline char!
-
-	int totalcount = text.length() - len + 1;  //total number of len-grams
-
-	//next initialize an index array.  Will create objects only as needed
-	int arrsize = (int)Math.round(Math.pow(domsize,len));
-	StringFrequency[] index = new StringFrequency[arrsize];
-
-	/*
-	int j = 0;
-	for(int i = 0; i < domain.length; i++)
-	    for(char c = (char)domain[i][0]; c <= (char)domain[i][1]; c++){
-		index[j++] = new CharFrequency(c);
-		//		System.out.println("j = "+j);
-		//		System.out.println((j-1)+": "+index[j-1]);
-	    }
-	*/
-
-	//run through string counting all len-grams, and adding those that
-	//that haven't been added.
-	String str;
-	int idx, count;
-	StringFrequency sf;
-	double var;
-	//	System.out.println(text.length());
-	for(int i = 0; i <= text.length()-len; i++){
-	    str = text.substring(i,i+len);
-	    idx = caps2base26num(str);
-	    //	    System.out.println("str="+str+", idx="+idx+", index.length="+index.length);
-	    sf = index[idx];
-	    if (sf == null){
-		index[idx] = new StringFrequency(str,1);
-	    }
-	    else{
-		count = sf.getCount()+1;
-		sf.setCount(count);
-		//		System.out.println(str+" number "+count+": "+sf);
-	    }
-	    //		System.out.println(sf);
-	}
-
-	//order the StringFrequencies in descending (real) order
-	TreeSet tree = new TreeSet();
-	for(int i = 0; i < arrsize; i++){
-	    if (index[i] != null){
-		tree.add(index[i]);
-		//		System.out.println(index[i]);
-	    }
-	}
-
-	//retrieve the objects in any array, recompute and return
-	StringFrequency[] output = new StringFrequency[n];
-	int j = 0;
-	double cnt;
-	for( Iterator itr = tree.iterator(); itr.hasNext() && j < n; ){
-	    sf = (StringFrequency)itr.next();
-	    cnt = sf.getCount();
-	    sf.setFreq( cnt/totalcount );
-	    var = cnt/totalcount - 1.0/arrsize;
-	    sf.setVar( var * var );
-	    output[j++] = sf;
-	    //	    System.out.println(sf);
-	}
-
-	return output;
+	if( len < 1 || len > NgramCounter.MAXN )
+	    throw new IllegalArgumentException("length not in the range [1,"+NgramCounter.MAXN+"]");
+	NgramCounter counter = new NgramCounter(len);
+	counter.add(text);
+	return counter.topFrequencies(n);
     }
 
     public static void main(String[] args){
 	MonoAlphabeticStats mas = new MonoAlphabeticStats();
+	if (args.length == 0){
+	    timeFrequencies(mas);
+	    return;
+	}
 
 	//monograph statistics:
 	CharFrequency[] freqtable = mas.getFrequencies(args[0]);
@@ -205,4 +342,32 @@ public class MonoAlphabeticStats extends webcrypt.character.CharDomains{
 	    System.out.println(sfreqtable[i]);
 	}
     }
+
+    /**
+     * Count a text of a few million mixed-case letters, checking the
+     * counts against upper-casing the text and counting it char by char.
+     */
+    private static void timeFrequencies(MonoAlphabeticStats mas){
+	java.util.Random rnd = new java.util.Random(1);
+	char[] chars = new char[1<<23];
+	for(int i=0; i<chars.length; i++){
+	    int k = rnd.nextInt(8);
+	    chars[i] = (k == 0) ? ' ' : (char)((k < 4 ? 'a' : 'A')+rnd.nextInt(26));
+	}
+	String text = new String(chars);
+	int[] expected = new int[26];
+	String caps = text.toUpperCase();
+	for(int i=0; i<caps.length(); i++)
+	    if (caps.charAt(i) >= 'A' && caps.charAt(i) <= 'Z') expected[caps.charAt(i)-'A']++;
+	for(int run=0; run<3; run++){
+	    long t0 = System.currentTimeMillis();
+	    CharFrequency[] table = mas.getFrequencies(text);
+	    long ms = System.currentTimeMillis() - t0;
+	    boolean ok = true;
+	    for(int i=0; i<table.length; i++)
+		ok &= table[i].getCount() == expected[table[i].getChar()-'A'];
+	    System.out.println("Counted "+text.length()+" chars in "+ms+" ms"
+			       +(ok ? ", counts agree." : ", COUNTS DISAGREE!"));
+	}
+    }
 }
@@ -0,0 +1,357 @@
+package webcrypt.stats;
+
+/**
+ * The NgramCounter class counts the n-grams of a text, for n up to 8.
+ *
+ * Letters are capitalized as MonoAlphabeticStats counts them and
+ * everything else is skipped, and an n-gram is numbered in base 26 ("TH"
+ * is 19*26+7).  The letters are first made numbers 0-25 a block at a time
+ * (see letters()), which also lets several counters share that pass over
+ * the same text.  The number of the current window is kept in a long and
+ * rolled on by taking off the weight of the letter leaving it, one
+ * multiply and an add per letter, so no window is ever made into a
+ * String.  The window carries over from one add() to the next, so a text
+ * may be fed in pieces of any size and counts as if it came in one.
+ *
+ * Up to n = 5 the counts are a dense int[] of 26^n entries (26^5 take
+ * 47MB); above that most n-grams never occur, and the counts are kept in
+ * an open-addressing table of longs and ints that grows with the number
+ * of distinct n-grams seen.
+ *
+ * The most frequent n-grams are picked with a ScoreHeap of the size
+ * asked for, so a table of the top k costs one pass over the counts and
+ * k StringFrequency objects, however many distinct n-grams there are.
+ */
+public class NgramCounter{
+
+    /**
+     * Longest n-grams supported (26^8 still fits an int's range of counts
+     * per n-gram and a long's range of n-gram numbers comfortably).
+     */
+    public final static int MAXN = 8;
+
+    /**
+     * Longest n-grams counted in a dense array.
+     */
+    public final static int MAXDENSE = 5;
+
+    private int n;
+    private long size;         // 26^n
+    private long high;         // 26^(n-1), the weight of a window's first letter
+    private long window = 0;   // number of the last n letters
+    private int seen = 0;      // letters in the window, up to n
+    private long total = 0;    // n-grams counted
+
+    private byte[] caps = null;   // add()'s letters
+
+    private int[] dense = null;
+
+    // open addressing: keys[i] = n-gram number + 1, 0 for an empty slot
+    private long[] keys = null;
+    private int[] counts = null;
+    private int distinct = 0;
+    private int mask;
+
+    public NgramCounter(int n) throws IllegalArgumentException{
+	if (n < 1 || n > MAXN)
+	    throw new IllegalArgumentException("n-grams must have 1 to "+MAXN+" letters.");
+	this.n = n;
+	size = 1;
+	for(int i=0; i<n; i++) size *= 26;
+	high = size/26;
+	if (n <= MAXDENSE)
+	    dense = new int[(int)size];
+	else{
+	    keys = new long[1<<16];
+	    counts = new int[1<<16];
+	    mask = keys.length-1;
+	}
+    }
+
+    public int getN(){ return n; }
+
+    /**
+     * The number of n-grams counted.
+     */
+    public long getTotal(){ return total; }
+
+    /**
+     * Count the n-grams of len chars of text from off, continuing the
+     * window of the previous add().
+     */
+    public void add(char[] text, int off, int len){
+	if (caps == null) caps = new byte[8192*MAXEXPANSION];
+	for(int from=off; from<off+len; from+=8192){
+	    int m = letters(text,from,Math.min(8192,off+len-from),caps);
+	    addLetters(caps,0,m);
+	}
+    }
+
+    /**
+     * Count the n-grams of len letters from off, each a number 0-25 as
+     * letters() makes them, continuing the window of the previous add().
+     * Several counters fed the same text can share one letters() pass.
+     */
+    public void addLetters(byte[] letters, int off, int len){
+	int from = off, end = off+len;
+	for(; seen < n && from < end; from++, seen++)
+	    window = window*26 + letters[from];
+	if (seen == n && from > off){
+	    total++;
+	    if (dense != null) dense[(int)window]++;
+	    else increment(window);
+	}
+	total += end-from;
+	// until the window lies within letters, the letter leaving it is
+	// taken off by a remainder; after that by its weight, with no division
+	int split = Math.min(end,Math.max(from,off+n));
+	for(int i=from; i<split; i++){
+	    window = (window*26 + letters[i]) % size;
+	    if (dense != null) dense[(int)window]++;
+	    else increment(window);
+	}
+	if (dense != null){
+	    int w = (int)window, h = (int)high;
+	    for(int i=split; i<end; i++){
+		w = (w - letters[i-n]*h)*26 + letters[i];
+		dense[w]++;
+	    }
+	    window = w;
+	}
+	else{
+	    for(int i=split; i<end; i++){
+		window = (window - letters[i-n]*high)*26 + letters[i];
+		increment(window);
+	    }
+	}
+    }
+
+    /**
+     * The most letters one char's capital can have (String.toUpperCase()
+     * makes FFI of the ffi ligature).
+     */
+    public final static int MAXEXPANSION = 3;
+
+    /**
+     * Put the letters of len chars of text from off into out as numbers
+     * 0-25, returning how many; out needs room for MAXEXPANSION per char.
+     * Chars are capitalized as MonoAlphabeticStats.count() does it, so the
+     * German sharp s gives SS, and everything that isn't A-Z is skipped.
+     */
+    public static int letters(char[] text, int off, int len, byte[] out){
+	byte[] fold = MonoAlphabeticStats.capsLetters();
+	int k = 0;
+	for(int i=off; i<off+len; i++){
+	    int L = fold[text[i]];
+	    if (L >= 0) out[k++] = (byte)L;
+	    else if (L == MonoAlphabeticStats.EXPANDS)
+		k += MonoAlphabeticStats.expandLetters(text[i],out,k);
+	}
+	return k;
+    }
+
+    /**
+     * Count the n-grams of a String, a block at a time.
+     */
+    public void add(String text){
+	char[] buf = new char[Math.min(8192,Math.max(1,text.length()))];
+	for(int from=0; from<text.length(); from+=buf.length){
+	    int len = Math.min(buf.length,text.length()-from);
+	    text.getChars(from,from+len,buf,0);
+	    add(buf,0,len);
+	}
+    }
+
+    /**
+     * Start a new text: the next letters don't continue the last window.
+     */
+    public void endText(){
+	window = 0;
+	seen = 0;
+    }
+
+    /**
+     * The count of the n-gram with base 26 number gram.
+     */
+    public int count(long gram){
+	if (dense != null) return dense[(int)gram];
+	int slot = slot(gram+1);
+	return (keys[slot] == 0) ? 0 : counts[slot];
+    }
+
+    /**
+     * The number of different n-grams counted.
+     */
+    public int getDistinct(){
+	if (dense == null) return distinct;
+	int out = 0;
+	for(int i=0; i<dense.length; i++) if (dense[i] != 0) out++;
+	return out;
+    }
+
+    private static int hash(long key){
+	key *= 0x9e3779b97f4a7c15L;
+	return (int)(key ^ (key >>> 32));
+    }
+
+    /**
+     * The slot holding key, or the empty slot where it would go.
+     */
+    private int slot(long key){
+	int i = hash(key) & mask;
+	while(keys[i] != 0 && keys[i] != key) i = (i+1) & mask;
+	return i;
+    }
+
+    private void increment(long gram){
+	int i = slot(gram+1);
+	if (keys[i] != 0){
+	    counts[i]++;
+	    return;
+	}
+	keys[i] = gram+1;
+	counts[i] = 1;
+	if (++distinct*4 > keys.length*3) grow();
+    }
+
+    /**
+     * Double the table, keeping it at most 3/4 full.
+     */
+    private void grow(){
+	long[] oldkeys = keys;
+	int[] oldcounts = counts;
+	keys = new long[2*oldkeys.length];
+	counts = new int[2*oldkeys.length];
+	mask = keys.length-1;
+	for(int j=0; j<oldkeys.length; j++){
+	    if (oldkeys[j] == 0) continue;
+	    int i = slot(oldkeys[j]);
+	    keys[i] = oldkeys[j];
+	    counts[i] = oldcounts[j];
+	}
+    }
+
+    /**
+     * The k most frequent n-grams, most frequent first and equal counts in
+     * alphabetical order, as a heap of counts and n-gram numbers.
+     */
+    public ScoreHeap top(int k){
+	ScoreHeap heap = new ScoreHeap(k);
+	if (dense != null){
+	    for(int i=0; i<dense.length; i++)
+		if (dense[i] != 0) heap.offer(dense[i],i);
+	}
+	else{
+	    for(int i=0; i<keys.length; i++)
+		if (keys[i] != 0) heap.offer(counts[i],keys[i]-1);
+	}
+	return heap;
+    }
+
+    /**
+     * The table of the k most frequent n-grams, with the frequency and
+     * variance MonoAlphabeticStats gives them.  Fewer are returned if fewer
+     * than k different n-grams were counted.
+     */
+    public StringFrequency[] topFrequencies(int k){
+	ScoreHeap heap = top(k);
+	long[] ids = heap.ids();
+	double[] scores = heap.scores();
+	StringFrequency[] out = new StringFrequency[ids.length];
+	for(int j=0; j<ids.length; j++){
+	    out[j] = new StringFrequency(gramString(ids[j],n),(int)scores[j]);
+	    double cnt = scores[j];
+	    out[j].setFreq( cnt/total );
+	    double var = cnt/total - 1.0/size;
+	    out[j].setVar( var * var );
+	}
+	return out;
+    }
+
+    /**
+     * The letters of the n-gram with base 26 number gram.
+     */
+    public static String gramString(long gram, int n){
+	char[] out = new char[n];
+	for(int i=n-1; i>=0; i--){
+	    out[i] = (char)('A' + gram % 26);
+	    gram /= 26;
+	}
+	return new String(out);
+    }
+
+    /**
+     * Compare with MonoAlphabeticStats' old way of counting (one String
+     * and one BigInteger per window) on a text file, or on random English
+     * like text, and time the longer n-grams.  The tables only agree if
+     * the letters are all A-Z; the old way also counted other letters,
+     * such as accented ones, into wrong n-grams.
+     */
+    public static void main(String[] args) throws java.io.IOException{
+	String text;
+	if (args.length > 0)
+	    text = webcrypt.io.TextManip.getWholeFile(args[0]);
+	else{
+	    java.util.Random rnd = new java.util.Random(1);
+	    String[] words = new String[]{ "THE", "AND", "OF", "ENIGMA", "WEATHER", "REPORT", "NORTH", "SEA",
+					   "STOP", "ATTACK", "AT", "DAWN", "CONVOY", "SIGHTED", "HEADING", "EAST" };
+	    StringBuffer sb = new StringBuffer();
+	    while(sb.length() < 1<<22) sb.append(words[rnd.nextInt(words.length)]).append(' ');
+	    text = sb.toString();
+	}
+	System.out.println("Text of "+text.length()+" chars.");
+	for(int n=2; n<=4; n++){
+	    long t0 = System.currentTimeMillis();
+	    // the old way dropped the last letter of the text, so give it one more
+	    String old = java.util.Arrays.asList(oldFrequencies(text+"A",n,20)).toString();
+	    long t1 = System.currentTimeMillis();
+	    NgramCounter counter = new NgramCounter(n);
+	    counter.add(text);
+	    String now = java.util.Arrays.asList(counter.topFrequencies(20)).toString();
+	    long t2 = System.currentTimeMillis();
+	    System.out.println(n+"-grams: old way "+(t1-t0)+" ms, counter "+(t2-t1)+" ms, "
+			       +(old.equals(now) ? "same table." : "TABLES DIFFER!"));
+	}
+	for(int n=5; n<=MAXN; n++){
+	    long t0 = System.currentTimeMillis();
+	    NgramCounter counter = new NgramCounter(n);
+	    counter.add(text);
+	    StringFrequency[] table = counter.topFrequencies(5);
+	    long ms = System.currentTimeMillis() - t0;
+	    System.out.print(n+"-grams: "+counter.getDistinct()+" different of "+counter.getTotal()+" in "+ms+" ms, top");
+	    for(int i=0; i<table.length; i++) System.out.print(" "+table[i].getString()+" "+table[i].getCount());
+	    System.out.println();
+	}
+    }
+
+    /**
+     * The counting MonoAlphabeticStats.getMultigramFrequencies() used to
+     * do, kept for main() to compare with.
+     */
+    private static StringFrequency[] oldFrequencies(String text, int len, int n){
+	text = webcrypt.io.StandardizeFile.longLine(text,true);
+	text = text.substring(0,text.length()-1);
+	int totalcount = text.length() - len + 1;
+	int arrsize = (int)Math.round(Math.pow(26,len));
+	StringFrequency[] index = new StringFrequency[arrsize];
+	for(int i = 0; i <= text.length()-len; i++){
+	    String str = text.substring(i,i+len);
+	    int idx = webcrypt.character.CharDomains.caps2base26num(str);
+	    if (index[idx] == null) index[idx] = new StringFrequency(str,1);
+	    else index[idx].setCount(index[idx].getCount()+1);
+	}
+	java.util.TreeSet tree = new java.util.TreeSet();
+	for(int i = 0; i < arrsize; i++) if (index[i] != null) tree.add(index[i]);
+	StringFrequency[] output = new StringFrequency[Math.min(n,tree.size())];
+	int j = 0;
+	for(java.util.Iterator itr = tree.iterator(); itr.hasNext() && j < output.length; ){
+	    StringFrequency sf = (StringFrequency)itr.next();
+	    double cnt = sf.getCount();
+	    sf.setFreq( cnt/totalcount );
+	    double var = cnt/totalcount - 1.0/arrsize;
+	    sf.setVar( var * var );
+	    output[j++] = sf;
+	}
+	return output;
+    }
+}
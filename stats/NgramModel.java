@@ -0,0 +1,106 @@
+package webcrypt.stats;
+
+/**
+ * The NgramModel class scores candidate plaintexts by how English they look:
+ * the score of a text is the sum of the log-probabilities of its n-grams.
+ *
+ * The n-grams of capital letters are numbered in base 26 (so "TH" is
+ * 19*26+7) and the log-probabilities are kept in one array of 26^n entries,
+ * so scoring a letter is one array index.  n-grams never seen in training
+ * get the log-probability of a count of 0.1, so a single odd n-gram can't
+ * sink an otherwise good text.
+ *
+ * A model is trained from a corpus file (any text; only its letters count).
+ * Without a corpus the unigram frequencies of Moby Dick (VigenereStats.FREQ)
+ * are used.
+ */
+import java.io.*;
+
+public class NgramModel{
+
+    /**
+     * Longest n-grams supported (26^5 entries take 47MB).
+     */
+    public final static int MAXN = 5;
+
+    private int n;           // the length of the n-grams
+    private int size;        // 26^n
+    private float[] logp;    // logp[index] = log-probability of the n-gram index
+
+    public int getN(){ return n; }
+
+    /**
+     * The log-probability of the n-gram with base 26 number index.
+     */
+    public float score(int index){ return logp[index]; }
+
+    /**
+     * The score of the n-grams lying within letters[from..to), where each
+     * letter is a number 0-25.
+     */
+    public double score(int[] letters, int from, int to){
+	double out = 0;
+	int index = 0;
+	for(int i=from; i<to; i++){
+	    index = (index*26 + letters[i]) % size;
+	    if (i-from >= n-1) out += logp[index];
+	}
+	return out;
+    }
+
+    private NgramModel(int n, double[] counts, double total){
+	this.n = n;
+	size = counts.length;
+	logp = new float[size];
+	double floor = Math.log(0.1/total);
+	for(int i=0; i<size; i++)
+	    logp[i] = (float)( (counts[i] > 0) ? Math.log(counts[i]/total) : floor );
+    }
+
+    /**
+     * The single letter model of VigenereStats.FREQ.
+     */
+    public static NgramModel unigrams(){
+	double[] counts = new double[26];
+	for(int i=0; i<26; i++) counts[i] = VigenereStats.FREQ[i];
+	return new NgramModel(1,counts,1);
+    }
+
+    /**
+     * Train a model of n-grams on the letters of a corpus file.  Letters are
+     * capitalized and everything else is skipped, so n-grams run across
+     * spaces just like they do in Enigma traffic.
+     */
+    public static NgramModel train(File corpus, int n) throws IOException, IllegalArgumentException{
+	if (n < 1 || n > MAXN)
+	    throw new IllegalArgumentException("n-grams must have 1 to "+MAXN+" letters.");
+	int size = 1;
+	for(int i=0; i<n; i++) size *= 26;
+	double[] counts = new double[size];
+	double total = 0;
+	Reader in = new BufferedReader(new FileReader(corpus));
+	try{
+	    int index = 0, seen = 0;
+	    char[] buf = new char[8192];
+	    for(int len = in.read(buf); len != -1; len = in.read(buf))
+		for(int i=0; i<len; i++){
+		    int L = Character.toUpperCase(buf[i]) - 'A';
+		    if (L < 0 || L >= 26) continue;
+		    index = (index*26 + L) % size;
+		    if (++seen >= n){
+			counts[index]++;
+			total++;
+		    }
+		}
+	}finally{
+	    in.close();
+	}
+	if (total == 0)
+	    throw new IllegalArgumentException(corpus+" has fewer than "+n+" letters.");
+	return new NgramModel(n,counts,total);
+    }
+
+    public String toString(){
+	return (n == 1) ? "unigram" : (n == 2) ? "bigram" : (n == 3) ? "trigram" : n+"-gram";
+    }
+}
@@ -0,0 +1,136 @@
+package webcrypt.stats;
+
+/**
+ * The ParallelRange class splits a range of integers [0,size) into
+ * consecutive chunks and processes the chunks on several threads at once.
+ *
+ * The result of each chunk is stored under the chunk's number, so the
+ * caller gets the results back in range order no matter which thread
+ * finished first.  This keeps the output of a parallel search identical
+ * to the output of the sequential search.
+ *
+ * Subclasses implement processChunk().  Chunks run concurrently, so
+ * processChunk() must not modify state shared with other chunks
+ * (e.g. each chunk of a Bombe search cranks its own Enigma simulators).
+ */
+public abstract class ParallelRange{
+
+    /**
+     * Process the numbers in [from,to) and return the chunk's result.
+     */
+    protected abstract Object processChunk(int from, int to);
+
+    /**
+     * Called in the worker thread as soon as chunk number chunk is done.
+     * Does nothing unless overridden (e.g. to save progress).  Calls for
+     * different chunks may run at the same time.
+     */
+    protected void chunkDone(int chunk, Object result){}
+
+    /**
+     * A sensible default for the number of threads: one per processor.
+     */
+    public static int defaultThreads(){
+	return Runtime.getRuntime().availableProcessors();
+    }
+
+    private int nextchunk;        // the next chunk to be handed out
+    private int[] bounds;         // chunk i is [bounds[i],bounds[i+1])
+    private Object[] results;     // results[i] is the result of chunk i
+    private RuntimeException failure = null; // first exception thrown by a chunk
+
+    /**
+     * Hand out the next unprocessed chunk, or -1 if there are none left.
+     */
+    private synchronized int nextChunk(){
+	while(failure == null && nextchunk < results.length){
+	    if (results[nextchunk] == null) return nextchunk++;
+	    nextchunk++;  // already done
+	}
+	return -1;
+    }
+
+    private synchronized void fail(RuntimeException e){
+	if (failure == null) failure = e;
+    }
+
+    /**
+     * Where chunk i of [0,size) split into numchunks chunks starts (and
+     * chunk i-1 ends).  For callers which hand out chunks themselves.
+     */
+    public static int bound(int size, int numchunks, int i){
+	return (int)((long)size*i/numchunks);
+    }
+
+    /**
+     * Process [0,size) in numchunks chunks of (nearly) equal size using
+     * numthreads threads, and return the chunk results in range order.
+     *
+     * With one thread the chunks are processed in the calling thread.
+     * If any chunk throws a RuntimeException, the remaining chunks are
+     * abandoned and the exception is re-thrown here.
+     */
+    public Object[] run(int size, int numchunks, int numthreads){
+	return run(size,numchunks,numthreads,null);
+    }
+
+    /**
+     * As run(size,numchunks,numthreads), except that the chunks with
+     * done[i] != null are taken to be finished already, with result
+     * done[i], and aren't processed again.  done must have one entry per
+     * chunk (numchunks, or size if that is smaller).
+     */
+    public Object[] run(int size, int numchunks, int numthreads, Object[] done)
+	throws IllegalArgumentException
+    {
+	if (numchunks < 1) numchunks = 1;
+	if (numchunks > size) numchunks = Math.max(size,1);
+	if (numthreads < 1) numthreads = 1;
+	if (numthreads > numchunks) numthreads = numchunks;
+
+	bounds = new int[numchunks+1];
+	for(int i=0; i<=numchunks; i++)
+	    bounds[i] = bound(size,numchunks,i);
+	results = new Object[numchunks];
+	if (done != null){
+	    if (done.length != numchunks)
+		throw new IllegalArgumentException("Expected results of "+numchunks+" chunks, got "+done.length);
+	    System.arraycopy(done,0,results,0,numchunks);
+	}
+	nextchunk = 0;
+	failure = null;
+
+	Runnable worker = new Runnable(){
+		public void run(){
+		    try{
+			for(int i = nextChunk(); i != -1; i = nextChunk()){
+			    results[i] = processChunk(bounds[i],bounds[i+1]);
+			    chunkDone(i,results[i]);
+			}
+		    }catch(RuntimeException e){
+			fail(e);
+		    }
+		}
+	    };
+
+	if (numthreads == 1)
+	    worker.run();
+	else{
+	    Thread[] threads = new Thread[numthreads];
+	    for(int i=0; i<numthreads; i++){
+		threads[i] = new Thread(worker,"ParallelRange-"+i);
+		threads[i].start();
+	    }
+	    for(int i=0; i<numthreads; i++){
+		try{
+		    threads[i].join();
+		}catch(InterruptedException e){
+		    fail(new IllegalStateException("Interrupted while waiting for "+threads[i].getName()));
+		    i--;  // keep waiting, the chunks will stop being handed out
+		}
+	    }
+	}
+	if (failure != null) throw failure;
+	return results;
+    }
+}
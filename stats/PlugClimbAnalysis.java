@@ -0,0 +1,152 @@
+package webcrypt.stats;
+
+/**
+ * The PlugClimbAnalysis class finds the whole plugboard of an Enigma
+ * ciphertext once the rotor setting is known (e.g. from a Bombe stop),
+ * instead of one plug at a time as with PlugAnalysis.
+ *
+ * The argument is the rotor setting, optionally followed by the plugs that
+ * are already known, just like an Enigma key:
+ *
+ *    ZEP_HG_RU
+ *
+ * The rotor setting may include ring settings, as in ZEP-BCA_HG_RU.
+ * The remaining plugs are found by hill-climbing (see PlugboardClimber) and
+ * the result is reported as a complete key together with the decryption.
+ * Options may follow, separated by semicolons:
+ *
+ *    cables=n     use at most n plugs in all (default 10)
+ *    restarts=n   climb from n different plugboards (default 8)
+ *    threads=n    run the climbs on n threads (default: one per processor)
+ *    order=514    the wheel order, by rotor numbers (default 123)
+ *    ngrams=file  score with the n-grams of a corpus file instead of the
+ *                 single letter frequencies of Moby Dick
+ *    n=3          the length of the n-grams counted in the corpus (default 2)
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import webcrypt.math.ScramblerTable;
+import java.io.File;
+import java.io.IOException;
+
+public class PlugClimbAnalysis extends Analyzor{
+
+    public String toString(){
+	return "PlugClimbAnalysis(rotors[_plugs]*[;options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"A correct argument consists of a rotor setting, optionally followed\n"
+	+"by the plug settings already known, and options separated by\n"
+	+"semicolons.  For example:\n"
+	+"                KAX_AW_ES;cables=10;ngrams=corpus.txt";
+
+    private int cables, restarts, numthreads, ngramlength;
+    private int[] wheelOrder;
+    private File corpus;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	String keystr = processOptions(arg);
+	EnigmaKey k;
+	try{
+	    k = new EnigmaKey(keystr);
+	}catch(KeyCreationException e){
+	    throw new IllegalArgumentException(errstr);
+	}
+	NgramModel model;
+	try{
+	    model = (corpus == null) ? NgramModel.unigrams() : NgramModel.train(corpus,ngramlength);
+	}catch(IOException e){
+	    throw new IllegalArgumentException("Could not read n-grams from "+corpus+":\n"+e);
+	}
+
+	char[] letters = TextManip.letters(text);
+	if (letters.length < 2)
+	    throw new IllegalArgumentException("The ciphertext has no letters to analyze.");
+	int[] cipher = new int[letters.length];
+	for(int i=0; i<letters.length; i++) cipher[i] = letters[i]-'A';
+
+	Enigma enigma = new Enigma(wheelOrder);
+	enigma.setup(k);
+	PlugboardClimber climber = new PlugboardClimber(ScramblerTable.forWheelOrder(wheelOrder),
+							enigma.nextStates(letters.length),cipher,model);
+	int[] knownPlugs = new int[26];
+	for(int L=0; L<26; L++) knownPlugs[L] = L;
+	char[][] plugboard = k.getPlugboard();
+	for(int i=0; i<plugboard.length; i++){
+	    knownPlugs[plugboard[i][0]-'A'] = plugboard[i][1]-'A';
+	    knownPlugs[plugboard[i][1]-'A'] = plugboard[i][0]-'A';
+	}
+	if (plugboard.length > cables)
+	    throw new IllegalArgumentException(errstr+"\nMore plugs known than cables allowed!!!");
+	climber.setKnownPlugs(knownPlugs);
+	climber.setCables(cables);
+
+	long t0 = System.currentTimeMillis();
+	int[] plug = climber.climb(restarts,numthreads);
+	long ms = System.currentTimeMillis() - t0;
+
+	String best = new String(k.getOrientations());
+	String rings = new String(k.getRings());
+	if (!rings.equals("AAA")) best += "-"+rings;
+	for(int L=0; L<26; L++)
+	    if (plug[L] > L) best += "_"+(char)('A'+L)+(char)('A'+plug[L]);
+	EnigmaKey bestKey;
+	try{
+	    bestKey = new EnigmaKey(best);
+	}catch(KeyCreationException e){
+	    throw new IllegalStateException("THIS SHOULD NEVER HAPPEN: climbed to an invalid key "+best);
+	}
+
+	StringBuffer out = new StringBuffer();
+	out.append("Best key: "+best+"\n");
+	out.append("Index of coincidence: "+climber.indexOfCoincidence(plug)+"\n");
+	out.append("Average "+model+" score per letter: "+climber.score(plug)/letters.length+"\n");
+	out.append(restarts+" climbs in "+ms+" ms\n\nDecryption:\n");
+	out.append(new Enigma(wheelOrder).decrypt(new StringBuffer(text.toString()),bestKey));
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    /**
+     * Read the options after the key and return the key.  The defaults are
+     * put back first since the GUI reuses the same object.
+     */
+    private String processOptions(String arg) throws IllegalArgumentException{
+	cables = 10;
+	restarts = 8;
+	numthreads = ParallelRange.defaultThreads();
+	wheelOrder = Enigma.DEFAULTWHEELORDER;
+	corpus = null;
+	ngramlength = 2;
+
+	int semi = arg.indexOf(';');
+	if (semi == -1) return arg.trim();
+	String[][] options = options(arg.substring(semi+1));
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("order")){
+		try{
+		    wheelOrder = ScramblerTable.parseWheelOrder(value);
+		}catch(IllegalArgumentException e){
+		    throw new IllegalArgumentException(errstr+"\nBad wheel order "+value+": "+e.getMessage());
+		}
+	    }
+	    else if (name.equals("ngrams") && value.length() > 0)
+		corpus = new File(value);
+	    else if (name.equals("cables"))
+		cables = atLeast(errstr,name,value,0);
+	    else if (name.equals("restarts"))
+		restarts = positive(errstr,name,value);
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else if (name.equals("n"))
+		ngramlength = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+	if (cables > 13)
+	    throw new IllegalArgumentException(errstr+"\nAn Enigma has room for at most 13 cables!!!");
+	return arg.substring(0,semi).trim();
+    }
+}
@@ -0,0 +1,349 @@
+package webcrypt.stats;
+
+/**
+ * The PlugboardClimber class recovers the plugboard of an Enigma message
+ * whose rotor setting is known, by hill-climbing over plug pairs.
+ *
+ * A move toggles the pair of letters x,y: if x and y are plugged together
+ * they are unplugged, otherwise they are unplugged from whatever they were
+ * plugged to and plugged together.  A move changes the plugboard of at most
+ * four letters.  Moves are tried for every pair and kept when they raise the
+ * score, until a whole pass over the pairs gives no improvement.
+ *
+ * The climb has two stages.
+ *
+ * 1) Index of coincidence.  Letter i of the plaintext is P(S_i(P(c_i))), with
+ *    P the plugboard and S_i the scrambler.  The last P only renames letters,
+ *    so the index of coincidence only depends on the counts of S_i(P(c_i)).
+ *    These are sums of rows of the matrix
+ *
+ *        G[x][u][z] = number of positions i with c_i = x and S_i(u) = z
+ *
+ *    namely counts[z] = sum over x of G[x][P(x)][z].  A move changes P(x) for
+ *    at most four x, so a move is scored with four row updates of 26 counts,
+ *    however long the text.
+ *
+ * 2) n-grams.  The plaintext is scored with an NgramModel.  A move only
+ *    changes the plaintext where c_i or S_i(P(c_i)) is one of the letters
+ *    it touches, so only the n-grams over those positions are re-scored.
+ *
+ * The climb is restarted from several random plugboards, and the restarts run
+ * on separate threads (see ParallelRange).  Every restart has its own random
+ * seed, so the result doesn't depend on the number of threads.
+ */
+import webcrypt.math.ScramblerTable;
+import java.util.Random;
+
+public class PlugboardClimber{
+
+    private ScramblerTable table;
+    private int[] states;     // scrambler state of each letter
+    private int[] cipher;     // ciphertext letters, 0-25
+    private int len;
+    private NgramModel model;
+    private int cables = 10;  // most plugs allowed, the known ones included
+    private int[] known;      // known[L] = partner of L in a known plug, or L
+    private int[][][] G;      // see above
+    private int[][] byCipher; // byCipher[x] = the positions with c_i = x
+    private long seed = 0;
+
+    /**
+     * Prepare a climb on the ciphertext letters (0-25), letter i being
+     * encrypted at scrambler orientation states[i] of the table.
+     */
+    public PlugboardClimber(ScramblerTable table, int[] states, int[] cipher, NgramModel model)
+	throws IllegalArgumentException
+    {
+	if (states.length != cipher.length)
+	    throw new IllegalArgumentException("Need one rotor state per ciphertext letter.");
+	this.table = table;
+	this.states = states;
+	this.cipher = cipher;
+	this.model = model;
+	len = cipher.length;
+	known = new int[26];
+	for(int L=0; L<26; L++) known[L] = L;
+
+	G = new int[26][26][26];
+	int[] count = new int[26];
+	for(int i=0; i<len; i++){
+	    count[cipher[i]]++;
+	    int[][] g = G[cipher[i]];
+	    for(int u=0; u<26; u++)
+		g[u][table.permute(states[i],u)]++;
+	}
+	byCipher = new int[26][];
+	for(int x=0; x<26; x++) byCipher[x] = new int[count[x]];
+	int[] fill = new int[26];
+	for(int i=0; i<len; i++) byCipher[cipher[i]][fill[cipher[i]]++] = i;
+    }
+
+    /**
+     * The largest number of plugs to use (Enigma operators used 10).
+     */
+    public void setCables(int cables){ this.cables = cables; }
+
+    /**
+     * Plugs that are already known: plug[L] is the partner of L, or L.
+     * The climb leaves these letters alone.
+     */
+    public void setKnownPlugs(int[] plug){ known = plug.clone(); }
+
+    public void setSeed(long seed){ this.seed = seed; }
+
+    /**
+     * The index of coincidence of the decryption with plugboard plug.
+     */
+    public double indexOfCoincidence(int[] plug){
+	int[] counts = new int[26];
+	for(int x=0; x<26; x++)
+	    for(int z=0; z<26; z++) counts[z] += G[x][plug[x]][z];
+	return VigenereStats.indexOfCoincidence(counts,len);
+    }
+
+    /**
+     * The n-gram score of the decryption with plugboard plug.
+     */
+    public double score(int[] plug){
+	return model.score(decrypt(plug),0,len);
+    }
+
+    /**
+     * The plaintext letters (0-25) under plugboard plug.
+     */
+    public int[] decrypt(int[] plug){
+	int[] out = new int[len];
+	for(int i=0; i<len; i++)
+	    out[i] = plug[table.permute(states[i],plug[cipher[i]])];
+	return out;
+    }
+
+    /**
+     * Run restarts climbs on numthreads threads and return the plugboard
+     * with the best n-gram score (plug[L] = partner of L, or L).  The first
+     * climb starts from the known plugs alone, the others from random
+     * plugboards.
+     */
+    public int[] climb(int restarts, int numthreads){
+	ParallelRange search = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    int[] best = null;
+		    double bestScore = 0;
+		    for(int r=from; r<to; r++){
+			int[] plug = new Climb(r).run();
+			double s = score(plug);
+			if (best == null || s > bestScore){
+			    best = plug;
+			    bestScore = s;
+			}
+		    }
+		    return best;
+		}
+	    };
+	Object[] results = search.run(restarts,restarts,numthreads);
+	int[] best = null;
+	double bestScore = 0;
+	for(int i=0; i<results.length; i++){
+	    int[] plug = (int[])results[i];
+	    double s = score(plug);
+	    if (best == null || s > bestScore){
+		best = plug;
+		bestScore = s;
+	    }
+	}
+	return best;
+    }
+
+    /**
+     * One climb with its own work arrays, so that climbs can run at once.
+     */
+    private class Climb{
+	private int[] plug = known.clone();
+	private int[] changed = new int[4], old = new int[4];  // letters touched by the last move
+	private int numchanged;
+
+	Climb(int restart){
+	    if (restart == 0) return;
+	    Random rnd = new Random(seed + restart);
+	    int extra = rnd.nextInt(cables - plugs() + 1);
+	    for(int k=0; k<extra; k++){
+		int x = rnd.nextInt(26), y = rnd.nextInt(26);
+		if (x != y && plug[x] == x && plug[y] == y && known[x] == x && known[y] == y){
+		    plug[x] = y;
+		    plug[y] = x;
+		}
+	    }
+	}
+
+	private int plugs(){
+	    int out = 0;
+	    for(int L=0; L<26; L++) if (plug[L] > L) out++;
+	    return out;
+	}
+
+	/**
+	 * Toggle the pair x,y, recording the old plugs in changed[] and old[].
+	 * Returns false (changing nothing) if that would use too many cables.
+	 */
+	private boolean toggle(int x, int y){
+	    int px = plug[x], py = plug[y];
+	    numchanged = 0;
+	    if (px == y){
+		record(x); record(y);
+		plug[x] = x;
+		plug[y] = y;
+		return true;
+	    }
+	    if (plugs() - (px != x ? 1 : 0) - (py != y ? 1 : 0) + 1 > cables) return false;
+	    record(x); record(y);
+	    if (px != x){ record(px); plug[px] = px; }
+	    if (py != y){ record(py); plug[py] = py; }
+	    plug[x] = y;
+	    plug[y] = x;
+	    return true;
+	}
+
+	private void record(int L){
+	    changed[numchanged] = L;
+	    old[numchanged++] = plug[L];
+	}
+
+	private void undo(){
+	    for(int k=numchanged-1; k>=0; k--) plug[changed[k]] = old[k];
+	}
+
+	int[] run(){
+	    climbCoincidence();
+	    climbNgrams();
+	    return plug;
+	}
+
+	/**
+	 * Stage 1: maximize the sum of counts[z]*(counts[z]-1), which is the
+	 * index of coincidence times a constant.
+	 */
+	private void climbCoincidence(){
+	    int[] counts = new int[26];
+	    for(int x=0; x<26; x++)
+		for(int z=0; z<26; z++) counts[z] += G[x][plug[x]][z];
+	    long current = coincidences(counts);
+	    boolean improved = true;
+	    while(improved){
+		improved = false;
+		for(int x=0; x<26; x++){
+		    if (known[x] != x) continue;
+		    for(int y=x+1; y<26; y++){
+			if (known[y] != y || !toggle(x,y)) continue;
+			for(int k=0; k<numchanged; k++){
+			    int[] before = G[changed[k]][old[k]], after = G[changed[k]][plug[changed[k]]];
+			    for(int z=0; z<26; z++) counts[z] += after[z] - before[z];
+			}
+			long s = coincidences(counts);
+			if (s > current){
+			    current = s;
+			    improved = true;
+			    continue;
+			}
+			for(int k=0; k<numchanged; k++){
+			    int[] before = G[changed[k]][old[k]], after = G[changed[k]][plug[changed[k]]];
+			    for(int z=0; z<26; z++) counts[z] -= after[z] - before[z];
+			}
+			undo();
+		    }
+		}
+	    }
+	}
+
+	private long coincidences(int[] counts){
+	    long out = 0;
+	    for(int z=0; z<26; z++) out += (long)counts[z]*(counts[z]-1);
+	    return out;
+	}
+
+	/**
+	 * Stage 2: maximize the n-gram score, re-scoring only the n-grams
+	 * over positions whose plaintext a move changes.
+	 */
+	private void climbNgrams(){
+	    int n = model.getN();
+	    int[] mid = new int[len], plain = new int[len];  // S_i(P(c_i)) and P(mid[i])
+	    for(int i=0; i<len; i++){
+		mid[i] = table.permute(states[i],plug[cipher[i]]);
+		plain[i] = plug[mid[i]];
+	    }
+	    int[][] byMid = new int[26][len];   // positions of each mid letter
+	    int[] numMid = new int[26];
+	    sortByMid(mid,byMid,numMid);
+
+	    int[] pos = new int[len], starts = new int[len];
+	    int[] oldMid = new int[len], oldPlain = new int[len];
+	    int[] posMark = new int[len], startMark = new int[len];
+	    int stamp = 0;
+	    boolean improved = true;
+	    while(improved){
+		improved = false;
+		for(int x=0; x<26; x++){
+		    if (known[x] != x) continue;
+		    for(int y=x+1; y<26; y++){
+			if (known[y] != y || !toggle(x,y)) continue;
+			stamp++;
+			// the positions whose plaintext may change
+			int numpos = 0;
+			for(int k=0; k<numchanged; k++){
+			    int L = changed[k];
+			    for(int j=0; j<byCipher[L].length; j++){
+				int i = byCipher[L][j];
+				if (posMark[i] != stamp){ posMark[i] = stamp; pos[numpos++] = i; }
+			    }
+			    for(int j=0; j<numMid[L]; j++){
+				int i = byMid[L][j];
+				if (posMark[i] != stamp){ posMark[i] = stamp; pos[numpos++] = i; }
+			    }
+			}
+			// the n-grams over those positions
+			int numstarts = 0;
+			for(int j=0; j<numpos; j++)
+			    for(int s = Math.max(pos[j]-n+1,0); s <= pos[j] && s+n <= len; s++)
+				if (startMark[s] != stamp){ startMark[s] = stamp; starts[numstarts++] = s; }
+			double before = ngrams(plain,starts,numstarts,n);
+			for(int j=0; j<numpos; j++){
+			    int i = pos[j];
+			    oldMid[j] = mid[i];
+			    oldPlain[j] = plain[i];
+			    mid[i] = table.permute(states[i],plug[cipher[i]]);
+			    plain[i] = plug[mid[i]];
+			}
+			if (ngrams(plain,starts,numstarts,n) > before){
+			    improved = true;
+			    sortByMid(mid,byMid,numMid);
+			    continue;
+			}
+			for(int j=0; j<numpos; j++){
+			    mid[pos[j]] = oldMid[j];
+			    plain[pos[j]] = oldPlain[j];
+			}
+			undo();
+		    }
+		}
+	    }
+	}
+
+	private void sortByMid(int[] mid, int[][] byMid, int[] numMid){
+	    for(int L=0; L<26; L++) numMid[L] = 0;
+	    for(int i=0; i<len; i++) byMid[mid[i]][numMid[mid[i]]++] = i;
+	}
+
+	/**
+	 * The total score of the n-grams starting at starts[0..num).
+	 */
+	private double ngrams(int[] plain, int[] starts, int num, int n){
+	    double out = 0;
+	    for(int j=0; j<num; j++){
+		int index = 0;
+		for(int k=starts[j]; k<starts[j]+n; k++) index = index*26 + plain[k];
+		out += model.score(index);
+	    }
+	    return out;
+	}
+    }
+}
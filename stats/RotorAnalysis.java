@@ -0,0 +1,151 @@
+package webcrypt.stats;
+
+/**
+ * The RotorAnalysis class looks for the rotor setting of an Enigma
+ * ciphertext without a crib.  The ciphertext is decrypted at every rotor
+ * start with an empty plugboard and each decryption is scored by its index
+ * of coincidence.  Although the plugboard is missing, the right rotor start
+ * still leaves the letters that aren't plugged in place, so its decryption
+ * tends to look less random than the others; the best starts are listed
+ * and can be handed to PlugClimbAnalysis.
+ *
+ * Nothing is decrypted into a String: the letters of each candidate
+ * decryption are only counted, with one ScramblerTable lookup per letter, and
+ * the index of coincidence is computed from the counts.  The best candidates
+ * are kept in a bounded ScoreHeap, and the rotor starts are split into
+ * ranges searched on several threads (see ParallelRange).
+ *
+ * The argument consists only of options, separated by semicolons (an
+ * empty argument searches the default wheel order):
+ *
+ *    orders=all   search every wheel order, or a list e.g. orders=123,514
+ *    best=n       list the n best rotor starts (default 10)
+ *    threads=n    search on n threads (default: one per processor)
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import webcrypt.math.ScramblerTable;
+
+public class RotorAnalysis extends Analyzor{
+
+    public String toString(){
+	return "RotorAnalysis([options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The argument consists of options separated by semicolons, e.g.\n"
+	+"                orders=all;best=20;threads=4\n"
+	+"or is left empty to search the default wheel order.";
+
+    private final static int NUMPOSITIONS = ScramblerTable.NUMSTATES;
+
+    private int[][] wheelOrders;
+    private int numbest, numthreads;
+
+    private ScramblerTable[] tables;
+    private int[][] crankStates;   // crankStates[o][t] = orientation after t+1 cranks from AAA
+    private int[] cipher;          // ciphertext letters 0-25
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	char[] letters = TextManip.letters(text);
+	if (letters.length < 2)
+	    throw new IllegalArgumentException("The ciphertext has no letters to analyze.");
+	cipher = new int[letters.length];
+	for(int i=0; i<letters.length; i++) cipher[i] = letters[i]-'A';
+
+	long t0 = System.currentTimeMillis();
+	tables = new ScramblerTable[wheelOrders.length];
+	crankStates = new int[wheelOrders.length][];
+	for(int o=0; o<wheelOrders.length; o++){
+	    tables[o] = ScramblerTable.forWheelOrder(wheelOrders[o]);
+	    Enigma indexEnigma = new Enigma(wheelOrders[o]);
+	    try{
+		indexEnigma.setup(new EnigmaKey("AAA"));
+	    }catch(KeyCreationException e){
+		System.out.println("In RotorAnalysis.java:  THIS SHOULD NEVER HAVE HAPPENED!!!!!!");
+	    }
+	    crankStates[o] = indexEnigma.nextStates(NUMPOSITIONS);
+	}
+
+	ParallelRange search = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    return searchRange(from,to);
+		}
+	    };
+	int size = wheelOrders.length*NUMPOSITIONS;
+	Object[] heaps = search.run(size, Math.max(numthreads*8,wheelOrders.length), numthreads);
+	ScoreHeap best = new ScoreHeap(numbest);
+	for(int i=0; i<heaps.length; i++) best.merge((ScoreHeap)heaps[i]);
+	long ms = System.currentTimeMillis() - t0;
+
+	StringBuffer out = new StringBuffer("Searched "+size+" rotor starts in "+ms+" ms.\n");
+	out.append("Best "+best.size()+" by index of coincidence (empty plugboard):\n");
+	long[] ids = best.ids();
+	double[] scores = best.scores();
+	for(int i=0; i<ids.length; i++){
+	    int o = (int)(ids[i] / NUMPOSITIONS), s = (int)(ids[i] % NUMPOSITIONS);
+	    int state = (s == 0) ? 0 : crankStates[o][s-1];
+	    out.append("\n"+rotorString(state)
+		       +(wheelOrders.length > 1 ? " with rotors "+Bombe.orderString(wheelOrders[o]) : "")
+		       +"\tI_c = "+scores[i]);
+	}
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    /**
+     * Score the rotor starts first through last-1, numbered
+     * o*NUMPOSITIONS + s where s counts cranks from AAA.
+     */
+    private ScoreHeap searchRange(int first, int last){
+	ScoreHeap heap = new ScoreHeap(numbest);
+	int[] counts = new int[26];
+	int n = cipher.length;
+	for(int id=first; id<last; id++){
+	    int o = id / NUMPOSITIONS, s = id % NUMPOSITIONS;
+	    ScramblerTable table = tables[o];
+	    int[] states = crankStates[o];
+	    for(int L=0; L<26; L++) counts[L] = 0;
+	    // letter i is encrypted s+i+1 cranks after AAA
+	    int t = s;
+	    for(int i=0; i<n; i++){
+		counts[table.permute(states[t],cipher[i])]++;
+		if (++t == NUMPOSITIONS) t = 0;
+	    }
+	    heap.offer(VigenereStats.indexOfCoincidence(counts,n),id);
+	}
+	return heap;
+    }
+
+    private static String rotorString(int state){
+	return ""+(char)('A'+state/676)+(char)('A'+(state/26)%26)+(char)('A'+state%26);
+    }
+
+    /**
+     * Read the options; any not given go back to their defaults.
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	wheelOrders = new int[][]{ Enigma.DEFAULTWHEELORDER };
+	numbest = 10;
+	numthreads = ParallelRange.defaultThreads();
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("orders")){
+		try{
+		    wheelOrders = ScramblerTable.parseWheelOrders(value);
+		}catch(IllegalArgumentException e){
+		    throw new IllegalArgumentException(errstr+"\n"+e.getMessage()+"!!!");
+		}
+	    }
+	    else if (name.equals("best"))
+		numbest = positive(errstr,name,value);
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+    }
+}
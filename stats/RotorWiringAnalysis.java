@@ -0,0 +1,480 @@
+package webcrypt.stats;
+
+/**
+ * The RotorWiringAnalysis class recovers the wiring of an unknown fast
+ * rotor (rotor a) from known plaintext, when the key of each message and
+ * the other two rotors are known, as they were to Rejewski once the daily
+ * keys had been bought.
+ *
+ * Write W for the unknown wiring and k_i for the offset (orientation less
+ * ring) of rotor a at letter i.  An EnigmaPerm sends x to W(x-k) on the
+ * way in and y to W^-1(y)+k on the way out, so with p the plugboard and
+ * M_i the rest of the machine at letter i (rotor b, rotor c, the reflector
+ * and back, an involution known from the key)
+ *
+ *    p(C_i) = W^-1(M_i(W(p(P_i)-k_i))) + k_i
+ *
+ * that is, with u = p(P_i)-k_i and v = p(C_i)-k_i,
+ *
+ *    W(v) = M_i(W(u))
+ *
+ * Every letter of known plaintext ties the images of two points of W
+ * through a known involution.  Guessing W at one point therefore fixes it
+ * at every point reachable through these ties, and W must stay a
+ * permutation, so a wrong guess is usually refuted at once.  The search
+ * guesses W at the most tied point still open, propagates, and backs up
+ * on a contradiction; letters the texts never tie are left open and shown
+ * as '?'.
+ *
+ * The notch of the unknown rotor moves rotor b, so it changes every M_i
+ * after the first turnover; all 26 notches are tried unless one is given.
+ * The search starts from the 26 notches times the 26 guesses at the first
+ * point, which are spread over several threads (see ParallelRange).  Each
+ * wiring found is checked by enciphering every plaintext with it.
+ *
+ * The text holds one message per line, as the key (see EnigmaKey), a
+ * colon, the plaintext, an '=' and the ciphertext, e.g.
+ *
+ *    JMX_AT_EQ: ANXOBERKOMMANDO = QWERTZUIOPASDFG
+ *
+ * and the argument consists of options separated by semicolons:
+ *
+ *    rotors=23    the rotor numbers of rotors b and c (default 23)
+ *    notch=Q      the notch of the unknown rotor, if known
+ *    max=n        stop after n wirings (default 10)
+ *    threads=n    search on n threads (default: one per processor)
+ *
+ * main() checks the simulation against Enigma, recovers rotor I from
+ * Enigma's own output, and times the recovery of random wirings from
+ * texts of a few lengths.
+ */
+import webcrypt.crypto.*;
+import webcrypt.io.TextManip;
+import webcrypt.math.EnigmaPerm;
+import webcrypt.math.IllegalPermutationException;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+
+public class RotorWiringAnalysis extends Analyzor implements EnigmaDefinitions{
+
+    public String toString(){
+	return "RotorWiringAnalysis([options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The text holds one message per line: its key, a colon, the plaintext,\n"
+	+"an '=' and the ciphertext, e.g.\n"
+	+"                JMX_AT_EQ: ANXOBERKOMMANDO = QWERTZUIOPASDFG\n"
+	+"and the argument consists of options separated by semicolons, e.g.\n"
+	+"                rotors=45;notch=Q;threads=4\n"
+	+"or is left empty.";
+
+    private int[] knownRotors;   // indices in ROTORS of rotors b and c
+    private int notch;           // notch of the unknown rotor, or -1 to try all
+    private int maxsolutions, numthreads;
+
+    private EnigmaKey[] keys;
+    private char[][] plaintexts, ciphertexts;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	readMessages(text);
+	final int[] notches = (notch == -1) ? new int[26] : new int[]{ notch };
+	if (notch == -1) for(int i=0; i<26; i++) notches[i] = i;
+
+	long t0 = System.currentTimeMillis();
+	final Ties[] ties = new Ties[notches.length];
+	int numletters = 0;
+	for(int n=0; n<notches.length; n++) ties[n] = new Ties(notches[n]);
+	for(int m=0; m<plaintexts.length; m++) numletters += plaintexts[m].length;
+
+	ParallelRange search = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    ArrayList found = new ArrayList();
+		    for(int t=from; t<to; t++){
+			Solver solver = new Solver(ties[t/26],maxsolutions);
+			solver.start(t%26);
+			for(int i=0; i<solver.solutions.size(); i++)
+			    found.add(new Object[]{ solver.solutions.get(i), Integer.valueOf(notches[t/26]) });
+		    }
+		    return found;
+		}
+	    };
+	Object[] chunks = search.run(26*notches.length, 26*notches.length, numthreads);
+	TreeMap wirings = new TreeMap();   // wiring -> the notches it works with
+	for(int c=0; c<chunks.length; c++){
+	    ArrayList found = (ArrayList)chunks[c];
+	    for(int i=0; i<found.size(); i++){
+		Object[] f = (Object[])found.get(i);
+		String wiring = wiringString((int[])f[0]);
+		String known = (String)wirings.get(wiring);
+		char N = (char)('A'+((Integer)f[1]).intValue());
+		wirings.put(wiring,(known == null) ? ""+N : known+N);
+	    }
+	}
+	long ms = System.currentTimeMillis() - t0;
+
+	StringBuffer out = new StringBuffer("Searched "+notches.length+(notches.length == 1 ? " notch" : " notches")
+					    +" with "+plaintexts.length+" messages of "+numletters
+					    +" letters in all in "+ms+" ms.\n");
+	if (wirings.size() > maxsolutions)
+	    out.append("Stopped after "+maxsolutions+" wirings; more known plaintext would narrow them down.\n");
+	out.append("Wirings of the unknown rotor found: "+Math.min(wirings.size(),maxsolutions)
+		   +" (letters the texts don't tie down are shown as ?)\n");
+	int shown = 0;
+	for(java.util.Iterator itr = wirings.keySet().iterator(); itr.hasNext() && shown < maxsolutions; shown++){
+	    String wiring = (String)itr.next();
+	    String found = (String)wirings.get(wiring);
+	    out.append("\n"+wiring+"\tnotch "+(found.length() == 1 ? found : "any of "+found));
+	    for(int r=0; r<ROTORS.length; r++)
+		if (ROTORS[r].equals(wiring)) out.append("\t= rotor "+(r+1));
+	    if (wiring.indexOf('?') == -1){
+		int wrong = 0;
+		for(int m=0; m<plaintexts.length; m++){
+		    char[] check = encrypt(wiring,found.charAt(0),knownRotors,keys[m],plaintexts[m]);
+		    for(int i=0; i<check.length; i++) if (check[i] != ciphertexts[m][i]) wrong++;
+		}
+		out.append(wrong == 0 ? "\tenciphers every plaintext correctly"
+			   : "\tTHIS SHOULD NEVER HAPPEN: "+wrong+" letters enciphered wrongly");
+	    }
+	}
+	text.delete(0,text.length());
+	text.append(out.toString());
+    }
+
+    /**
+     * The ties of every letter of known plaintext for one notch of the
+     * unknown rotor: the points u and v of W and the involution M with
+     * W(v) = M(W(u)), listed at both u and v.
+     */
+    private class Ties{
+	int[][] involutions;      // the distinct M_i
+	int[][] partner, through; // tie j at point u: W(partner[u][j]) = involutions[through[u][j]](W(u))
+	int mostTied;             // the point with the most ties
+
+	Ties(int notch){
+	    ArrayList ms = new ArrayList();
+	    java.util.HashMap index = new java.util.HashMap();
+	    ArrayList[] partners = new ArrayList[26], throughs = new ArrayList[26];
+	    for(int u=0; u<26; u++){ partners[u] = new ArrayList(); throughs[u] = new ArrayList(); }
+	    for(int m=0; m<plaintexts.length; m++){
+		EnigmaPerm b = rotor(knownRotors[0]), c = rotor(knownRotors[1]), p = plugboard(keys[m]);
+		char[] o = keys[m].getOrientations(), rg = keys[m].getRings();
+		int oa = o[0]-'A', ra = rg[0]-'A';
+		b.setOrientation(o[1]); b.setRing(rg[1]);
+		c.setOrientation(o[2]); c.setRing(rg[2]);
+		for(int i=0; i<plaintexts[m].length; i++){
+		    // step as Enigma.step() does, with the unknown rotor's notch
+		    oa = (oa+1) % 26;
+		    if (oa == notch){
+			b.rotate();
+			if (b.notchPresent()) c.rotate();
+		    }
+		    String state = b.getOrientation()+","+c.getOrientation()+","+b.getRing()+","+c.getRing();
+		    Integer id = (Integer)index.get(state);
+		    if (id == null){
+			id = Integer.valueOf(ms.size());
+			index.put(state,id);
+			ms.add(middle(b,c));
+		    }
+		    int k = (oa - ra + 26) % 26;
+		    int u = (p.permute(plaintexts[m][i])-'A'-k+26) % 26;
+		    int v = (p.permute(ciphertexts[m][i])-'A'-k+26) % 26;
+		    // W(v) = M(W(u)) and, M being an involution, W(u) = M(W(v))
+		    partners[u].add(Integer.valueOf(v)); throughs[u].add(id);
+		    partners[v].add(Integer.valueOf(u)); throughs[v].add(id);
+		}
+	    }
+	    involutions = new int[ms.size()][];
+	    for(int i=0; i<involutions.length; i++) involutions[i] = (int[])ms.get(i);
+	    partner = new int[26][];
+	    through = new int[26][];
+	    mostTied = 0;
+	    for(int u=0; u<26; u++){
+		partner[u] = new int[partners[u].size()];
+		through[u] = new int[partners[u].size()];
+		for(int j=0; j<partner[u].length; j++){
+		    partner[u][j] = ((Integer)partners[u].get(j)).intValue();
+		    through[u][j] = ((Integer)throughs[u].get(j)).intValue();
+		}
+		if (partner[u].length > partner[mostTied].length) mostTied = u;
+	    }
+	}
+    }
+
+    /**
+     * M = b^-1 c^-1 r c b at the rotors' current orientations, as an array.
+     */
+    private static int[] middle(EnigmaPerm b, EnigmaPerm c){
+	EnigmaPerm r = reflector();
+	int[] out = new int[26];
+	for(int s=0; s<26; s++)
+	    out[s] = b.inversePermute(c.inversePermute(r.permute(c.permute(b.permute((char)('A'+s))))))-'A';
+	return out;
+    }
+
+    /**
+     * Branch and bound over the wiring W at the points the ties reach.
+     */
+    private static class Solver{
+	Ties ties;
+	int max;
+	int[] W = new int[26], Winv = new int[26];
+	int[] trail = new int[26];     // points in the order they were set
+	int trailLen = 0;
+	int[] stack = new int[2*26*26];
+	ArrayList solutions = new ArrayList();
+
+	Solver(Ties ties, int max){
+	    this.ties = ties;
+	    this.max = max;
+	    for(int i=0; i<26; i++) W[i] = Winv[i] = -1;
+	}
+
+	/**
+	 * Search the wirings with W at the most tied point equal to value.
+	 */
+	void start(int value){
+	    if (assign(ties.mostTied,value)) search();
+	}
+
+	/**
+	 * Set W(u) = value and everything the ties then force.  Returns
+	 * false on a contradiction, leaving the caller to undo().
+	 */
+	boolean assign(int u, int value){
+	    int top = 0;
+	    stack[top++] = u;
+	    stack[top++] = value;
+	    while(top > 0){
+		int y = stack[--top], x = stack[--top];
+		if (W[x] == y) continue;
+		if (W[x] != -1 || Winv[y] != -1) return false;
+		W[x] = y;
+		Winv[y] = x;
+		trail[trailLen++] = x;
+		int[] partner = ties.partner[x], through = ties.through[x];
+		for(int j=0; j<partner.length; j++){
+		    int z = ties.involutions[through[j]][y];
+		    int w = W[partner[j]];
+		    if (w == z) continue;
+		    if (w != -1) return false;
+		    if (top+2 > stack.length){
+			int[] bigger = new int[2*stack.length];
+			System.arraycopy(stack,0,bigger,0,top);
+			stack = bigger;
+		    }
+		    stack[top++] = partner[j];
+		    stack[top++] = z;
+		}
+	    }
+	    return true;
+	}
+
+	void undo(int mark){
+	    while(trailLen > mark){
+		int x = trail[--trailLen];
+		Winv[W[x]] = -1;
+		W[x] = -1;
+	    }
+	}
+
+	void search(){
+	    if (solutions.size() >= max) return;
+	    int u = -1;
+	    for(int x=0; x<26; x++)
+		if (W[x] == -1 && ties.partner[x].length > 0 && (u == -1 || ties.partner[x].length > ties.partner[u].length))
+		    u = x;
+	    if (u == -1){
+		// every tied point is set; the rest is free
+		solutions.add(W.clone());
+		return;
+	    }
+	    for(int value=0; value<26 && solutions.size() < max; value++){
+		if (Winv[value] != -1) continue;
+		int mark = trailLen;
+		if (assign(u,value)) search();
+		undo(mark);
+	    }
+	}
+    }
+
+    private static String wiringString(int[] W){
+	char[] out = new char[26];
+	for(int x=0; x<26; x++) out[x] = (W[x] == -1) ? '?' : (char)('A'+W[x]);
+	return new String(out);
+    }
+
+    private static EnigmaPerm rotor(int i){
+	try{
+	    return new EnigmaPerm(ROTORS[i],NOTCHES[i],ROTORTYPE);
+	}catch(IllegalPermutationException e){
+	    throw new IllegalStateException("THIS SHOULD NEVER HAPPEN SINCE WIRING DONE WITH CONSTANTS!!!!");
+	}
+    }
+
+    private static EnigmaPerm reflector(){
+	try{
+	    return new EnigmaPerm(REFLECTOR);
+	}catch(IllegalPermutationException e){
+	    throw new IllegalStateException("THIS SHOULD NEVER HAPPEN SINCE WIRING DONE WITH CONSTANTS!!!!");
+	}
+    }
+
+    private static EnigmaPerm plugboard(EnigmaKey k){
+	try{
+	    return new EnigmaPerm(k.getPlugboard());
+	}catch(IllegalPermutationException e){
+	    throw new IllegalStateException("THIS SHOULD NEVER HAPPEN SINCE KEY CHECKED PLUGBOARD SETTINGS!!!!");
+	}
+    }
+
+    /**
+     * Encipher text as Enigma.encryptChar() does, but with rotor a wired
+     * as wiring with the given notch, and rotors b and c rotors[0] and
+     * rotors[1] of ROTORS.
+     */
+    static char[] encrypt(String wiring, char notch, int[] rotors, EnigmaKey k, char[] text)
+	throws IllegalArgumentException
+    {
+	EnigmaPerm a;
+	try{
+	    a = new EnigmaPerm(wiring,notch,ROTORTYPE);
+	}catch(IllegalPermutationException e){
+	    throw new IllegalArgumentException("Not a rotor wiring: "+wiring);
+	}
+	EnigmaPerm b = rotor(rotors[0]), c = rotor(rotors[1]), r = reflector(), p = plugboard(k);
+	char[] o = k.getOrientations(), rg = k.getRings();
+	a.setOrientation(o[0]); b.setOrientation(o[1]); c.setOrientation(o[2]);
+	a.setRing(rg[0]); b.setRing(rg[1]); c.setRing(rg[2]);
+	char[] out = new char[text.length];
+	for(int i=0; i<text.length; i++){
+	    a.rotate();
+	    if (a.notchPresent()){
+		b.rotate();
+		if (b.notchPresent()) c.rotate();
+	    }
+	    out[i] = p.permute(a.inversePermute(b.inversePermute(c.inversePermute(
+			r.permute(c.permute(b.permute(a.permute(p.permute(text[i])))))))));
+	}
+	return out;
+    }
+
+    /**
+     * Read the messages: key, colon, plaintext, '=', ciphertext per line.
+     */
+    private void readMessages(StringBuffer text) throws IllegalArgumentException{
+	ArrayList k = new ArrayList(), p = new ArrayList(), c = new ArrayList();
+	StringTokenizer lines = new StringTokenizer(text.toString(),"\n\r");
+	while(lines.hasMoreTokens()){
+	    String line = lines.nextToken();
+	    if (line.trim().length() == 0) continue;
+	    int colon = line.indexOf(':'), eq = line.indexOf('=');
+	    if (colon == -1 || eq < colon)
+		throw new IllegalArgumentException(errstr+"\nNo key: plaintext = ciphertext in the line\n"+line);
+	    try{
+		k.add(new EnigmaKey(line.substring(0,colon).trim()));
+	    }catch(KeyCreationException e){
+		throw new IllegalArgumentException(errstr+"\nBad key in the line\n"+line);
+	    }
+	    char[] plain = TextManip.letters(new StringBuffer(line.substring(colon+1,eq)));
+	    char[] cipher = TextManip.letters(new StringBuffer(line.substring(eq+1)));
+	    if (plain.length != cipher.length)
+		throw new IllegalArgumentException("Plaintext and ciphertext differ in length in the line\n"+line);
+	    p.add(plain);
+	    c.add(cipher);
+	}
+	if (k.size() == 0)
+	    throw new IllegalArgumentException(errstr+"\nNo messages given!!!");
+	keys = new EnigmaKey[k.size()];
+	plaintexts = new char[k.size()][];
+	ciphertexts = new char[k.size()][];
+	for(int m=0; m<keys.length; m++){
+	    keys[m] = (EnigmaKey)k.get(m);
+	    plaintexts[m] = (char[])p.get(m);
+	    ciphertexts[m] = (char[])c.get(m);
+	}
+    }
+
+    /**
+     * Set the search up from arg, starting from the defaults.
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	knownRotors = new int[]{ Enigma.DEFAULTWHEELORDER[1], Enigma.DEFAULTWHEELORDER[2] };
+	notch = -1;
+	maxsolutions = 10;
+	numthreads = ParallelRange.defaultThreads();
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("rotors")){
+		if (value.length() != 2 || value.charAt(0) == value.charAt(1)
+		    || value.charAt(0) < '1' || value.charAt(0) > '0'+ROTORS.length
+		    || value.charAt(1) < '1' || value.charAt(1) > '0'+ROTORS.length)
+		    throw new IllegalArgumentException(errstr+"\nrotors takes two different rotor numbers"
+						       +" from 1 to "+ROTORS.length+"!!!");
+		knownRotors = new int[]{ value.charAt(0)-'1', value.charAt(1)-'1' };
+	    }
+	    else if (name.equals("notch")){
+		if (value.length() != 1 || !Character.isLetter(value.charAt(0)))
+		    throw new IllegalArgumentException(errstr+"\nnotch must be a letter!!!");
+		notch = Character.toUpperCase(value.charAt(0))-'A';
+	    }
+	    else if (name.equals("max"))
+		maxsolutions = positive(errstr,name,value);
+	    else if (name.equals("threads"))
+		numthreads = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+    }
+
+    /**
+     * Check encrypt() against Enigma, recover rotor I from Enigma's own
+     * ciphertext, then recover random wirings from 50 to 400 letters of
+     * known plaintext spread over a few messages.
+     */
+    public static void main(String[] args) throws KeyCreationException{
+	java.util.Random rnd = new java.util.Random(1);
+	String plain = "ANXOBERKOMMANDODERWEHRMACHTWETTERBERICHTFUERDENRAUMNORDSEEHEUTEKEINBESONDERENVORKOMMNISSE";
+	String keystr = "JMX-KDA_AT_EQ_BL";
+	EnigmaKey k = new EnigmaKey(keystr);
+	String enigma = new Enigma().encrypt(new StringBuffer(plain),k).toString();
+	String simulated = new String(encrypt(ROTORS[0],NOTCHES[0],new int[]{1,2},k,plain.toCharArray()));
+	System.out.println(enigma.equals(simulated) ? "encrypt() agrees with Enigma."
+			   : "MISMATCH between encrypt() and Enigma!");
+
+	RotorWiringAnalysis analysis = new RotorWiringAnalysis();
+	StringBuffer text = new StringBuffer(keystr+": "+plain+" = "+enigma);
+	analysis.analyzeOn(text,"");
+	System.out.println("\nRotor I from one message of "+plain.length()+" letters:\n"+text);
+
+	int[] lengths = new int[]{ 50, 100, 200, 400 };
+	for(int t=0; t<lengths.length; t++){
+	    char[] wiring = new char[26];
+	    for(int i=0; i<26; i++) wiring[i] = (char)('A'+i);
+	    for(int i=25; i>0; i--){
+		int j = rnd.nextInt(i+1);
+		char x = wiring[i]; wiring[i] = wiring[j]; wiring[j] = x;
+	    }
+	    char N = (char)('A'+rnd.nextInt(26));
+	    StringBuffer messages = new StringBuffer();
+	    for(int left=lengths[t]; left > 0; ){
+		int n = Math.min(left,20+rnd.nextInt(100));
+		left -= n;
+		String key = "";
+		for(int i=0; i<3; i++) key += (char)('A'+rnd.nextInt(26));
+		key += "_"+(char)('A'+rnd.nextInt(13))+(char)('N'+rnd.nextInt(13));
+		char[] p = new char[n];
+		for(int i=0; i<n; i++) p[i] = (char)('A'+rnd.nextInt(26));
+		messages.append(key+": "+new String(p)+" = "
+				+new String(encrypt(new String(wiring),N,new int[]{1,2},new EnigmaKey(key),p))+"\n");
+	    }
+	    analysis.analyzeOn(messages,"");
+	    String result = messages.toString();
+	    System.out.println("\n"+lengths[t]+" letters, wiring "+new String(wiring)+" notch "+N+":\n"+result);
+	}
+    }
+}
@@ -0,0 +1,115 @@
+package webcrypt.stats;
+
+/**
+ * A ScoreHeap keeps the k best scoring candidates offered to it, each
+ * candidate being just a number (e.g. a rotor position).  It is a min-heap
+ * on the score, so the worst of the kept candidates is at the root and an
+ * offer that doesn't beat it is turned away in O(1) without allocating.
+ *
+ * Equal scores are broken by preferring the smaller candidate number, so
+ * the kept candidates don't depend on the order in which they were offered.
+ * That lets each thread of a parallel search fill its own heap and the
+ * heaps be merged afterwards.
+ */
+public class ScoreHeap{
+
+    private int capacity, size = 0;
+    private double[] scores;
+    private long[] ids;
+
+    public ScoreHeap(int capacity) throws IllegalArgumentException{
+	if (capacity < 1)
+	    throw new IllegalArgumentException("A ScoreHeap must keep at least one candidate.");
+	this.capacity = capacity;
+	scores = new double[capacity];
+	ids = new long[capacity];
+    }
+
+    public int size(){ return size; }
+
+    /**
+     * Is candidate i worse than candidate j?
+     */
+    private boolean worse(double si, long i, double sj, long j){
+	return si < sj || (si == sj && i > j);
+    }
+
+    /**
+     * Offer a candidate.  Returns true if it was kept.
+     */
+    public boolean offer(double score, long id){
+	if (size < capacity){
+	    int i = size++;
+	    while(i > 0){
+		int parent = (i-1)/2;
+		if (!worse(score,id,scores[parent],ids[parent])) break;
+		scores[i] = scores[parent];
+		ids[i] = ids[parent];
+		i = parent;
+	    }
+	    scores[i] = score;
+	    ids[i] = id;
+	    return true;
+	}
+	if (!worse(scores[0],ids[0],score,id)) return false;
+	// replace the root and sift down
+	int i = 0;
+	while(true){
+	    int child = 2*i+1;
+	    if (child >= size) break;
+	    if (child+1 < size && worse(scores[child+1],ids[child+1],scores[child],ids[child])) child++;
+	    if (!worse(scores[child],ids[child],score,id)) break;
+	    scores[i] = scores[child];
+	    ids[i] = ids[child];
+	    i = child;
+	}
+	scores[i] = score;
+	ids[i] = id;
+	return true;
+    }
+
+    /**
+     * Offer every candidate kept by another heap.
+     */
+    public void merge(ScoreHeap other){
+	for(int i=0; i<other.size; i++) offer(other.scores[i],other.ids[i]);
+    }
+
+    /**
+     * Positions of the kept candidates, best first.
+     */
+    private int[] order(){
+	Integer[] idx = new Integer[size];
+	for(int i=0; i<size; i++) idx[i] = Integer.valueOf(i);
+	java.util.Arrays.sort(idx,new java.util.Comparator(){
+		public int compare(Object x, Object y){
+		    int i = ((Integer)x).intValue(), j = ((Integer)y).intValue();
+		    return worse(scores[j],ids[j],scores[i],ids[i]) ? -1
+			: worse(scores[i],ids[i],scores[j],ids[j]) ? 1 : 0;
+		}
+	    });
+	int[] out = new int[size];
+	for(int i=0; i<size; i++) out[i] = idx[i].intValue();
+	return out;
+    }
+
+    /**
+     * The kept candidates, best first.
+     */
+    public long[] ids(){
+	int[] order = order();
+	long[] out = new long[size];
+	for(int i=0; i<size; i++) out[i] = ids[order[i]];
+	return out;
+    }
+
+    /**
+     * The scores of the kept candidates, best first (in the order of ids()).
+     */
+    public double[] scores(){
+	int[] order = order();
+	double[] out = new double[size];
+	for(int i=0; i<size; i++) out[i] = scores[order[i]];
+	return out;
+    }
+}
@@ -0,0 +1,77 @@
+package webcrypt.stats;
+
+/**
+ * A StopEstimate is the outcome of testing a Bombe menu at random rotor
+ * positions (see Bombe, option estimate): how many positions were tried,
+ * at how many of them the menu stopped, and how many stops those listed
+ * (a crib menu lists one stop per surviving stecker hypothesis).
+ *
+ * The number of stops a whole search gives is estimated from the rate at
+ * which the positions stop, with a Wilson score interval for that rate.
+ * Unlike the plain normal interval, the Wilson interval stays inside [0,1]
+ * and isn't empty when no position stopped at all, which is the usual
+ * outcome for a good menu.
+ */
+public class StopEstimate{
+
+    /**
+     * z of a 95% interval.
+     */
+    public final static double Z95 = 1.959963984540054;
+
+    private long samples, stopped, stops, size;
+
+    /**
+     * Of samples random positions out of the size positions of a search,
+     * stopped stopped, listing stops stops in all.
+     */
+    public StopEstimate(long samples, long stopped, long stops, long size){
+	this.samples = samples;
+	this.stopped = stopped;
+	this.stops = stops;
+	this.size = size;
+    }
+
+    public long getSamples(){ return samples; }
+    public long getStopped(){ return stopped; }
+
+    /**
+     * Stops listed per stopping position, 1 if none stopped.
+     */
+    private double perPosition(){
+	return (stopped == 0) ? 1 : (double)stops/stopped;
+    }
+
+    /**
+     * The expected number of stops of the whole search.
+     */
+    public double expected(){
+	return (samples == 0) ? 0 : (double)stops/samples*size;
+    }
+
+    /**
+     * The bounds of the 95% interval of the number of stops of the search.
+     */
+    public double low(){ return wilson(stopped,samples,Z95)[0]*size*perPosition(); }
+    public double high(){ return wilson(stopped,samples,Z95)[1]*size*perPosition(); }
+
+    /**
+     * The Wilson score interval {low,high} of a rate seen k times in n trials.
+     */
+    public static double[] wilson(long k, long n, double z){
+	if (n == 0) return new double[]{0,1};
+	double p = (double)k/n, z2 = z*z;
+	double center = (p + z2/(2*n)) / (1 + z2/n);
+	double half = z/(1 + z2/n) * Math.sqrt(p*(1-p)/n + z2/(4.0*n*n));
+	return new double[]{ Math.max(0,center-half), Math.min(1,center+half) };
+    }
+
+    private static String round(double x){
+	return (x >= 100) ? ""+Math.round(x) : ""+Math.round(x*10)/10.0;
+    }
+
+    public String toString(){
+	return "expected stops "+round(expected())+" (95% interval "+round(low())+" to "+round(high())
+	    +"), "+stopped+" of "+samples+" random positions stopped";
+    }
+}
@@ -0,0 +1,156 @@
+package webcrypt.stats;
+
+/**
+ * The StopVerifier class checks the stops of a crib search (see Bombe)
+ * and ranks them, so that the analyst doesn't have to try every stop with
+ * PlugAnalysis by hand.
+ *
+ * Each stop comes with the rotor setting and the steckers its menu
+ * implies.  A stop is rejected if it needs more plugs than the Enigma has
+ * cables, or if the message, decrypted with the implied steckers (the
+ * letters the menu says nothing about left unplugged), doesn't give back
+ * the crib wherever the steckers of both the crib letter and the cipher
+ * letter are known.  The other stops are scored by the NgramModel score
+ * per letter of that decryption and listed best first.
+ *
+ * Stops are verified on several threads (see ParallelRange); each stop
+ * gets its own Enigma, so a run with hundreds of stops takes no longer
+ * than decrypting the message that many times.
+ */
+import webcrypt.crypto.*;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class StopVerifier{
+
+    /**
+     * One stop: what the Bombe printed, and what is needed to decrypt with it.
+     */
+    public static class Stop{
+	String label;           // the stop as listed by the Bombe
+	int[] wheelOrder;
+	int greek = -1, thin = 0;
+	String key;             // rotors and rings as in EnigmaKey, without plugs
+	int[] steckers;         // steckers[L] = partner of L, or -1 if unknown
+
+	double score;           // n-gram score per letter, once verified
+	String rejected = null; // why the stop was rejected, if it was
+	String decryption;
+
+	public Stop(String label, int[] wheelOrder, int greek, int thin, String key, int[] steckers){
+	    this.label = label;
+	    this.wheelOrder = wheelOrder;
+	    this.greek = greek;
+	    this.thin = thin;
+	    this.key = key;
+	    this.steckers = steckers;
+	}
+
+	public double getScore(){ return score; }
+	public String getRejected(){ return rejected; }
+	public String getDecryption(){ return decryption; }
+
+	public String toString(){
+	    return (rejected != null) ? label+"  rejected: "+rejected
+		: round(score)+"\t"+label+"\t"+decryption;
+	}
+    }
+
+    private char[] ciphertext;
+    private int[] crib;       // crib[i] = plain letter of ciphertext letter i, or -1
+    private NgramModel model;
+    private int cables;
+    private int preview = 60; // letters of each decryption shown
+
+    /**
+     * A verifier for stops of the menu board on the ciphertext (capital
+     * letters), using at most cables plugs.
+     */
+    public StopVerifier(char[] ciphertext, DiagonalBoard board, NgramModel model, int cables){
+	this.ciphertext = ciphertext;
+	this.model = model;
+	this.cables = cables;
+	crib = new int[ciphertext.length];
+	Arrays.fill(crib,-1);
+	char[] plain = board.getCrib();
+	int[] positions = board.getPositions();
+	for(int i=0; i<positions.length; i++)
+	    if (positions[i] >= 1 && positions[i] <= ciphertext.length)
+		crib[positions[i]-1] = plain[i]-'A';
+    }
+
+    /**
+     * Verify the stops on numthreads threads.  Returns the stops that
+     * passed, best first; the rejected ones are left with getRejected() set.
+     */
+    public Stop[] verify(final Stop[] stops, int numthreads){
+	ParallelRange search = new ParallelRange(){
+		protected Object processChunk(int from, int to){
+		    for(int i=from; i<to; i++) verify(stops[i]);
+		    return null;
+		}
+	    };
+	if (stops.length > 0)
+	    search.run(stops.length, Math.min(stops.length,numthreads*8), numthreads);
+	int n = 0;
+	for(int i=0; i<stops.length; i++) if (stops[i].rejected == null) n++;
+	Stop[] out = new Stop[n];
+	n = 0;
+	for(int i=0; i<stops.length; i++) if (stops[i].rejected == null) out[n++] = stops[i];
+	// a stable sort, so equal scores stay in the Bombe's order
+	Arrays.sort(out,new Comparator(){
+		public int compare(Object x, Object y){
+		    double sx = ((Stop)x).score, sy = ((Stop)y).score;
+		    return (sx > sy) ? -1 : (sx < sy) ? 1 : 0;
+		}
+	    });
+	return out;
+    }
+
+    /**
+     * Check and score one stop.
+     */
+    void verify(Stop stop){
+	int[] steckers = stop.steckers;
+	String plugs = "";
+	int numplugs = 0;
+	for(int L=0; L<26; L++)
+	    if (steckers[L] > L){
+		plugs += "_"+(char)('A'+L)+(char)('A'+steckers[L]);
+		numplugs++;
+	    }
+	if (numplugs > cables){
+	    stop.rejected = "needs "+numplugs+" plugs";
+	    return;
+	}
+	EnigmaKey k;
+	try{
+	    k = new EnigmaKey(stop.key+plugs);
+	}catch(KeyCreationException e){
+	    stop.rejected = "not a valid key "+stop.key+plugs;
+	    return;
+	}
+	Enigma enigma = (stop.greek == -1) ? new Enigma(stop.wheelOrder)
+	    : new Enigma(stop.wheelOrder,stop.greek,stop.thin);
+	char[] plain = ciphertext.clone();
+	enigma.setup(k);
+	enigma.encryptChars(plain,0,plain.length);
+
+	int[] letters = new int[plain.length];
+	for(int i=0; i<plain.length; i++){
+	    letters[i] = plain[i]-'A';
+	    int P = crib[i], C = ciphertext[i]-'A';
+	    if (P != -1 && steckers[P] != -1 && steckers[C] != -1 && letters[i] != P){
+		stop.rejected = "decrypts crib letter "+(i+1)+" to "+plain[i]+" instead of "+(char)('A'+P);
+		return;
+	    }
+	}
+	stop.score = model.score(letters,0,letters.length)/letters.length;
+	stop.decryption = new String(plain,0,Math.min(preview,plain.length))
+	    +(plain.length > preview ? "..." : "");
+    }
+
+    private static String round(double x){
+	return ""+Math.round(x*1000)/1000.0;
+    }
+}
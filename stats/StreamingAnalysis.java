@@ -0,0 +1,248 @@
+package webcrypt.stats;
+
+/**
+ * The StreamingAnalysis class takes the letter frequencies, the index of
+ * coincidence and the n-gram tables of files too large to hold in memory,
+ * such as an archive of intercepts of several GB.
+ *
+ * The other Analyzors work on the text in the window, which holds the
+ * whole text (and upper-cased copies of it) in memory at once.  Here the
+ * files are read through a MappedFileReader a block at a time, and each
+ * block is counted into the letter counts (see
+ * MonoAlphabeticStats.count()) and into one NgramCounter per n-gram
+ * length asked for, all sharing one pass that turns the block's letters
+ * into numbers (see NgramCounter.letters(), which capitalizes as count()
+ * does).  An NgramCounter carries its window from one block to the next,
+ * so an n-gram split across two blocks counts as in one text; it is only
+ * ended between files.  Memory therefore doesn't grow with the size of
+ * the files: it is one block, the letter counts and the n-gram tables
+ * (dense up to 5-grams, and growing with the number of different n-grams
+ * above that).  Letter counts and totals are kept in longs; a
+ * single n-gram's count is an int.
+ *
+ * The text in the window is ignored and replaced by the report.  The
+ * argument consists of options separated by semicolons:
+ *
+ *    file=path    the file to analyze, or a directory whose files
+ *                 (subdirectories included) are analyzed in name order
+ *    ngrams=2,3   the n-gram lengths to tabulate, each 2 to 8 (default
+ *                 2,3,4); ngrams=none for letter statistics only
+ *    top=n        list the n most frequent n-grams of each length
+ *                 (default 20)
+ *
+ * main() writes a file of a few hundred MB of random mixed-case text,
+ * counting it in memory as it goes, and checks that streaming the file
+ * gives the same report.
+ */
+import webcrypt.io.MappedFileReader;
+import webcrypt.io.TextManip;
+import java.io.*;
+import java.util.StringTokenizer;
+
+public class StreamingAnalysis extends Analyzor{
+
+    public String toString(){
+	return "StreamingAnalysis(file=path[;options])";
+    }
+
+    private String errstr = "Wrong argument.\n"
+	+"The text is replaced by statistics of the file(s), and the argument consists\n"
+	+"of options separated by semicolons, at least the file or directory to read, e.g.\n"
+	+"                file=/data/archive.txt;ngrams=2,3,6;top=30";
+
+    /**
+     * Chars read at a time.
+     */
+    private final static int BLOCK = 1<<16;
+
+    private File file;
+    private int[] lengths;
+    private int top;
+
+    public void analyzeOn(StringBuffer text, String arg) throws IllegalArgumentException{
+	processOptions(arg);
+	File[] files = TextManip.listFiles(file);
+	if (files.length == 0)
+	    throw new IllegalArgumentException("No files to read in "+file+"!!!");
+
+	long t0 = System.currentTimeMillis();
+	MonoAlphabeticStats mas = new MonoAlphabeticStats();
+	long[] letters = new long[mas.getDomainSize()];
+	int[] block = new int[letters.length];
+	NgramCounter[] counters = new NgramCounter[lengths.length];
+	for(int i=0; i<lengths.length; i++) counters[i] = new NgramCounter(lengths[i]);
+	char[] buf = new char[BLOCK];
+	byte[] caps = new byte[BLOCK*NgramCounter.MAXEXPANSION];
+	long chars = 0;
+	for(int f=0; f<files.length; f++){
+	    try{
+		MappedFileReader in = new MappedFileReader(files[f]);
+		try{
+		    int n;
+		    while((n = in.read(buf,0,buf.length)) != -1){
+			chars += n;
+			mas.count(buf,0,n,block);
+			for(int i=0; i<block.length; i++){
+			    letters[i] += block[i];
+			    block[i] = 0;
+			}
+			if (counters.length == 0) continue;
+			int m = NgramCounter.letters(buf,0,n,caps);
+			for(int i=0; i<counters.length; i++) counters[i].addLetters(caps,0,m);
+		    }
+		}finally{
+		    in.close();
+		}
+	    }catch(IOException e){
+		throw new IllegalArgumentException("Couldn't read "+files[f]+": "+e.getMessage()+"!!!");
+	    }
+	    for(int i=0; i<counters.length; i++) counters[i].endText();
+	}
+	long ms = System.currentTimeMillis() - t0;
+
+	String result = "Read "+files.length+(files.length == 1 ? " file" : " files")+" of "+chars
+	    +" chars in all in "+ms+" ms.\n"+report(mas,letters,counters,top);
+	text.delete(0,text.length());
+	text.append(result);
+    }
+
+    /**
+     * The letter table, index of coincidence and n-gram tables of the
+     * given counts.
+     */
+    static String report(MonoAlphabeticStats mas, long[] letters, NgramCounter[] counters, int top){
+	long total = 0;
+	for(int i=0; i<letters.length; i++) total += letters[i];
+	StringBuffer out = new StringBuffer("\n"+total+" letters, index of coincidence "
+					    +indexOfCoincidence(letters,total)+"\n\nLetter\tCount\tFrequency\n\n");
+	// letters by descending count, ties in domain order
+	boolean[] done = new boolean[letters.length];
+	for(int j=0; j<letters.length; j++){
+	    int max = -1;
+	    for(int i=0; i<letters.length; i++)
+		if (!done[i] && (max == -1 || letters[i] > letters[max])) max = i;
+	    done[max] = true;
+	    out.append(mas.domainChar(max)+":\t"+letters[max]+"\t"
+		       +(total == 0 ? 0 : (double)letters[max]/total)+"\n");
+	}
+	for(int i=0; i<counters.length; i++){
+	    StringFrequency[] table = counters[i].topFrequencies(top);
+	    out.append("\n"+counters[i].getN()+"-grams: "+counters[i].getTotal()+" in all, "
+		       +counters[i].getDistinct()+" different\n\n");
+	    for(int j=0; j<table.length; j++) out.append(table[j]+"\n");
+	}
+	return out.toString();
+    }
+
+    /**
+     * As VigenereStats.indexOfCoincidence(), with counts too large for
+     * ints.
+     */
+    private static double indexOfCoincidence(long[] counts, long n){
+	if (n < 2) return 1;
+	double sum = 0;
+	for(int i=0; i<counts.length; i++) sum += (double)counts[i]*counts[i];
+	return (sum - n)/((double)n*n - n);
+    }
+
+    /**
+     * Read file=, ngrams= and top=, starting from the defaults.
+     */
+    private void processOptions(String arg) throws IllegalArgumentException{
+	file = null;
+	lengths = new int[]{2,3,4};
+	top = 20;
+
+	String[][] options = options(arg);
+	for(int o=0; o<options.length; o++){
+	    String name = options[o][0], value = options[o][1], option = options[o][2];
+	    if (name.equals("file")){
+		file = new File(value);
+		if (value.length() == 0 || !file.exists())
+		    throw new IllegalArgumentException(errstr+"\nNo such file or directory "+value+"!!!");
+	    }
+	    else if (name.equals("ngrams")){
+		if (value.equals("none")){
+		    lengths = new int[0];
+		    continue;
+		}
+		StringTokenizer nums = new StringTokenizer(value,", ");
+		lengths = new int[nums.countTokens()];
+		for(int i=0; i<lengths.length; i++){
+		    lengths[i] = positive(errstr,name,nums.nextToken());
+		    if (lengths[i] < 2 || lengths[i] > NgramCounter.MAXN)
+			throw new IllegalArgumentException(errstr+"\nn-gram lengths must be 2 to "
+							   +NgramCounter.MAXN+"!!!");
+		}
+	    }
+	    else if (name.equals("top"))
+		top = positive(errstr,name,value);
+	    else
+		throw new IllegalArgumentException(errstr+"\nUnknown option "+option+"!!!");
+	}
+	if (file == null)
+	    throw new IllegalArgumentException(errstr+"\nThe file to read must be given with file=path!!!");
+    }
+
+    /**
+     * Write a file of args[0] MB (default 256) of random words in mixed
+     * case, counting each piece written in memory, then stream the file
+     * and compare the reports.  Run with a heap smaller than the file
+     * (e.g. -Xmx64m) to see that it isn't held in memory.
+     */
+    public static void main(String[] args) throws IOException{
+	long size = ((args.length > 0) ? Long.parseLong(args[0]) : 256) << 20;
+	java.util.Random rnd = new java.util.Random(1);
+	String[] words = new String[]{ "The", "and", "OF", "Enigma", "weather", "REPORT", "north", "Sea",
+				       "stop", "Attack", "at", "dawn", "CONVOY", "sighted", "heading", "east",
+				       "Stra\u00dfe" };
+	String[] gaps = new String[]{ " ", " ", ", ", ".\n", " - " };
+	MonoAlphabeticStats mas = new MonoAlphabeticStats();
+	long[] letters = new long[mas.getDomainSize()];
+	int[] block = new int[letters.length];
+	int[] lengths = new int[]{2,3,4,6};
+	NgramCounter[] counters = new NgramCounter[lengths.length];
+	for(int i=0; i<lengths.length; i++) counters[i] = new NgramCounter(lengths[i]);
+
+	File f = File.createTempFile("archive",".txt");
+	// one byte per char, as MappedFileReader reads them
+	Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f),"ISO-8859-1"));
+	StringBuffer piece = new StringBuffer();
+	long written = 0;
+	long t0 = System.currentTimeMillis();
+	while(written < size){
+	    piece.setLength(0);
+	    int len = 1+rnd.nextInt(1000);
+	    while(piece.length() < len)
+		piece.append(words[rnd.nextInt(words.length)]).append(gaps[rnd.nextInt(gaps.length)]);
+	    // cut mid-word, so that n-grams straddle the pieces
+	    char[] chars = new char[len];
+	    piece.getChars(0,len,chars,0);
+	    out.write(chars);
+	    written += len;
+	    mas.count(chars,0,len,block);
+	    for(int i=0; i<block.length; i++){
+		letters[i] += block[i];
+		block[i] = 0;
+	    }
+	    for(int i=0; i<counters.length; i++) counters[i].add(chars,0,len);
+	}
+	out.close();
+	long t1 = System.currentTimeMillis();
+	System.out.println("Wrote and counted "+written+" chars in "+(t1-t0)+" ms.");
+
+	StreamingAnalysis analysis = new StreamingAnalysis();
+	StringBuffer text = new StringBuffer();
+	analysis.analyzeOn(text,"file="+f+";ngrams=2,3,4,6;top=10");
+	String result = text.toString();
+	System.out.println(result.substring(0,result.indexOf("\n2-grams")));
+	System.out.println(result.endsWith(report(mas,letters,counters,10)) ? "Same report as counting in memory."
+			   : "REPORT DIFFERS from counting in memory!");
+	long total = 0;
+	for(int i=0; i<letters.length; i++) total += letters[i];
+	System.out.println(total == counters[0].getTotal()+1 ? "Letters and bigrams agree, the sharp s counting as SS in both."
+			   : "LETTERS AND BIGRAMS DISAGREE: "+total+" letters, "+counters[0].getTotal()+" bigrams!");
+	System.out.println("Heap used: "+(Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/(1<<20)+" MB.");
+	f.delete();
+    }
+}
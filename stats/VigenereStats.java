@@ -76,11 +76,19 @@ public class VigenereStats extends MonoAlphabeticStats{
      */
     public double indexOfCoincidence(String x){
 	if (x==null || x.length()<2) return 1;
-	CharFrequency[] freqs = getFrequencies(x);
+	return indexOfCoincidence(counts(x),x.length());
+    }
+
+    /**
+     * Compute I_c from letter counts alone: counts[i] is the number of
+     * times letter i occurs in a text of n letters.  Lets searches which
+     * score many candidate texts skip building Strings and CharFrequency's.
+     */
+    public static double indexOfCoincidence(int[] counts, int n){
+	if (n < 2) return 1;
 	double sum = 0;
-	for(int i=0; i<freqs.length; i++) sum += Math.pow(freqs[i].getCount(),2);
-	int n = x.length();
-	return (sum - n)/(n*n - n);
+	for(int i=0; i<counts.length; i++) sum += (double)counts[i]*counts[i];
+	return (sum - n)/((double)n*n - n);
     }
 
 
@@ -110,18 +118,18 @@ public class VigenereStats extends MonoAlphabeticStats{
 	x = x.toUpperCase();
 
 	// easy way to get table
-	CharFrequency[][] cftable = new CharFrequency[p][];
+	int[][] counts = new int[p][];
 	String[] substrings = (periodicSubstrings(x,p))[p-1];
-	for(int i=0; i<p; i++) cftable[i] = unorderedFrequencies(substrings[i]);
+	for(int i=0; i<p; i++) counts[i] = counts(substrings[i]);
 	
 	//now convert to table of double's.  
-	double[][] table = new double[p][cftable[0].length];
+	double[][] table = new double[p][domsize];
 	for(int i=0; i<p; i++){
 	    int totalcount = substrings[i].length();
 	    for(int j=0; j<domsize; j++){
 		double interpolation = 0;
 		for (int k=0; k<domsize; k++){
-		    interpolation += FREQ[k]*cftable[i][(k+j+domsize) % domsize].getCount();
+		    interpolation += FREQ[k]*counts[i][(k+j+domsize) % domsize];
 		}
 		table[i][j] = interpolation / totalcount;
 	    }